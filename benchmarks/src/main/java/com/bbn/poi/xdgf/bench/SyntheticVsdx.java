@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bbn.poi.xdgf.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a single page vsdx file with a configurable number of shapes,
+ * connectors, nested groups and free standing text boxes, so that the
+ * parser can be measured without shipping real diagrams.
+ *
+ * Every shape is an instance of a single "Server" master laid out on a
+ * grid. Connectors are L-shaped lines between random shapes; half of them
+ * are glued with Connect records and the rest are left for the parser to
+ * infer. Each group gets a labelled container drawn around it.
+ */
+public class SyntheticVsdx {
+
+	static final String NS = "http://schemas.microsoft.com/office/visio/2012/main";
+	static final String R_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	static final String PKG_REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+	static final String VISIO_REL = "http://schemas.microsoft.com/visio/2010/relationships/";
+
+	static final int MASTER_ID = 2;
+
+	static final double SHAPE_W = 1.0;
+	static final double SHAPE_H = 0.6;
+	static final double GRID_X = 2.0;
+	static final double GRID_Y = 1.5;
+
+	public int shapes;
+	public int connectors;
+	public int groups;
+	public int groupSize = 4;
+	public int textBoxes;
+	public long seed = 42;
+
+	public SyntheticVsdx(int shapes, int connectors, int groups, int textBoxes) {
+		this.shapes = shapes;
+		this.connectors = connectors;
+		this.groups = groups;
+		this.textBoxes = textBoxes;
+	}
+
+	public File write(File file) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			write(out);
+		}
+		return file;
+	}
+
+	public void write(OutputStream out) throws IOException {
+
+		ZipOutputStream zip = new ZipOutputStream(out);
+
+		put(zip, "[Content_Types].xml", contentTypes());
+		put(zip, "_rels/.rels", rels(rel("rId1", "document", "visio/document.xml")));
+
+		put(zip, "visio/document.xml", document());
+		put(zip, "visio/_rels/document.xml.rels", rels(rel("rId1", "masters", "masters/masters.xml") +
+													 rel("rId2", "pages", "pages/pages.xml")));
+
+		put(zip, "visio/masters/masters.xml", masters());
+		put(zip, "visio/masters/_rels/masters.xml.rels", rels(rel("rId1", "master", "master1.xml")));
+		put(zip, "visio/masters/master1.xml", masterContents());
+
+		put(zip, "visio/pages/pages.xml", pages());
+		put(zip, "visio/pages/_rels/pages.xml.rels", rels(rel("rId1", "page", "page1.xml")));
+		put(zip, "visio/pages/page1.xml", pageContents());
+		put(zip, "visio/pages/_rels/page1.xml.rels", rels(rel("rId1", "master", "../masters/master1.xml")));
+
+		zip.finish();
+	}
+
+	//
+	// Package parts
+	//
+
+	protected String contentTypes() {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+			"<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">" +
+			"<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>" +
+			"<Default Extension=\"xml\" ContentType=\"application/xml\"/>" +
+			"<Override PartName=\"/visio/document.xml\" ContentType=\"application/vnd.ms-visio.drawing.main+xml\"/>" +
+			"<Override PartName=\"/visio/masters/masters.xml\" ContentType=\"application/vnd.ms-visio.masters+xml\"/>" +
+			"<Override PartName=\"/visio/masters/master1.xml\" ContentType=\"application/vnd.ms-visio.master+xml\"/>" +
+			"<Override PartName=\"/visio/pages/pages.xml\" ContentType=\"application/vnd.ms-visio.pages+xml\"/>" +
+			"<Override PartName=\"/visio/pages/page1.xml\" ContentType=\"application/vnd.ms-visio.page+xml\"/>" +
+			"</Types>";
+	}
+
+	protected String document() {
+		return header("VisioDocument") +
+			"<DocumentSettings TopPage=\"0\" DefaultTextStyle=\"0\" DefaultLineStyle=\"0\" DefaultFillStyle=\"0\" DefaultGuideStyle=\"0\"/>" +
+			"<StyleSheets><StyleSheet ID=\"0\" NameU=\"No Style\" Name=\"No Style\">" +
+			"<Cell N=\"LineWeight\" V=\"0.01\"/><Cell N=\"LineColor\" V=\"#000000\"/><Cell N=\"LinePattern\" V=\"1\"/>" +
+			"</StyleSheet></StyleSheets>" +
+			"</VisioDocument>";
+	}
+
+	protected String masters() {
+		return header("Masters") +
+			"<Master ID=\"" + MASTER_ID + "\" NameU=\"Server\" Name=\"Server\"><Rel r:id=\"rId1\"/></Master>" +
+			"</Masters>";
+	}
+
+	protected String masterContents() {
+		StringBuilder sb = new StringBuilder(header("MasterContents"));
+		sb.append("<Shapes><Shape ID=\"5\" NameU=\"Server\" Name=\"Server\" Type=\"Shape\" LineStyle=\"0\" FillStyle=\"0\" TextStyle=\"0\">");
+		transform(sb, SHAPE_W/2, SHAPE_H/2, SHAPE_W, SHAPE_H);
+		style(sb);
+		rectangle(sb, SHAPE_W, SHAPE_H);
+		sb.append("</Shape></Shapes></MasterContents>");
+		return sb.toString();
+	}
+
+	protected String pages() {
+		return header("Pages") +
+			"<Page ID=\"0\" NameU=\"Page-1\" Name=\"Page-1\"><PageSheet>" +
+			"<Cell N=\"PageWidth\" V=\"" + num(pageWidth()) + "\"/>" +
+			"<Cell N=\"PageHeight\" V=\"" + num(pageHeight()) + "\"/>" +
+			"</PageSheet><Rel r:id=\"rId1\"/></Page>" +
+			"</Pages>";
+	}
+
+	protected String pageContents() {
+
+		Random random = new Random(seed);
+		StringBuilder sb = new StringBuilder(header("PageContents"));
+		StringBuilder connects = new StringBuilder();
+
+		sb.append("<Shapes>");
+
+		// shape ids 1..shapes are the grid shapes, everything else follows
+		int nextId = shapes + 1;
+
+		for (int i = 0; i < shapes; i++) {
+			masterShape(sb, i + 1, "Server " + i, centerX(i), centerY(i));
+		}
+
+		for (int i = 0; i < textBoxes && shapes > 0; i++) {
+			int target = i % shapes;
+			textBox(sb, nextId++, "Label " + i, centerX(target), centerY(target) - SHAPE_H*0.75);
+		}
+
+		for (int i = 0; i < connectors && shapes > 1; i++) {
+			int a = random.nextInt(shapes);
+			int b = random.nextInt(shapes - 1);
+			if (b >= a)
+				b += 1;
+
+			int id = nextId++;
+			connector(sb, id, centerX(a), centerY(a), centerX(b), centerY(b));
+
+			if (i % 2 == 0) {
+				connects.append("<Connect FromSheet=\"").append(id).append("\" FromCell=\"BeginX\" FromPart=\"9\" ToSheet=\"")
+						.append(a + 1).append("\" ToCell=\"PinX\" ToPart=\"3\"/>");
+				connects.append("<Connect FromSheet=\"").append(id).append("\" FromCell=\"EndX\" FromPart=\"12\" ToSheet=\"")
+						.append(b + 1).append("\" ToCell=\"PinX\" ToPart=\"3\"/>");
+			}
+		}
+
+		double groupY = gridTop() + GRID_Y*2;
+		double groupW = GRID_X*2;
+		double groupH = GRID_Y*2;
+
+		for (int g = 0; g < groups; g++) {
+
+			double gx = GRID_X + g*(groupW + GRID_X);
+
+			// the container is a plain labelled rectangle around the group
+			int containerId = nextId++;
+			sb.append("<Shape ID=\"").append(containerId).append("\" Type=\"Shape\" LineStyle=\"0\" FillStyle=\"0\" TextStyle=\"0\">");
+			transform(sb, gx, groupY, groupW + 0.4, groupH + 0.4);
+			style(sb);
+			rectangle(sb, groupW + 0.4, groupH + 0.4);
+			text(sb, "Zone " + g);
+			sb.append("</Shape>");
+
+			sb.append("<Shape ID=\"").append(nextId++).append("\" Type=\"Group\" LineStyle=\"0\" FillStyle=\"0\" TextStyle=\"0\">");
+			transform(sb, gx, groupY, groupW, groupH);
+			style(sb);
+			sb.append("<Shapes>");
+
+			// children are positioned in the group's local coordinates
+			for (int c = 0; c < groupSize; c++) {
+				double cx = GRID_X/2 + (c % 2)*GRID_X;
+				double cy = GRID_Y/2 + ((c / 2) % 2)*GRID_Y;
+				masterShape(sb, nextId++, "Group " + g + "." + c, cx, cy);
+			}
+
+			sb.append("</Shapes></Shape>");
+		}
+
+		sb.append("</Shapes>");
+
+		if (connects.length() != 0) {
+			sb.append("<Connects>").append(connects).append("</Connects>");
+		}
+
+		sb.append("</PageContents>");
+		return sb.toString();
+	}
+
+	//
+	// Shapes
+	//
+
+	protected void masterShape(StringBuilder sb, int id, String text, double x, double y) {
+		sb.append("<Shape ID=\"").append(id).append("\" NameU=\"Server.").append(id).append("\" Name=\"Server.").append(id)
+		  .append("\" Type=\"Shape\" Master=\"").append(MASTER_ID).append("\">");
+		transform(sb, x, y, SHAPE_W, SHAPE_H);
+		style(sb);
+		text(sb, text);
+		sb.append("</Shape>");
+	}
+
+	protected void textBox(StringBuilder sb, int id, String text, double x, double y) {
+		sb.append("<Shape ID=\"").append(id).append("\" Type=\"Shape\" LineStyle=\"0\" FillStyle=\"0\" TextStyle=\"0\">");
+		transform(sb, x, y, SHAPE_W*0.8, SHAPE_H/3);
+		style(sb);
+		text(sb, text);
+		sb.append("</Shape>");
+	}
+
+	protected void connector(StringBuilder sb, int id, double bx, double by, double ex, double ey) {
+
+		double minX = Math.min(bx, ex);
+		double minY = Math.min(by, ey);
+		double w = Math.abs(ex - bx);
+		double h = Math.abs(ey - by);
+
+		sb.append("<Shape ID=\"").append(id).append("\" NameU=\"Dynamic connector.").append(id)
+		  .append("\" Type=\"Shape\" LineStyle=\"0\" FillStyle=\"0\" TextStyle=\"0\">");
+		transform(sb, minX + w/2, minY + h/2, w, h);
+		cell(sb, "BeginX", bx);
+		cell(sb, "BeginY", by);
+		cell(sb, "EndX", ex);
+		cell(sb, "EndY", ey);
+		style(sb);
+
+		// route horizontally first, then vertically
+		sb.append("<Section N=\"Geometry\" IX=\"0\">");
+		int ix = 1;
+		row(sb, "MoveTo", ix++, bx - minX, by - minY);
+		if (w != 0)
+			row(sb, "LineTo", ix++, ex - minX, by - minY);
+		if (h != 0)
+			row(sb, "LineTo", ix++, ex - minX, ey - minY);
+		sb.append("</Section>");
+
+		sb.append("</Shape>");
+	}
+
+	protected void transform(StringBuilder sb, double pinX, double pinY, double w, double h) {
+		cell(sb, "PinX", pinX);
+		cell(sb, "PinY", pinY);
+		cell(sb, "Width", w);
+		cell(sb, "Height", h);
+		cell(sb, "LocPinX", w/2);
+		cell(sb, "LocPinY", h/2);
+		cell(sb, "Angle", 0);
+		sb.append("<Cell N=\"FlipX\" V=\"0\"/><Cell N=\"FlipY\" V=\"0\"/>");
+	}
+
+	protected void style(StringBuilder sb) {
+		sb.append("<Cell N=\"LineColor\" V=\"#000000\"/><Cell N=\"LinePattern\" V=\"1\"/>");
+	}
+
+	protected void rectangle(StringBuilder sb, double w, double h) {
+		sb.append("<Section N=\"Geometry\" IX=\"0\">");
+		row(sb, "MoveTo", 1, 0, 0);
+		row(sb, "LineTo", 2, w, 0);
+		row(sb, "LineTo", 3, w, h);
+		row(sb, "LineTo", 4, 0, h);
+		row(sb, "LineTo", 5, 0, 0);
+		sb.append("</Section>");
+	}
+
+	protected void text(StringBuilder sb, String text) {
+		// generated text never needs escaping
+		sb.append("<Text>").append(text).append("</Text>");
+	}
+
+	protected void row(StringBuilder sb, String type, int ix, double x, double y) {
+		sb.append("<Row T=\"").append(type).append("\" IX=\"").append(ix).append("\">");
+		cell(sb, "X", x);
+		cell(sb, "Y", y);
+		sb.append("</Row>");
+	}
+
+	protected void cell(StringBuilder sb, String name, double value) {
+		sb.append("<Cell N=\"").append(name).append("\" V=\"").append(num(value)).append("\"/>");
+	}
+
+	//
+	// Layout
+	//
+
+	protected int columns() {
+		return Math.max(1, (int)Math.ceil(Math.sqrt(shapes)));
+	}
+
+	protected double centerX(int i) {
+		return GRID_X/2 + (i % columns())*GRID_X;
+	}
+
+	protected double centerY(int i) {
+		return GRID_Y/2 + (i / columns())*GRID_Y;
+	}
+
+	protected double gridTop() {
+		return GRID_Y*((shapes + columns() - 1) / columns());
+	}
+
+	protected double pageWidth() {
+		return Math.max(columns()*GRID_X, GRID_X + groups*(GRID_X*3));
+	}
+
+	protected double pageHeight() {
+		return gridTop() + GRID_Y*4;
+	}
+
+	//
+	// Helpers
+	//
+
+	protected static String header(String root) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+			"<" + root + " xmlns=\"" + NS + "\" xmlns:r=\"" + R_NS + "\" xml:space=\"preserve\">";
+	}
+
+	protected static String rels(String body) {
+		return "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+			"<Relationships xmlns=\"" + PKG_REL_NS + "\">" + body + "</Relationships>";
+	}
+
+	protected static String rel(String id, String type, String target) {
+		return "<Relationship Id=\"" + id + "\" Type=\"" + VISIO_REL + type + "\" Target=\"" + target + "\"/>";
+	}
+
+	protected static String num(double value) {
+		return String.format(Locale.ROOT, "%.4f", value);
+	}
+
+	protected static void put(ZipOutputStream zip, String name, String content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		zip.write(content.getBytes(StandardCharsets.UTF_8));
+		zip.closeEntry();
+	}
+
+	public static void main(String [] args) throws IOException {
+
+		if (args.length < 5) {
+			System.err.println("Usage: SyntheticVsdx out.vsdx shapes connectors groups textboxes");
+			System.exit(1);
+		}
+
+		new SyntheticVsdx(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+						  Integer.parseInt(args[3]), Integer.parseInt(args[4])).write(new File(args[0]));
+	}
+}
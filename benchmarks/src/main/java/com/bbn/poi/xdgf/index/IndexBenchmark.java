@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the grid and the R-tree on a bulk load of every shape followed
+ * by a search with each shape's own bounds. The grouping phases no longer
+ * search the index (they use SpatialJoin), so this is a stand-in for the
+ * per-shape searches left in inferConnections and the text and group
+ * connection phases. ProcessBenchmark shows the effect on whole pages.
+ * 
+ * The uniform layout is a rack elevation style page, with similar sized
+ * shapes spread evenly. The mixed layout has shapes of many sizes, and a
+ * few big containers that overlap most of the page.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IndexBenchmark {
+
+	@Param({"rtree", "grid"})
+	public String index;
+	
+	@Param({"uniform", "mixed"})
+	public String layout;
+	
+	@Param({"1000", "10000"})
+	public int n;
+	
+	protected List<Integer> items;
+	protected double[] bounds;
+	protected SpatialIndex<Integer> loaded;
+	
+	@Setup(Level.Trial)
+	public void setup() {
+		
+		Random random = new Random(42);
+		items = new ArrayList<>(n);
+		bounds = new double[n*4];
+		
+		int side = (int)Math.ceil(Math.sqrt(n));
+		
+		for (int i = 0; i < n; i++) {
+			double x, y, w, h;
+			
+			if (layout.equals("uniform")) {
+				x = (i % side)*1.5 + random.nextDouble()*0.2;
+				y = (i / side)*1.0 + random.nextDouble()*0.2;
+				w = 1.0 + random.nextDouble()*0.2;
+				h = 0.6 + random.nextDouble()*0.2;
+			} else {
+				x = random.nextDouble()*side*1.5;
+				y = random.nextDouble()*side;
+				w = Math.exp(random.nextGaussian());
+				h = Math.exp(random.nextGaussian());
+				
+				// containers
+				if (i % 100 == 0) {
+					w *= side/4.0;
+					h *= side/4.0;
+				}
+			}
+			
+			items.add(i);
+			bounds[i*4] = x;
+			bounds[i*4 + 1] = y;
+			bounds[i*4 + 2] = x + w;
+			bounds[i*4 + 3] = y + h;
+		}
+		
+		loaded = load();
+	}
+	
+	protected SpatialIndex<Integer> load() {
+		SpatialIndex<Integer> idx = index.equals("grid") ? new GridIndex<Integer>() : new PackedRTree<Integer>();
+		idx.load(items, bounds);
+		return idx;
+	}
+	
+	@Benchmark
+	public SpatialIndex<Integer> build() {
+		return load();
+	}
+	
+	// returns the number of hits, so the searches can't be optimized away
+	@Benchmark
+	public long searchAll() {
+		
+		final long[] hits = {0};
+		SpatialIndex.Visitor<Integer> visitor = new SpatialIndex.Visitor<Integer>() {
+			@Override
+			public boolean visit(Integer item) {
+				hits[0]++;
+				return true;
+			}
+		};
+		
+		for (int i = 0; i < n; i++)
+			loaded.search(bounds[i*4], bounds[i*4 + 1], bounds[i*4 + 2], bounds[i*4 + 3], visitor);
+		
+		return hits[0];
+	}
+	
+	@Benchmark
+	public long searchNearAll() {
+		
+		final long[] hits = {0};
+		SpatialIndex.Visitor<Integer> visitor = new SpatialIndex.Visitor<Integer>() {
+			@Override
+			public boolean visit(Integer item) {
+				hits[0]++;
+				return true;
+			}
+		};
+		
+		for (int i = 0; i < n; i++)
+			loaded.searchNear(bounds[i*4], bounds[i*4 + 1], bounds[i*4 + 2], bounds[i*4 + 3], 0.3, visitor);
+		
+		return hits[0];
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import org.apache.poi.xdgf.usermodel.XDGFPage;
+import org.apache.poi.xdgf.usermodel.XmlVisioDocument;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.bbn.poi.xdgf.bench.SyntheticVsdx;
+
+/**
+ * Generates a synthetic document once per trial and keeps its page around;
+ * loading the document is not part of what the parser benchmarks measure.
+ */
+@State(Scope.Benchmark)
+public class PageBenchmarkState {
+
+	@Param({"100", "1000"})
+	public int shapes;
+	
+	@Param({"50", "500"})
+	public int connectors;
+	
+	@Param({"5"})
+	public int groups;
+	
+	@Param({"50"})
+	public int textBoxes;
+	
+	public XDGFPage page;
+	
+	@Setup(Level.Trial)
+	public void load() throws IOException {
+		
+		File file = File.createTempFile("bench", ".vsdx");
+		file.deleteOnExit();
+		
+		new SyntheticVsdx(shapes, connectors, groups, textBoxes).write(file);
+		
+		try (FileInputStream in = new FileInputStream(file)) {
+			XmlVisioDocument document = new XmlVisioDocument(in);
+			page = document.getPages().iterator().next();
+		}
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.poi.xdgf.usermodel.XDGFPage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures one phase of VisioPageParser.process() at a time. Before each
+ * invocation a fresh parser is run up to the phase being measured, so
+ * only the phase itself is timed.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PhaseBenchmark {
+
+	// the order that process() runs things in
+	static final String[] PHASES = {
+		"collectShapes",
+		"collectConnections",
+		"removeBoringShapes",
+		"sortShapes",
+		"associateText",
+		"joinGroupedShapes",
+		"addGroupLabels",
+		"inferConnections",
+		"inferGroupConnections",
+		"removeConnectionsAt2Dobjects",
+	};
+	
+	static class PhaseParser extends VisioPageParser {
+		
+		public PhaseParser(XDGFPage page) {
+			super(page);
+		}
+		
+		void runBefore(String phase) {
+			for (String p: PHASES) {
+				if (p.equals(phase))
+					return;
+				run(p);
+			}
+			
+			throw new IllegalArgumentException("Unknown phase " + phase);
+		}
+		
+		void run(String phase) {
+			switch (phase) {
+				case "collectShapes": collectShapes(); break;
+				case "collectConnections": collectConnections(); break;
+				case "removeBoringShapes": removeBoringShapes(); break;
+				case "sortShapes": shapes.sort(new ShapeData.OrderByLargestAreaFirst()); break;
+				case "associateText": associateText(); break;
+				case "joinGroupedShapes": joinGroupedShapes(); break;
+				case "addGroupLabels": addGroupLabels(); break;
+				case "inferConnections": inferConnections(); break;
+				case "inferGroupConnections": inferGroupConnections(); break;
+				case "removeConnectionsAt2Dobjects": removeConnectionsAt2Dobjects(); break;
+				default:
+					throw new IllegalArgumentException("Unknown phase " + phase);
+			}
+		}
+	}
+	
+	@State(Scope.Thread)
+	public static class PhaseState {
+		
+		@Param({"collectShapes", "associateText", "joinGroupedShapes", "addGroupLabels",
+				"inferConnections", "inferGroupConnections", "removeConnectionsAt2Dobjects"})
+		public String phase;
+		
+		PhaseParser parser;
+		
+		// phases are in the millisecond range on the larger pages, so the
+		// per-invocation setup doesn't swamp the measurement
+		@Setup(Level.Invocation)
+		public void prepare(PageBenchmarkState page) {
+			parser = new PhaseParser(page.page);
+			parser.runBefore(phase);
+		}
+	}
+	
+	@Benchmark
+	public VisioPageParser phase(PhaseState state) {
+		state.parser.run(state.phase);
+		return state.parser;
+	}
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.tinkerpop.blueprints.Graph;
+
+/**
+ * Parses a whole page, from collecting shapes through to the finished graph
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProcessBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class IndexChoice {
+		
+		@Param({"AUTO", "RTREE", "GRID"})
+		public VisioPageParser.IndexType indexType;
+	}
+	
+	@Benchmark
+	public Graph process(PageBenchmarkState state, IndexChoice choice) {
+		VisioPageParser parser = new VisioPageParser(state.page);
+		parser.setIndexType(choice.indexType);
+		parser.process();
+		return parser.getGraph();
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.bbn.poi.xdgf.io.BinaryGraphReader;
+import com.bbn.poi.xdgf.io.BinaryGraphWriter;
+import com.google.common.collect.Iterables;
+import com.tinkerpop.blueprints.Graph;
+
+/**
+ * Caches page graphs by content key (see VsdxParts.pageKey). Graphs are
+ * kept in memory in LRU order up to a total number of vertices and edges,
+ * and optionally written to a directory so they survive the process.
+ * 
+ * Graphs returned from the cache are shared, and must not be modified.
+ */
+public class GraphCache {
+
+	protected static class Entry {
+		final Graph graph;
+		final long elements;
+		
+		Entry(Graph graph, long elements) {
+			this.graph = graph;
+			this.elements = elements;
+		}
+	}
+	
+	protected final long maxElements;
+	protected final File diskDir;
+	
+	// access ordered, so iteration starts at the least recently used
+	protected final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+	protected long elements = 0;
+	
+	protected long hits = 0;
+	protected long diskHits = 0;
+	protected long misses = 0;
+	protected long diskFailures = 0;
+	protected IOException lastDiskError = null;
+	
+	public GraphCache(long maxElements) {
+		this(maxElements, null);
+	}
+	
+	// if diskDir is not null, graphs are also stored there as <key>.vgraph
+	public GraphCache(long maxElements, File diskDir) {
+		this.maxElements = maxElements;
+		this.diskDir = diskDir;
+		
+		if (diskDir != null)
+			diskDir.mkdirs();
+	}
+	
+	// returns null if the key isn't cached. The disk is read without
+	// holding the lock, so other pages aren't held up by it
+	public Graph get(String key) {
+		
+		synchronized (this) {
+			Entry entry = memory.get(key);
+			if (entry != null) {
+				hits += 1;
+				return entry.graph;
+			}
+		}
+		
+		if (diskDir != null) {
+			File file = getFile(key);
+			if (file.isFile()) {
+				try {
+					Graph graph = BinaryGraphReader.inputGraph(file.getPath());
+					long size = countElements(graph);
+					
+					synchronized (this) {
+						putInMemory(key, graph, size);
+						diskHits += 1;
+					}
+					
+					return graph;
+				} catch (IOException e) {
+					// a partial or stale file, it'll be rewritten
+					file.delete();
+				}
+			}
+		}
+		
+		synchronized (this) {
+			misses += 1;
+		}
+		
+		return null;
+	}
+	
+	// the graph is written to disk without holding the lock. A failed write
+	// only skips the disk tier, see getDiskFailures and getLastDiskError
+	public void put(String key, Graph graph) {
+		
+		long size = countElements(graph);
+		
+		synchronized (this) {
+			putInMemory(key, graph, size);
+		}
+		
+		if (diskDir != null) {
+			File file = getFile(key);
+			File tmp = null;
+			
+			try {
+				// unique, in case another thread is writing the same key
+				tmp = File.createTempFile(key, ".tmp", diskDir);
+				new BinaryGraphWriter(graph).outputGraph(tmp.getPath());
+				
+				// so that readers never see a partial file
+				if (!tmp.renameTo(file)) {
+					file.delete();
+					if (!tmp.renameTo(file))
+						throw new IOException("cannot rename " + tmp + " to " + file);
+				}
+			} catch (IOException e) {
+				// the disk tier is best effort
+				if (tmp != null)
+					tmp.delete();
+				
+				synchronized (this) {
+					diskFailures += 1;
+					lastDiskError = e;
+				}
+			}
+		}
+	}
+	
+	// only clears memory, not the disk directory
+	public synchronized void clear() {
+		memory.clear();
+		elements = 0;
+	}
+	
+	public synchronized int size() {
+		return memory.size();
+	}
+	
+	public synchronized long getElements() {
+		return elements;
+	}
+	
+	public synchronized long getHits() {
+		return hits;
+	}
+	
+	public synchronized long getDiskHits() {
+		return diskHits;
+	}
+	
+	public synchronized long getMisses() {
+		return misses;
+	}
+	
+	// graphs that couldn't be written to the disk directory
+	public synchronized long getDiskFailures() {
+		return diskFailures;
+	}
+	
+	// why the most recent write to the disk directory failed, or null
+	public synchronized IOException getLastDiskError() {
+		return lastDiskError;
+	}
+	
+	protected File getFile(String key) {
+		return new File(diskDir, key + ".vgraph");
+	}
+	
+	protected static long countElements(Graph graph) {
+		return Iterables.size(graph.getVertices()) + Iterables.size(graph.getEdges());
+	}
+	
+	protected void putInMemory(String key, Graph graph, long size) {
+		
+		Entry old = memory.put(key, new Entry(graph, size));
+		if (old != null)
+			elements -= old.elements;
+		
+		elements += size;
+		
+		// always keep the newest entry, even if it's too big by itself
+		Iterator<Map.Entry<String, Entry>> it = memory.entrySet().iterator();
+		while (elements > maxElements && memory.size() > 1) {
+			Entry eldest = it.next().getValue();
+			elements -= eldest.elements;
+			it.remove();
+		}
+	}
+}
@@ -24,67 +24,127 @@ import java.awt.geom.Line2D;
 import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.util.List;
 
 public class GeomUtils {
 
+	// reused by the path/path predicates, so they don't allocate per segment
+	private static final ThreadLocal<Segments> scratch = new ThreadLocal<Segments>() {
+		@Override
+		protected Segments initialValue() {
+			return new Segments();
+		}
+	};
+	
 	public static boolean arePointsEqual(double x1, double y1, double x2, double y2) {
 		return Math.abs(x1 - x2) < 0.0001 && Math.abs(y1 - y2) < 0.0001;
 	}
 	
 	public static boolean isInsideOrOnBoundary(Path2D path, Point2D pt) {
-		return path.contains(pt) || pathIntersects(path, pt);
+		return isInsideOrOnBoundary(path, pt.getX(), pt.getY());
+	}
+	
+	public static boolean isInsideOrOnBoundary(Path2D path, double x, double y) {
+		return path.contains(x, y) || pathIntersects(path, x, y, 0.01);
 	}
 	
 	// determine if a path intersects a path, and return the points where
 	// they intersect
 	public static boolean findIntersections(Path2D path1, Path2D path2, List<Point2D> points, Double flatness) {
 		
-		PathSegmentIterator psit = new PathSegmentIterator(path1, null, flatness); 
+		Segments segs2 = scratch.get().flatten(path2, flatness);
+		SegmentIterator it = new SegmentIterator(path1, null, flatness);
+		double[] out = new double[2];
 		
-		while (psit.next()) {
-			if (psit.pt != null) {
-				findIntersections(path2, psit.pt, points, flatness);
+		while (it.next()) {
+			if (it.isPoint) {
+				findIntersections(segs2, it.x1, it.y1, points);
 			} else {
-				findIntersections(path2, psit.line, points, flatness);
+				findIntersections(segs2, it.x1, it.y1, it.x2, it.y2, points, out);
 			}
 		}
 		
-        return !points.isEmpty();
-    }
+		return !points.isEmpty();
+	}
 	
 	// determine if a line intersects a path, and return the points where
 	// they intersect
 	public static boolean findIntersections(Path2D path, Line2D line, List<Point2D> points, Double flatness) {
 		
-		PathSegmentIterator psit = new PathSegmentIterator(path, null, flatness); 
+		Segments segs = scratch.get().flatten(path, flatness);
+		findIntersections(segs, line.getX1(), line.getY1(), line.getX2(), line.getY2(), points, new double[2]);
 		
-		while (psit.next()) {
-			
-			if (psit.intersects(line)) {
-				if (psit.pt != null)
-					points.add(psit.pt);
-				else
-					points.add(getLineIntersection(psit.line, line));
+		return !points.isEmpty();
+	}
+	
+	// determine if a point lies along a path, and return the points where
+	// they intersect
+	public static boolean findIntersections(Path2D path, Point2D pt, List<Point2D> points, Double flatness) {
+		
+		Segments segs = scratch.get().flatten(path, flatness);
+		findIntersections(segs, pt.getX(), pt.getY(), points);
+		
+		return !points.isEmpty();
+	}
+	
+	// determine if two flattened paths intersect, and return the points where
+	// they intersect
+	public static boolean findIntersections(Segments segs1, Segments segs2, List<Point2D> points) {
+		
+		double[] out = new double[2];
+		
+		for (int i = 0; i < segs1.size; i++) {
+			if (segs1.isPoint(i)) {
+				findIntersections(segs2, segs1.x1(i), segs1.y1(i), points);
+			} else {
+				findIntersections(segs2, segs1.x1(i), segs1.y1(i), segs1.x2(i), segs1.y2(i), points, out);
 			}
 		}
 		
-        return !points.isEmpty();
-    }
+		return !points.isEmpty();
+	}
 	
-	// determine if a line intersects a path, and return the points where
-	// they intersect
-	public static boolean findIntersections(Path2D path, Point2D pt, List<Point2D> points, Double flatness) {
+	// line vs. flattened path; out is a reusable buffer for the intersection point
+	public static void findIntersections(Segments segs, double lx1, double ly1, double lx2, double ly2,
+	                                     List<Point2D> points, double[] out) {
+		
+		double lMinX = Math.min(lx1, lx2), lMinY = Math.min(ly1, ly2);
+		double lMaxX = Math.max(lx1, lx2), lMaxY = Math.max(ly1, ly2);
 		
-		PathSegmentIterator psit = new PathSegmentIterator(path, null, flatness); 
+		if (!segs.hasPoints && !segs.overlaps(lMinX, lMinY, lMaxX, lMaxY))
+			return;
 		
-		while (psit.next()) {
-			if (psit.intersects(pt)) {
-				points.add(psit.pt);
+		for (int i = 0; i < segs.size; i++) {
+			
+			double x1 = segs.x1(i), y1 = segs.y1(i);
+			
+			if (segs.isPoint(i)) {
+				if (Line2D.ptLineDist(lx1, ly1, lx2, ly2, x1, y1) == 0.0)
+					points.add(new Point2D.Double(x1, y1));
+			} else if (segs.overlaps(i, lMinX, lMinY, lMaxX, lMaxY)) {
+				double x2 = segs.x2(i), y2 = segs.y2(i);
+				if (getLineIntersection(x1, y1, x2, y2, lx1, ly1, lx2, ly2, out))
+					points.add(new Point2D.Double(out[0], out[1]));
 			}
 		}
+	}
+	
+	// point vs. flattened path
+	public static void findIntersections(Segments segs, double px, double py, List<Point2D> points) {
 		
-        return !points.isEmpty();
+		for (int i = 0; i < segs.size; i++) {
+			
+			double x1 = segs.x1(i), y1 = segs.y1(i);
+			
+			if (segs.isPoint(i)) {
+				if (x1 == px && y1 == py)
+					points.add(new Point2D.Double(x1, y1));
+			} else {
+				if (Line2D.ptLineDist(x1, y1, segs.x2(i), segs.y2(i), px, py) == 0.0)
+					points.add(new Point2D.Double(px, py));
+			}
+		}
 	}
 	
 	public static String getLineRepr(Line2D line) {
@@ -93,19 +153,29 @@ public class GeomUtils {
 	
 	// find the point where two lines intersect
 	protected static Point2D getLineIntersection(Line2D line1, Line2D line2) {
-        
-		// this code will be correct, use it as a check
-		if (!line1.intersectsLine(line2))
+		
+		double[] out = new double[2];
+		if (!getLineIntersection(line1.getX1(), line1.getY1(), line1.getX2(), line1.getY2(),
+		                         line2.getX1(), line2.getY1(), line2.getX2(), line2.getY2(), out))
 			return null;
 		
-		double px = line1.getX1(),
-			   py = line1.getY1(),
-			   rx = line1.getX2() - px,
-			   ry = line1.getY2() - py;
-		double qx = line2.getX1(),
-			   qy = line2.getY1(),
-			   sx = line2.getX2() - qx,
-			   sy = line2.getY2() - qy;
+		return new Point2D.Double(out[0], out[1]);
+	}
+	
+	// find the point where two lines intersect, and store it in out. Returns
+	// false if they don't intersect
+	public static boolean getLineIntersection(double px, double py, double px2, double py2,
+	                                             double qx, double qy, double qx2, double qy2,
+	                                             double[] out) {
+		
+		// this code will be correct, use it as a check
+		if (!Line2D.linesIntersect(px, py, px2, py2, qx, qy, qx2, qy2))
+			return false;
+		
+		double rx = px2 - px,
+			   ry = py2 - py;
+		double sx = qx2 - qx,
+			   sy = qy2 - qy;
 		
 		double det = sx * ry - sy * rx;
 		if (det == 0) {
@@ -113,23 +183,26 @@ public class GeomUtils {
 			// intersection, so logically one of the endpoints must be within
 			// the other line. There's probably a more mathy way to do this..
 			
-			if (line2.ptLineDistSq(px, py) == 0.0) {
-				return line1.getP1();
-			} else if (line2.ptLineDistSq(line1.getP2()) == 0.0) {
-				return line1.getP2();
-			} else if (line1.ptLineDistSq(qx, qy) == 0.0) {
-				return line2.getP1();
+			if (Line2D.ptLineDistSq(qx, qy, qx2, qy2, px, py) == 0.0) {
+				out[0] = px; out[1] = py;
+			} else if (Line2D.ptLineDistSq(qx, qy, qx2, qy2, px2, py2) == 0.0) {
+				out[0] = px2; out[1] = py2;
+			} else if (Line2D.ptLineDistSq(px, py, px2, py2, qx, qy) == 0.0) {
+				out[0] = qx; out[1] = qy;
 			} else {
-				return line2.getP2();
+				out[0] = qx2; out[1] = qy2;
 			}
 			
 		} else {
 			double z = (sx * (qy - py) + sy * (px - qx)) / det;
 			//if (z == 0 || z == 1)
 			//	return null; // intersection at end point!
-			return new Point2D.Double((px + z * rx), (py + z * ry));
+			out[0] = px + z * rx;
+			out[1] = py + z * ry;
 		}
-    }
+		
+		return true;
+	}
 	
 	// determine if two paths intersect each other
 	public static boolean pathIntersects(Path2D path1, Path2D path2) {
@@ -139,76 +212,179 @@ public class GeomUtils {
 	// determine if two paths intersect each other
 	public static boolean pathIntersects(Path2D path1, Path2D path2, Double flatness) {
 		
-		PathSegmentIterator psit = new PathSegmentIterator(path1, null, flatness); 
+		Segments segs2 = scratch.get().flatten(path2, flatness);
+		SegmentIterator it = new SegmentIterator(path1, null, flatness);
+		Rectangle2D.Double box = new Rectangle2D.Double();
 		
-		while (psit.next()) {
-			if (psit.pt != null) {
-				if (pathIntersects(path2, psit.pt, flatness)) {
-                	return true;
-                }
+		while (it.next()) {
+			if (it.isPoint) {
+				if (pathIntersects(segs2, it.x1, it.y1, box))
+					return true;
 			} else {
-				if (pathIntersects(path2, psit.line, flatness))
+				if (pathIntersects(segs2, it.x1, it.y1, it.x2, it.y2))
 					return true;
 			}
 		}
-		    
-        return false;
-    }
+		
+		return false;
+	}
 	
 	// determine if a line intersects a path
 	public static boolean pathIntersects(Path2D path, Line2D line, Double flatness) {
 		
-		PathSegmentIterator psit = new PathSegmentIterator(path, null, flatness); 
+		SegmentIterator it = new SegmentIterator(path, null, flatness);
+		double lx1 = line.getX1(), ly1 = line.getY1(), lx2 = line.getX2(), ly2 = line.getY2();
 		
-		while (psit.next()) {
-			if (psit.intersects(line)) {
+		while (it.next()) {
+			if (it.intersects(lx1, ly1, lx2, ly2))
 				return true;
+		}
+		
+		return false;
+	}
+	
+	// determine if two flattened paths intersect each other
+	public static boolean pathIntersects(Segments segs1, Segments segs2) {
+		
+		// point segments are compared against infinite lines, so the
+		// bounding boxes are only conclusive without them
+		if (!segs1.hasPoints && !segs2.hasPoints &&
+			!segs1.overlaps(segs2.minX, segs2.minY, segs2.maxX, segs2.maxY))
+			return false;
+		
+		Rectangle2D.Double box = new Rectangle2D.Double();
+		
+		for (int i = 0; i < segs1.size; i++) {
+			if (segs1.isPoint(i)) {
+				if (pathIntersects(segs2, segs1.x1(i), segs1.y1(i), box))
+					return true;
+			} else {
+				if (pathIntersects(segs2, segs1.x1(i), segs1.y1(i), segs1.x2(i), segs1.y2(i)))
+					return true;
 			}
 		}
-        
-        return false;
-    }
+		
+		return false;
+	}
+	
+	// line vs. flattened path
+	public static boolean pathIntersects(Segments segs, double lx1, double ly1, double lx2, double ly2) {
+		
+		double lMinX = Math.min(lx1, lx2), lMinY = Math.min(ly1, ly2);
+		double lMaxX = Math.max(lx1, lx2), lMaxY = Math.max(ly1, ly2);
+		
+		if (!segs.hasPoints && !segs.overlaps(lMinX, lMinY, lMaxX, lMaxY))
+			return false;
+		
+		for (int i = 0; i < segs.size; i++) {
+			if (segs.isPoint(i)) {
+				if (Line2D.ptLineDist(lx1, ly1, lx2, ly2, segs.x1(i), segs.y1(i)) == 0.0)
+					return true;
+			} else if (segs.overlaps(i, lMinX, lMinY, lMaxX, lMaxY)) {
+				if (Line2D.linesIntersect(segs.x1(i), segs.y1(i), segs.x2(i), segs.y2(i), lx1, ly1, lx2, ly2))
+					return true;
+			}
+		}
+		
+		return false;
+	}
 	
 	public static boolean pathIntersects(Path2D path, Point2D pt) {
-		return pathIntersects(path, pt, 0.01);
+		return pathIntersects(path, pt.getX(), pt.getY(), 0.01);
 	}
 	
 	// determine if a point lies along a path
 	public static boolean pathIntersects(Path2D path, Point2D pt, Double flatness) {
+		return pathIntersects(path, pt.getX(), pt.getY(), flatness);
+	}
+	
+	public static boolean pathIntersects(Path2D path, double ptX, double ptY, Double flatness) {
 		
-		PathSegmentIterator psit = new PathSegmentIterator(path, null, flatness); 
-		double ptX = pt.getX(), ptY = pt.getY();
+		SegmentIterator it = new SegmentIterator(path, null, flatness);
+		Rectangle2D.Double box = new Rectangle2D.Double();
+		setPointBox(box, ptX, ptY);
 		
-		while (psit.next()) {
-			if (psit.pt != null) {
-				if (psit.pt.equals(pt)) {
-                	return true;
-                }
+		while (it.next()) {
+			if (it.isPoint) {
+				if (it.x1 == ptX && it.y1 == ptY)
+					return true;
 			} else {
-				if (psit.line.intersects(ptX - 0.00001, ptY - 0.00001, 0.00002, 0.00002)) {
-                	return true;
-                }
+				if (box.intersectsLine(it.x1, it.y1, it.x2, it.y2))
+					return true;
 			}
 		}
-		    
-        return false;
-    }
+		
+		return false;
+	}
+	
+	// determine if a point lies along a flattened path
+	public static boolean pathIntersects(Segments segs, double ptX, double ptY) {
+		return pathIntersects(segs, ptX, ptY, new Rectangle2D.Double());
+	}
+	
+	// point vs. flattened path; box is reused for the tolerance around the point
+	public static boolean pathIntersects(Segments segs, double ptX, double ptY, Rectangle2D.Double box) {
+		
+		setPointBox(box, ptX, ptY);
+		
+		double bMinX = box.getMinX(), bMinY = box.getMinY();
+		double bMaxX = box.getMaxX(), bMaxY = box.getMaxY();
+		
+		if (!segs.overlaps(bMinX, bMinY, bMaxX, bMaxY))
+			return false;
+		
+		for (int i = 0; i < segs.size; i++) {
+			if (segs.isPoint(i)) {
+				if (segs.x1(i) == ptX && segs.y1(i) == ptY)
+					return true;
+			} else if (segs.overlaps(i, bMinX, bMinY, bMaxX, bMaxY)) {
+				if (box.intersectsLine(segs.x1(i), segs.y1(i), segs.x2(i), segs.y2(i)))
+					return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	static void setPointBox(Rectangle2D.Double box, double ptX, double ptY) {
+		box.setRect(ptX - 0.00001, ptY - 0.00001, 0.00002, 0.00002);
+	}
+	
+	public static boolean isInsideOrOnBoundary(Path2D path, Segments segs, double x, double y) {
+		return path.contains(x, y) || pathIntersects(segs, x, y);
+	}
+	
+	public static double pathDistance(Segments segs, double px, double py) {
+		
+		double distance = Double.MAX_VALUE;
+		
+		for (int i = 0; i < segs.size; i++) {
+			if (segs.isPoint(i)) {
+				distance = Math.min(distance, Point2D.distance(segs.x1(i), segs.y1(i), px, py));
+			} else {
+				distance = Math.min(distance, Line2D.ptSegDist(segs.x1(i), segs.y1(i), segs.x2(i), segs.y2(i), px, py));
+			}
+		}
+		
+		return distance;
+	}
 	
 	// this is terrible
 	public static double pathDistance(Path2D path, Point2D pt) {
 		
-		PathSegmentIterator psit = new PathSegmentIterator(path, null, 0.01); 
+		SegmentIterator it = new SegmentIterator(path, null, 0.01);
+		double px = pt.getX(), py = pt.getY();
 		double distance = Double.MAX_VALUE;
 		
-		while (psit.next()) {
-			if (psit.pt != null) {
-				distance = Math.min(distance, psit.pt.distance(pt));
+		while (it.next()) {
+			if (it.isPoint) {
+				distance = Math.min(distance, Point2D.distance(it.x1, it.y1, px, py));
 			} else {
-				distance = Math.min(distance, psit.line.ptSegDist(pt));
+				distance = Math.min(distance, Line2D.ptSegDist(it.x1, it.y1, it.x2, it.y2, px, py));
 			}
 		}
-        
-        return distance;
+		
+		return distance;
 	}
 	
 	// rounds path to 4 significant places
@@ -267,10 +443,15 @@ public class GeomUtils {
     }
 	
 	
-	public static class PathSegmentIterator {
+	/**
+	 * Iterates over the flattened segments of a path. The current segment is
+	 * stored in x1/y1/x2/y2; if isPoint is set, it is a single point at x1/y1.
+	 * Nothing is allocated per segment.
+	 */
+	public static class SegmentIterator {
 		
-		public Point2D pt = null;
-		public Line2D line = null;
+		public double x1, y1, x2, y2;
+		public boolean isPoint;
 		
 		final PathIterator pit;
 		
@@ -278,7 +459,7 @@ public class GeomUtils {
 		double lastX, lastY;
 		
 		
-		public PathSegmentIterator(Path2D path, AffineTransform at, Double flatness) {
+		public SegmentIterator(Path2D path, AffineTransform at, Double flatness) {
 			if (flatness == null)
 				pit = path.getPathIterator(at);
 			else
@@ -296,13 +477,17 @@ public class GeomUtils {
 	                    lastY = coords[1];
 	                    break;
 	                case PathIterator.SEG_LINETO:
+	                	x1 = lastX;
+	                	y1 = lastY;
+	                	
 	                	if (arePointsEqual(lastX, lastY, coords[0], coords[1])) {
-	                		line = null;
-	                		pt = new Point2D.Double(lastX, lastY);
+	                		isPoint = true;
+	                		x2 = lastX;
+	                		y2 = lastY;
 	                	} else {
-	                		pt = null;
-		                    line = new Line2D.Double(lastX, lastY,
-		                                             coords[0], coords[1]);
+	                		isPoint = false;
+	                		x2 = coords[0];
+	                		y2 = coords[1];
 	                	}
 	                	
 	                	lastX = coords[0];
@@ -326,21 +511,63 @@ public class GeomUtils {
 		}
 		
 		// only applies to current segment
-		boolean intersects(Line2D line) {
-			if (this.pt != null) {
-				return line.ptLineDist(pt) == 0.0;
+		boolean intersects(double lx1, double ly1, double lx2, double ly2) {
+			if (isPoint) {
+				return Line2D.ptLineDist(lx1, ly1, lx2, ly2, x1, y1) == 0.0;
 			} else {
-				return this.line.intersectsLine(line);
+				return Line2D.linesIntersect(x1, y1, x2, y2, lx1, ly1, lx2, ly2);
 			}
 		}
 		
 		// only applies to current segment
-		boolean intersects(Point2D pt) {
-			if (this.pt != null) {
-				return this.pt.equals(pt);
+		boolean intersects(double px, double py) {
+			if (isPoint) {
+				return x1 == px && y1 == py;
+			} else {
+				return Line2D.ptLineDist(x1, y1, x2, y2, px, py) == 0.0;
+			}
+		}
+	}
+	
+	/**
+	 * Same as SegmentIterator, but also exposes the current segment as a
+	 * Point2D or Line2D. These are allocated for each segment, so prefer
+	 * SegmentIterator in anything performance sensitive.
+	 */
+	public static class PathSegmentIterator extends SegmentIterator {
+		
+		public Point2D pt = null;
+		public Line2D line = null;
+		
+		public PathSegmentIterator(Path2D path, AffineTransform at, Double flatness) {
+			super(path, at, flatness);
+		}
+		
+		@Override
+		public boolean next() {
+			
+			if (!super.next())
+				return false;
+			
+			if (isPoint) {
+				line = null;
+				pt = new Point2D.Double(x1, y1);
 			} else {
-				return line.ptLineDist(pt) == 0.0;
+				pt = null;
+				line = new Line2D.Double(x1, y1, x2, y2);
 			}
+			
+			return true;
+		}
+		
+		// only applies to current segment
+		boolean intersects(Line2D line) {
+			return intersects(line.getX1(), line.getY1(), line.getX2(), line.getY2());
+		}
+		
+		// only applies to current segment
+		boolean intersects(Point2D pt) {
+			return intersects(pt.getX(), pt.getY());
 		}
 	}
 }
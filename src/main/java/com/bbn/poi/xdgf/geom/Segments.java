@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bbn.poi.xdgf.geom;
+
+import java.awt.geom.Path2D;
+
+import com.bbn.poi.xdgf.geom.GeomUtils.SegmentIterator;
+
+/**
+ * A path flattened into segments, stored as x1, y1, x2, y2 per segment in
+ * a single array, along with the bounding box of each segment and of the
+ * whole path. Point segments (see SegmentIterator) are stored with both
+ * ends equal and flagged in points. The buffers are reused when the
+ * object is flattened again.
+ */
+public class Segments {
+
+	double[] coords = new double[64];
+	double[] bounds = new double[64];	// minX, minY, maxX, maxY
+	boolean[] points = new boolean[16];
+	int size = 0;
+	
+	// bounds of all segments
+	public double minX, minY, maxX, maxY;
+	
+	// point segments are checked against infinite lines, so the bounding
+	// boxes can't be used to skip them
+	boolean hasPoints = false;
+	
+	public Segments() {
+	}
+	
+	public Segments(Path2D path, Double flatness) {
+		flatten(path, flatness);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	public double x1(int i) {
+		return coords[i*4];
+	}
+	
+	public double y1(int i) {
+		return coords[i*4 + 1];
+	}
+	
+	public double x2(int i) {
+		return coords[i*4 + 2];
+	}
+	
+	public double y2(int i) {
+		return coords[i*4 + 3];
+	}
+	
+	public boolean isPoint(int i) {
+		return points[i];
+	}
+	
+	// bounding box of segment i
+	public double minX(int i) {
+		return bounds[i*4];
+	}
+	
+	public double minY(int i) {
+		return bounds[i*4 + 1];
+	}
+	
+	public double maxX(int i) {
+		return bounds[i*4 + 2];
+	}
+	
+	public double maxY(int i) {
+		return bounds[i*4 + 3];
+	}
+	
+	// replaces the contents with the segments of path
+	public Segments flatten(Path2D path, Double flatness) {
+		
+		size = 0;
+		hasPoints = false;
+		minX = minY = Double.POSITIVE_INFINITY;
+		maxX = maxY = Double.NEGATIVE_INFINITY;
+		
+		SegmentIterator it = new SegmentIterator(path, null, flatness);
+		
+		while (it.next()) {
+			add(it.x1, it.y1, it.x2, it.y2, it.isPoint);
+		}
+		
+		return this;
+	}
+	
+	protected void add(double x1, double y1, double x2, double y2, boolean isPoint) {
+		
+		if (size == points.length) {
+			double[] newCoords = new double[coords.length*2];
+			System.arraycopy(coords, 0, newCoords, 0, coords.length);
+			coords = newCoords;
+			
+			double[] newBounds = new double[bounds.length*2];
+			System.arraycopy(bounds, 0, newBounds, 0, bounds.length);
+			bounds = newBounds;
+			
+			boolean[] newPoints = new boolean[points.length*2];
+			System.arraycopy(points, 0, newPoints, 0, points.length);
+			points = newPoints;
+		}
+		
+		coords[size*4] = x1;
+		coords[size*4 + 1] = y1;
+		coords[size*4 + 2] = x2;
+		coords[size*4 + 3] = y2;
+		points[size] = isPoint;
+		
+		bounds[size*4] = Math.min(x1, x2);
+		bounds[size*4 + 1] = Math.min(y1, y2);
+		bounds[size*4 + 2] = Math.max(x1, x2);
+		bounds[size*4 + 3] = Math.max(y1, y2);
+		
+		minX = Math.min(minX, bounds[size*4]);
+		minY = Math.min(minY, bounds[size*4 + 1]);
+		maxX = Math.max(maxX, bounds[size*4 + 2]);
+		maxY = Math.max(maxY, bounds[size*4 + 3]);
+		
+		hasPoints |= isPoint;
+		size += 1;
+	}
+	
+	// true if the bounding box of segment i overlaps the rectangle
+	public boolean overlaps(int i, double oMinX, double oMinY, double oMaxX, double oMaxY) {
+		return bounds[i*4] <= oMaxX && oMinX <= bounds[i*4 + 2] &&
+		       bounds[i*4 + 1] <= oMaxY && oMinY <= bounds[i*4 + 3];
+	}
+	
+	// true if the bounding box of the whole path overlaps the rectangle
+	public boolean overlaps(double oMinX, double oMinY, double oMaxX, double oMaxY) {
+		return minX <= oMaxX && oMinX <= maxX && minY <= oMaxY && oMinY <= maxY;
+	}
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import java.util.Arrays;
+
+// a min-heap of ints keyed by distance, for best-first searches. Equal
+// distances come out in the order they went in
+class DistanceQueue {
+
+	protected double[] keys = new double[32];
+	protected int[] values = new int[32];
+	protected int[] seqs = new int[32];
+	protected int size = 0;
+	protected int seq = 0;
+	
+	boolean isEmpty() {
+		return size == 0;
+	}
+	
+	void add(double key, int value) {
+		
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size*2);
+			values = Arrays.copyOf(values, size*2);
+			seqs = Arrays.copyOf(seqs, size*2);
+		}
+		
+		int i = size++;
+		int s = seq++;
+		
+		while (i > 0) {
+			int parent = (i - 1) >>> 1;
+			if (!less(key, s, keys[parent], seqs[parent]))
+				break;
+			
+			set(i, keys[parent], values[parent], seqs[parent]);
+			i = parent;
+		}
+		
+		set(i, key, value, s);
+	}
+	
+	double peekKey() {
+		return keys[0];
+	}
+	
+	// removes the smallest
+	int poll() {
+		
+		int result = values[0];
+		
+		double key = keys[--size];
+		int value = values[size];
+		int s = seqs[size];
+		
+		int i = 0;
+		while (true) {
+			int child = i*2 + 1;
+			if (child >= size)
+				break;
+			
+			if (child + 1 < size && less(keys[child + 1], seqs[child + 1], keys[child], seqs[child]))
+				child++;
+			
+			if (!less(keys[child], seqs[child], key, s))
+				break;
+			
+			set(i, keys[child], values[child], seqs[child]);
+			i = child;
+		}
+		
+		if (size > 0)
+			set(i, key, value, s);
+		
+		return result;
+	}
+	
+	private void set(int i, double key, int value, int s) {
+		keys[i] = key;
+		values[i] = value;
+		seqs[i] = s;
+	}
+	
+	private static boolean less(double k1, int s1, double k2, int s2) {
+		return k1 < k2 || (k1 == k2 && s1 < s2);
+	}
+}
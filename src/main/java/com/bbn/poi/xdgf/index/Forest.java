@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+/**
+ * A forest of nodes numbered 0 to n-1, given by the parent of each node.
+ * A preorder walk numbers the nodes so that every subtree is a contiguous
+ * range of positions, so per-node data kept by position can be cleared
+ * for a whole subtree at once.
+ */
+public class Forest {
+
+	public static final int NO_PARENT = -1;
+	
+	protected final int[] parent;
+	protected final int[] depth;
+	
+	// the subtree of a node is the positions [enter, exit)
+	protected final int[] enter;
+	protected final int[] exit;
+	
+	// parent holds NO_PARENT for roots, and must not have cycles
+	public Forest(int[] parent) {
+		
+		int n = parent.length;
+		
+		this.parent = parent;
+		depth = new int[n];
+		enter = new int[n];
+		exit = new int[n];
+		
+		// children of each node, counting sorted by parent
+		int[] firstChild = new int[n + 1];
+		for (int i = 0; i < n; i++) {
+			if (parent[i] != NO_PARENT)
+				firstChild[parent[i] + 1]++;
+		}
+		
+		for (int i = 0; i < n; i++)
+			firstChild[i + 1] += firstChild[i];
+		
+		int[] children = new int[n];
+		int[] fill = new int[n];
+		System.arraycopy(firstChild, 0, fill, 0, n);
+		
+		for (int i = 0; i < n; i++) {
+			if (parent[i] != NO_PARENT)
+				children[fill[parent[i]]++] = i;
+		}
+		
+		// iterative depth first walk from each root, positions are the
+		// preorder and a subtree ends where the next one starts
+		int[] stack = new int[n];
+		int[] next = new int[n];
+		int position = 0;
+		
+		for (int r = 0; r < n; r++) {
+			
+			if (parent[r] != NO_PARENT)
+				continue;
+			
+			int top = 0;
+			stack[top++] = r;
+			next[r] = firstChild[r];
+			depth[r] = 0;
+			enter[r] = position++;
+			
+			while (top > 0) {
+				
+				int u = stack[top - 1];
+				
+				if (next[u] == firstChild[u + 1]) {
+					exit[u] = position;
+					top--;
+					continue;
+				}
+				
+				int c = children[next[u]++];
+				
+				stack[top++] = c;
+				next[c] = firstChild[c];
+				depth[c] = depth[u] + 1;
+				enter[c] = position++;
+			}
+		}
+		
+		if (position != n)
+			throw new IllegalArgumentException("parents contain a cycle");
+	}
+	
+	public int size() {
+		return parent.length;
+	}
+	
+	public int parent(int node) {
+		return parent[node];
+	}
+	
+	public int depth(int node) {
+		return depth[node];
+	}
+	
+	// position of the node in the preorder
+	public int enter(int node) {
+		return enter[node];
+	}
+	
+	// position just past the last descendant of the node
+	public int exit(int node) {
+		return exit[node];
+	}
+}
@@ -0,0 +1,416 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A uniform grid of square cells. Each item is listed in every cell that
+ * its bounds overlap, so a search only looks at the items near the query.
+ * When the items are spread evenly and have similar sizes, this does much
+ * less work per query than a tree. Large or unevenly sized items make it
+ * worse than a tree, see isSuitable.
+ *
+ * Items outside the grid are listed in the nearest edge cells. The grid is
+ * rebuilt if that happens too often. Searches don't modify the index, so a
+ * visitor may search it again.
+ */
+public class GridIndex<T> implements SpatialIndex<T> {
+
+	// at most this many cells per item
+	public static final int MAX_CELLS_PER_ITEM = 4;
+	
+	protected final double fixedCellSize;
+	
+	protected Object[] items = new Object[0];
+	protected double[] itemBounds = new double[0];
+	protected int slots = 0;
+	protected int size = 0;
+	
+	// items added outside of the grid since it was built
+	protected int outside = 0;
+	
+	protected double originX = 0;
+	protected double originY = 0;
+	protected double cellSize = 1;
+	protected int cols = 0;
+	protected int rows = 0;
+	
+	// item slots in each cell
+	protected int[][] cells = new int[0][];
+	protected int[] cellCounts = new int[0];
+	
+	// the seen set of the last nearest search, to be reused by the next
+	protected LongIntHashMap spareSeen = null;
+	
+	// picks a cell size from the items each time it is loaded
+	public GridIndex() {
+		this(0);
+	}
+	
+	public GridIndex(double cellSize) {
+		this.fixedCellSize = cellSize;
+	}
+	
+	// true if the items are similar in size, so that a grid with cells
+	// about as big as an item rarely lists one item in many cells
+	public static boolean isSuitable(double[] bounds, int n) {
+		
+		if (n < 64)
+			return false;
+		
+		double[] extents = extents(bounds, n);
+		Arrays.sort(extents);
+		
+		double median = extents[n/2];
+		double p90 = extents[(int)(n*0.9)];
+		
+		if (median <= 0)
+			return false;
+		
+		return p90 <= median*4;
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public void load(List<? extends T> newItems, double[] bounds) {
+		
+		int n = newItems.size();
+		
+		items = newItems.toArray(new Object[Math.max(n, 16)]);
+		itemBounds = Arrays.copyOf(bounds, Math.max(n, 16)*4);
+		slots = n;
+		size = n;
+		
+		build();
+	}
+	
+	@Override
+	public void add(T item, double minX, double minY, double maxX, double maxY) {
+		
+		if (slots == items.length) {
+			items = Arrays.copyOf(items, Math.max(16, slots*2));
+			itemBounds = Arrays.copyOf(itemBounds, items.length*4);
+		}
+		
+		int slot = slots++;
+		items[slot] = item;
+		itemBounds[slot*4] = minX;
+		itemBounds[slot*4 + 1] = minY;
+		itemBounds[slot*4 + 2] = maxX;
+		itemBounds[slot*4 + 3] = maxY;
+		size++;
+		
+		if (cols == 0 || !inside(minX, minY, maxX, maxY)) {
+			// the grid no longer fits the items
+			if (cols == 0 || ++outside > size/4 + 16) {
+				build();
+				return;
+			}
+		}
+		
+		insert(slot);
+	}
+	
+	@Override
+	public boolean remove(T item, double minX, double minY, double maxX, double maxY) {
+		
+		if (cols == 0)
+			return false;
+		
+		int cell = row(minY)*cols + col(minX);
+		int[] list = cells[cell];
+		
+		for (int i = 0; i < cellCounts[cell]; i++) {
+			int slot = list[i];
+			if (items[slot] == item &&
+				itemBounds[slot*4] == minX && itemBounds[slot*4 + 1] == minY &&
+				itemBounds[slot*4 + 2] == maxX && itemBounds[slot*4 + 3] == maxY) {
+				
+				for (int r = row(minY), r2 = row(maxY); r <= r2; r++)
+					for (int c = col(minX), c2 = col(maxX); c <= c2; c++)
+						removeFromCell(r*cols + c, slot);
+				
+				items[slot] = null;
+				size--;
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	public void search(double minX, double minY, double maxX, double maxY, Visitor<? super T> visitor) {
+		search(minX, minY, maxX, maxY, 0, false, visitor);
+	}
+	
+	@Override
+	public void searchNear(double minX, double minY, double maxX, double maxY, double maxDistance, Visitor<? super T> visitor) {
+		search(minX, minY, maxX, maxY, maxDistance, true, visitor);
+	}
+	
+	// best-first over cells and items. An item is queued when the first
+	// cell holding it comes out of the queue, which is never later than
+	// the cell holding its closest point
+	@Override
+	public void nearest(double minX, double minY, double maxX, double maxY, double maxDistance, Visitor<? super T> visitor) {
+		
+		if (size == 0)
+			return;
+		
+		int itemBase = cols*rows;
+		DistanceQueue queue = new DistanceQueue();
+		
+		for (int r = row(minY - maxDistance), r2 = row(maxY + maxDistance); r <= r2; r++) {
+			for (int c = col(minX - maxDistance), c2 = col(maxX + maxDistance); c <= c2; c++) {
+				if (cellCounts[r*cols + c] == 0)
+					continue;
+				
+				double d = cellDistance(r, c, minX, minY, maxX, maxY);
+				if (d < maxDistance)
+					queue.add(d, r*cols + c);
+			}
+		}
+		
+		// items listed in more than one cell. The map is reused, unless a
+		// visitor searches again while it's in use
+		LongIntHashMap seen = spareSeen;
+		spareSeen = null;
+		
+		if (seen == null)
+			seen = new LongIntHashMap();
+		else
+			seen.clear();
+		
+		try {
+			nearest(queue, itemBase, seen, minX, minY, maxX, maxY, maxDistance, visitor);
+		} finally {
+			spareSeen = seen;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected void nearest(DistanceQueue queue, int itemBase, LongIntHashMap seen,
+						   double minX, double minY, double maxX, double maxY,
+						   double maxDistance, Visitor<? super T> visitor) {
+		
+		while (!queue.isEmpty()) {
+			int value = queue.poll();
+			
+			if (value >= itemBase) {
+				if (!visitor.visit((T)items[value - itemBase]))
+					return;
+				continue;
+			}
+			
+			int[] list = cells[value];
+			for (int i = 0, n = cellCounts[value]; i < n; i++) {
+				int slot = list[i];
+				if (seen.containsKey(slot))
+					continue;
+				
+				seen.put(slot, 1);
+				
+				double d = PackedRTree.distance(itemBounds, slot, minX, minY, maxX, maxY);
+				if (d < maxDistance)
+					queue.add(d, itemBase + slot);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected void search(double minX, double minY, double maxX, double maxY,
+						  double maxDistance, boolean useDistance, Visitor<? super T> visitor) {
+		
+		if (size == 0)
+			return;
+		
+		// the cells that could hold a match
+		double qMinX = useDistance ? minX - maxDistance : minX;
+		double qMinY = useDistance ? minY - maxDistance : minY;
+		double qMaxX = useDistance ? maxX + maxDistance : maxX;
+		double qMaxY = useDistance ? maxY + maxDistance : maxY;
+		
+		for (int r = row(qMinY), r2 = row(qMaxY); r <= r2; r++) {
+			for (int c = col(qMinX), c2 = col(qMaxX); c <= c2; c++) {
+				
+				int cell = r*cols + c;
+				int[] list = cells[cell];
+				
+				for (int i = 0, n = cellCounts[cell]; i < n; i++) {
+					int slot = list[i];
+					
+					if (!PackedRTree.matches(itemBounds, slot, minX, minY, maxX, maxY, maxDistance, useDistance))
+						continue;
+					
+					// an item in several cells is only visited from the
+					// cell holding the corner of its overlap with the query
+					if (col(Math.max(itemBounds[slot*4], qMinX)) != c ||
+						row(Math.max(itemBounds[slot*4 + 1], qMinY)) != r)
+						continue;
+					
+					if (!visitor.visit((T)items[slot]))
+						return;
+				}
+			}
+		}
+	}
+	
+	//
+	// Internals
+	//
+	
+	// sizes the grid to the current items, and lists them all again
+	protected void build() {
+		
+		// drop removed items
+		int n = 0;
+		for (int i = 0; i < slots; i++) {
+			if (items[i] != null) {
+				items[n] = items[i];
+				System.arraycopy(itemBounds, i*4, itemBounds, n*4, 4);
+				n++;
+			}
+		}
+		
+		Arrays.fill(items, n, slots, null);
+		slots = n;
+		size = n;
+		outside = 0;
+		
+		double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+		
+		for (int i = 0; i < n; i++) {
+			minX = Math.min(minX, itemBounds[i*4]);
+			minY = Math.min(minY, itemBounds[i*4 + 1]);
+			maxX = Math.max(maxX, itemBounds[i*4 + 2]);
+			maxY = Math.max(maxY, itemBounds[i*4 + 3]);
+		}
+		
+		if (n == 0) {
+			cols = rows = 0;
+			cells = new int[0][];
+			cellCounts = new int[0];
+			return;
+		}
+		
+		double width = maxX - minX;
+		double height = maxY - minY;
+		
+		cellSize = fixedCellSize > 0 ? fixedCellSize : chooseCellSize(n);
+		
+		// don't let tiny cells blow up the number of cells
+		double minCellSize = Math.sqrt(width*height / ((double)n*MAX_CELLS_PER_ITEM));
+		cellSize = Math.max(cellSize, Math.max(minCellSize, Math.max(width, height) / 4096));
+		if (cellSize <= 0)
+			cellSize = 1;
+		
+		originX = minX;
+		originY = minY;
+		cols = (int)Math.floor(width / cellSize) + 1;
+		rows = (int)Math.floor(height / cellSize) + 1;
+		
+		cells = new int[cols*rows][];
+		cellCounts = new int[cols*rows];
+		
+		for (int i = 0; i < n; i++)
+			insert(i);
+	}
+	
+	// about the size of a typical item
+	protected double chooseCellSize(int n) {
+		double[] extents = extents(itemBounds, n);
+		Arrays.sort(extents);
+		return extents[n/2];
+	}
+	
+	protected void insert(int slot) {
+		for (int r = row(itemBounds[slot*4 + 1]), r2 = row(itemBounds[slot*4 + 3]); r <= r2; r++) {
+			for (int c = col(itemBounds[slot*4]), c2 = col(itemBounds[slot*4 + 2]); c <= c2; c++) {
+				
+				int cell = r*cols + c;
+				int[] list = cells[cell];
+				
+				if (list == null) {
+					list = cells[cell] = new int[4];
+				} else if (cellCounts[cell] == list.length) {
+					list = cells[cell] = Arrays.copyOf(list, list.length*2);
+				}
+				
+				list[cellCounts[cell]++] = slot;
+			}
+		}
+	}
+	
+	protected void removeFromCell(int cell, int slot) {
+		int[] list = cells[cell];
+		int n = cellCounts[cell];
+		
+		for (int i = 0; i < n; i++) {
+			if (list[i] == slot) {
+				// keep the order, so searches stay in insertion order
+				System.arraycopy(list, i + 1, list, i, n - i - 1);
+				cellCounts[cell]--;
+				return;
+			}
+		}
+	}
+	
+	// edge cells also hold the items outside the grid, so they extend
+	// out to infinity
+	protected double cellDistance(int r, int c, double minX, double minY, double maxX, double maxY) {
+		
+		double cMinX = c == 0 ? Double.NEGATIVE_INFINITY : originX + c*cellSize;
+		double cMaxX = c == cols - 1 ? Double.POSITIVE_INFINITY : originX + (c + 1)*cellSize;
+		double cMinY = r == 0 ? Double.NEGATIVE_INFINITY : originY + r*cellSize;
+		double cMaxY = r == rows - 1 ? Double.POSITIVE_INFINITY : originY + (r + 1)*cellSize;
+		
+		double dx = Math.max(0, Math.max(cMinX - maxX, minX - cMaxX));
+		double dy = Math.max(0, Math.max(cMinY - maxY, minY - cMaxY));
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+	
+	protected boolean inside(double minX, double minY, double maxX, double maxY) {
+		return minX >= originX && minY >= originY &&
+			   maxX < originX + cols*cellSize && maxY < originY + rows*cellSize;
+	}
+	
+	// outside of the grid clamps to the edge
+	protected int col(double x) {
+		int c = (int)Math.floor((x - originX) / cellSize);
+		return c < 0 ? 0 : (c >= cols ? cols - 1 : c);
+	}
+	
+	protected int row(double y) {
+		int r = (int)Math.floor((y - originY) / cellSize);
+		return r < 0 ? 0 : (r >= rows ? rows - 1 : r);
+	}
+	
+	// the larger side of each item
+	protected static double[] extents(double[] bounds, int n) {
+		double[] extents = new double[n];
+		for (int i = 0; i < n; i++)
+			extents[i] = Math.max(bounds[i*4 + 2] - bounds[i*4], bounds[i*4 + 3] - bounds[i*4 + 1]);
+		return extents;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to int values, using open addressing with linear
+ * probing so that lookups don't box or allocate. Removal shifts entries
+ * back instead of leaving tombstones.
+ */
+public class LongIntHashMap {
+
+	protected long[] keys;
+	protected int[] values;
+	protected boolean[] used;
+	protected int mask;
+	protected int size = 0;
+	
+	public LongIntHashMap() {
+		this(16);
+	}
+	
+	public LongIntHashMap(int expectedSize) {
+		int capacity = 16;
+		while (capacity < expectedSize*2)
+			capacity <<= 1;
+		
+		allocate(capacity);
+	}
+	
+	public int size() {
+		return size;
+	}
+	
+	// returns missing if the key isn't in the map
+	public int get(long key, int missing) {
+		int i = hash(key) & mask;
+		while (used[i]) {
+			if (keys[i] == key)
+				return values[i];
+			i = (i + 1) & mask;
+		}
+		return missing;
+	}
+	
+	public boolean containsKey(long key) {
+		return slot(key) != -1;
+	}
+	
+	public void put(long key, int value) {
+		int i = hash(key) & mask;
+		while (used[i]) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		
+		used[i] = true;
+		keys[i] = key;
+		values[i] = value;
+		size += 1;
+		
+		// keep it at most half full
+		if (size*2 > keys.length)
+			rehash(keys.length*2);
+	}
+	
+	// returns false if the key wasn't in the map
+	public boolean remove(long key) {
+		int i = slot(key);
+		if (i == -1)
+			return false;
+		
+		used[i] = false;
+		size -= 1;
+		
+		// move back any entries that were displaced past the removed one
+		int j = i;
+		while (true) {
+			j = (j + 1) & mask;
+			if (!used[j])
+				break;
+			
+			int k = hash(keys[j]) & mask;
+			
+			// entries whose home slot is cyclically in (i, j] stay put
+			if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+				continue;
+			
+			keys[i] = keys[j];
+			values[i] = values[j];
+			used[i] = true;
+			used[j] = false;
+			i = j;
+		}
+		
+		return true;
+	}
+	
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+	
+	protected int slot(long key) {
+		int i = hash(key) & mask;
+		while (used[i]) {
+			if (keys[i] == key)
+				return i;
+			i = (i + 1) & mask;
+		}
+		return -1;
+	}
+	
+	protected void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+	
+	protected void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		
+		allocate(capacity);
+		size = 0;
+		
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldUsed[i])
+				put(oldKeys[i], oldValues[i]);
+		}
+	}
+	
+	protected static int hash(long key) {
+		key *= 0x9E3779B97F4A7C15L;
+		return (int)(key ^ (key >>> 32));
+	}
+}
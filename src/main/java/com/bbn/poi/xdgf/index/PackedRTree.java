@@ -0,0 +1,495 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bbn.poi.xdgf.index;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An R-tree that is bulk loaded in a single pass using Sort-Tile-Recursive
+ * packing, instead of being built one insert at a time. Coordinates are kept
+ * in flat arrays, so loading N items allocates a handful of arrays instead
+ * of O(N log N) nodes, and searches don't allocate anything per hit.
+ *
+ * Leaves are packed with some free slots, so later inserts and deletes
+ * happen in place. Inserts that don't fit into a leaf are kept in a small
+ * overflow list, and the tree is repacked once that list gets too big.
+ */
+public class PackedRTree<T> implements SpatialIndex<T> {
+
+	public static final int DEFAULT_NODE_CAPACITY = 16;
+
+	protected final int nodeCapacity;
+
+	// number of items put into each leaf when packing
+	protected final int leafFill;
+
+	// item slots: leaf n owns slots [n*nodeCapacity, n*nodeCapacity + count[n])
+	protected Object[] items = new Object[0];
+	protected double[] itemBounds = new double[0];	// minX, minY, maxX, maxY
+
+	// nodes: leaves are [0, numLeaves), the root is the last node
+	protected double[] nodeBounds = new double[0];
+	protected int[] start = new int[0];	// first slot for leaves, offset into children otherwise
+	protected int[] count = new int[0];
+	protected int[] children = new int[0];
+
+	protected int numLeaves = 0;
+	protected int numNodes = 0;
+	protected int height = 0;
+
+	// items that didn't fit into a leaf
+	protected final List<T> overflow = new ArrayList<>();
+	protected double[] overflowBounds = new double[0];
+
+	protected int size = 0;
+
+	public PackedRTree() {
+		this(DEFAULT_NODE_CAPACITY);
+	}
+
+	public PackedRTree(int nodeCapacity) {
+		if (nodeCapacity < 2)
+			throw new IllegalArgumentException("nodeCapacity must be at least 2");
+
+		this.nodeCapacity = nodeCapacity;
+		this.leafFill = Math.max(1, nodeCapacity*3/4);
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void load(List<? extends T> newItems, double[] bounds) {
+
+		final int n = newItems.size();
+		if (bounds.length < n*4)
+			throw new IllegalArgumentException("Expected " + n*4 + " bounds, got " + bounds.length);
+
+		overflow.clear();
+		size = n;
+
+		numLeaves = (n + leafFill - 1) / leafFill;
+
+		// count the nodes on each level so everything is allocated once
+		int maxNodes = numLeaves;
+		for (int level = numLeaves; level > 1; ) {
+			level = (level + nodeCapacity - 1) / nodeCapacity;
+			maxNodes += level;
+		}
+
+		items = new Object[numLeaves*nodeCapacity];
+		itemBounds = new double[numLeaves*nodeCapacity*4];
+		nodeBounds = new double[maxNodes*4];
+		start = new int[maxNodes];
+		count = new int[maxNodes];
+		children = new int[Math.max(0, maxNodes - 1)];
+		numNodes = 0;
+		height = 0;
+
+		if (n == 0)
+			return;
+
+		// tile the items into leaves
+		int[] order = new int[n];
+		double[] cx = new double[Math.max(n, maxNodes)];
+		double[] cy = new double[cx.length];
+
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+			cx[i] = (bounds[i*4] + bounds[i*4 + 2]) / 2;
+			cy[i] = (bounds[i*4 + 1] + bounds[i*4 + 3]) / 2;
+		}
+
+		tile(order, n, leafFill, cx, cy);
+
+		for (int leaf = 0; leaf < numLeaves; leaf++) {
+
+			int first = leaf*leafFill;
+			int last = Math.min(first + leafFill, n);
+			int slot = leaf*nodeCapacity;
+
+			start[leaf] = slot;
+			count[leaf] = last - first;
+			resetBounds(nodeBounds, leaf);
+
+			for (int i = first; i < last; i++, slot++) {
+				int idx = order[i];
+				items[slot] = newItems.get(idx);
+				System.arraycopy(bounds, idx*4, itemBounds, slot*4, 4);
+				union(nodeBounds, leaf, itemBounds, slot);
+			}
+		}
+
+		numNodes = numLeaves;
+		height = 1;
+
+		// then tile each level into the level above it, until there is a root
+		int levelStart = 0;
+		int levelCount = numLeaves;
+		int childPos = 0;
+
+		while (levelCount > 1) {
+
+			order = new int[levelCount];
+			for (int i = 0; i < levelCount; i++) {
+				int node = levelStart + i;
+				order[i] = node;
+				cx[node] = (nodeBounds[node*4] + nodeBounds[node*4 + 2]) / 2;
+				cy[node] = (nodeBounds[node*4 + 1] + nodeBounds[node*4 + 3]) / 2;
+			}
+
+			tile(order, levelCount, nodeCapacity, cx, cy);
+
+			int parents = (levelCount + nodeCapacity - 1) / nodeCapacity;
+			for (int p = 0; p < parents; p++) {
+
+				int node = numNodes++;
+				int first = p*nodeCapacity;
+				int last = Math.min(first + nodeCapacity, levelCount);
+
+				start[node] = childPos;
+				count[node] = last - first;
+				resetBounds(nodeBounds, node);
+
+				for (int i = first; i < last; i++) {
+					children[childPos++] = order[i];
+					union(nodeBounds, node, nodeBounds, order[i]);
+				}
+			}
+
+			levelStart = numNodes - parents;
+			levelCount = parents;
+			height += 1;
+		}
+	}
+
+	@Override
+	public void add(T item, double minX, double minY, double maxX, double maxY) {
+
+		size += 1;
+
+		if (numNodes != 0) {
+
+			// descend to the leaf that needs the least enlargement,
+			// remembering the path so the bounds can be fixed up
+			int[] path = new int[height];
+			int node = numNodes - 1;
+			int depth = 0;
+
+			while (node >= numLeaves) {
+				path[depth++] = node;
+				node = chooseChild(node, minX, minY, maxX, maxY);
+			}
+
+			if (count[node] < nodeCapacity) {
+				int slot = start[node] + count[node];
+				count[node] += 1;
+
+				items[slot] = item;
+				setBounds(itemBounds, slot, minX, minY, maxX, maxY);
+
+				union(nodeBounds, node, itemBounds, slot);
+				for (int i = 0; i < depth; i++)
+					union(nodeBounds, path[i], itemBounds, slot);
+
+				return;
+			}
+		}
+
+		int i = overflow.size();
+		if (overflowBounds.length < (i + 1)*4) {
+			double[] newBounds = new double[Math.max(16, overflowBounds.length*2)];
+			System.arraycopy(overflowBounds, 0, newBounds, 0, overflowBounds.length);
+			overflowBounds = newBounds;
+		}
+
+		overflow.add(item);
+		setBounds(overflowBounds, i, minX, minY, maxX, maxY);
+
+		// the overflow list is searched linearly, don't let it grow
+		if (overflow.size() > Math.max(nodeCapacity*4, size/8))
+			repack();
+	}
+
+	@Override
+	public boolean remove(T item, double minX, double minY, double maxX, double maxY) {
+
+		for (int i = 0; i < overflow.size(); i++) {
+			if (overflow.get(i) == item) {
+				int last = overflow.size() - 1;
+				overflow.set(i, overflow.get(last));
+				System.arraycopy(overflowBounds, last*4, overflowBounds, i*4, 4);
+				overflow.remove(last);
+				size -= 1;
+				return true;
+			}
+		}
+
+		if (numNodes == 0)
+			return false;
+
+		// node bounds never shrink, so the item must be inside each node
+		// on the path to its leaf
+		int[] stack = new int[height*nodeCapacity + 1];
+		int sp = 0;
+		stack[sp++] = numNodes - 1;
+
+		while (sp != 0) {
+			int node = stack[--sp];
+
+			if (!contains(nodeBounds, node, minX, minY, maxX, maxY))
+				continue;
+
+			if (node < numLeaves) {
+				int first = start[node];
+				int last = first + count[node] - 1;
+
+				for (int i = first; i <= last; i++) {
+					if (items[i] == item) {
+						items[i] = items[last];
+						System.arraycopy(itemBounds, last*4, itemBounds, i*4, 4);
+						items[last] = null;
+						count[node] -= 1;
+						size -= 1;
+						return true;
+					}
+				}
+			} else {
+				for (int i = start[node], end = start[node] + count[node]; i < end; i++)
+					stack[sp++] = children[i];
+			}
+		}
+
+		return false;
+	}
+
+	@Override
+	public void search(double minX, double minY, double maxX, double maxY, Visitor<? super T> visitor) {
+		search(minX, minY, maxX, maxY, 0, false, visitor);
+	}
+
+	@Override
+	public void searchNear(double minX, double minY, double maxX, double maxY, double maxDistance, Visitor<? super T> visitor) {
+		search(minX, minY, maxX, maxY, maxDistance, true, visitor);
+	}
+
+	// best-first: nodes and items share one queue, and an item is only
+	// visited once nothing left in the queue can be closer
+	@Override
+	@SuppressWarnings("unchecked")
+	public void nearest(double minX, double minY, double maxX, double maxY, double maxDistance, Visitor<? super T> visitor) {
+
+		// queue values: nodes, then item slots, then overflow items
+		int itemBase = numNodes;
+		int overflowBase = numNodes + items.length;
+
+		DistanceQueue queue = new DistanceQueue();
+
+		for (int i = 0; i < overflow.size(); i++) {
+			double d = distance(overflowBounds, i, minX, minY, maxX, maxY);
+			if (d < maxDistance)
+				queue.add(d, overflowBase + i);
+		}
+
+		if (numNodes != 0) {
+			double d = distance(nodeBounds, numNodes - 1, minX, minY, maxX, maxY);
+			if (d < maxDistance)
+				queue.add(d, numNodes - 1);
+		}
+
+		while (!queue.isEmpty()) {
+			int value = queue.poll();
+
+			if (value >= overflowBase) {
+				if (!visitor.visit(overflow.get(value - overflowBase)))
+					return;
+
+			} else if (value >= itemBase) {
+				if (!visitor.visit((T)items[value - itemBase]))
+					return;
+
+			} else if (value < numLeaves) {
+				for (int i = start[value], end = start[value] + count[value]; i < end; i++) {
+					double d = distance(itemBounds, i, minX, minY, maxX, maxY);
+					if (d < maxDistance)
+						queue.add(d, itemBase + i);
+				}
+
+			} else {
+				for (int i = start[value], end = start[value] + count[value]; i < end; i++) {
+					int child = children[i];
+					double d = distance(nodeBounds, child, minX, minY, maxX, maxY);
+					if (d < maxDistance)
+						queue.add(d, child);
+				}
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void search(double minX, double minY, double maxX, double maxY,
+	                      double maxDistance, boolean useDistance, Visitor<? super T> visitor) {
+
+		for (int i = 0; i < overflow.size(); i++) {
+			if (matches(overflowBounds, i, minX, minY, maxX, maxY, maxDistance, useDistance) &&
+				!visitor.visit(overflow.get(i)))
+				return;
+		}
+
+		if (numNodes == 0)
+			return;
+
+		int[] stack = new int[height*nodeCapacity + 1];
+		int sp = 0;
+		stack[sp++] = numNodes - 1;
+
+		while (sp != 0) {
+			int node = stack[--sp];
+
+			if (!matches(nodeBounds, node, minX, minY, maxX, maxY, maxDistance, useDistance))
+				continue;
+
+			if (node < numLeaves) {
+				for (int i = start[node], end = start[node] + count[node]; i < end; i++) {
+					if (matches(itemBounds, i, minX, minY, maxX, maxY, maxDistance, useDistance) &&
+						!visitor.visit((T)items[i]))
+						return;
+				}
+			} else {
+				for (int i = start[node], end = start[node] + count[node]; i < end; i++)
+					stack[sp++] = children[i];
+			}
+		}
+	}
+
+	// packs everything again, including the overflow list
+	@SuppressWarnings("unchecked")
+	protected void repack() {
+
+		List<T> all = new ArrayList<>(size);
+		double[] bounds = new double[size*4];
+
+		for (int leaf = 0; leaf < numLeaves; leaf++) {
+			for (int i = start[leaf], end = start[leaf] + count[leaf]; i < end; i++) {
+				System.arraycopy(itemBounds, i*4, bounds, all.size()*4, 4);
+				all.add((T)items[i]);
+			}
+		}
+
+		for (int i = 0; i < overflow.size(); i++) {
+			System.arraycopy(overflowBounds, i*4, bounds, all.size()*4, 4);
+			all.add(overflow.get(i));
+		}
+
+		load(all, bounds);
+	}
+
+	protected int chooseChild(int node, double minX, double minY, double maxX, double maxY) {
+
+		int best = -1;
+		double bestEnlargement = Double.POSITIVE_INFINITY;
+		double bestArea = Double.POSITIVE_INFINITY;
+
+		for (int i = start[node], end = start[node] + count[node]; i < end; i++) {
+			int child = children[i];
+			double[] b = nodeBounds;
+
+			double area = (b[child*4 + 2] - b[child*4]) * (b[child*4 + 3] - b[child*4 + 1]);
+			double enlarged = (Math.max(b[child*4 + 2], maxX) - Math.min(b[child*4], minX)) *
+			                  (Math.max(b[child*4 + 3], maxY) - Math.min(b[child*4 + 1], minY));
+			double enlargement = enlarged - area;
+
+			if (enlargement < bestEnlargement || (enlargement == bestEnlargement && area < bestArea)) {
+				best = child;
+				bestEnlargement = enlargement;
+				bestArea = area;
+			}
+		}
+
+		return best;
+	}
+
+	//
+	// Sort-Tile-Recursive packing
+	//
+
+	// sorts order[0, n) into vertical slices by x, then each slice by y, so
+	// that every consecutive run of groupSize entries is spatially close
+	protected static void tile(int[] order, int n, int groupSize, double[] cx, double[] cy) {
+
+		int groups = (n + groupSize - 1) / groupSize;
+		int slices = (int)Math.ceil(Math.sqrt(groups));
+		int sliceSize = slices*groupSize;
+
+		Sorting.sort(order, 0, n, cx);
+
+		for (int first = 0; first < n; first += sliceSize) {
+			Sorting.sort(order, first, Math.min(first + sliceSize, n), cy);
+		}
+	}
+
+	//
+	// bounds helpers -- each bounds array holds minX, minY, maxX, maxY
+	//
+
+	protected static void resetBounds(double[] b, int i) {
+		b[i*4] = Double.POSITIVE_INFINITY;
+		b[i*4 + 1] = Double.POSITIVE_INFINITY;
+		b[i*4 + 2] = Double.NEGATIVE_INFINITY;
+		b[i*4 + 3] = Double.NEGATIVE_INFINITY;
+	}
+
+	protected static void setBounds(double[] b, int i, double minX, double minY, double maxX, double maxY) {
+		b[i*4] = minX;
+		b[i*4 + 1] = minY;
+		b[i*4 + 2] = maxX;
+		b[i*4 + 3] = maxY;
+	}
+
+	protected static void union(double[] b, int i, double[] other, int j) {
+		b[i*4] = Math.min(b[i*4], other[j*4]);
+		b[i*4 + 1] = Math.min(b[i*4 + 1], other[j*4 + 1]);
+		b[i*4 + 2] = Math.max(b[i*4 + 2], other[j*4 + 2]);
+		b[i*4 + 3] = Math.max(b[i*4 + 3], other[j*4 + 3]);
+	}
+
+	protected static boolean contains(double[] b, int i, double minX, double minY, double maxX, double maxY) {
+		return b[i*4] <= minX && b[i*4 + 1] <= minY && b[i*4 + 2] >= maxX && b[i*4 + 3] >= maxY;
+	}
+
+	protected static boolean intersects(double[] b, int i, double minX, double minY, double maxX, double maxY) {
+		return b[i*4] <= maxX && minX <= b[i*4 + 2] && b[i*4 + 1] <= maxY && minY <= b[i*4 + 3];
+	}
+
+	// euclidean distance between two rectangles, zero if they intersect
+	protected static double distance(double[] b, int i, double minX, double minY, double maxX, double maxY) {
+		double dx = Math.max(0, Math.max(b[i*4] - maxX, minX - b[i*4 + 2]));
+		double dy = Math.max(0, Math.max(b[i*4 + 1] - maxY, minY - b[i*4 + 3]));
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+
+	protected static boolean matches(double[] b, int i, double minX, double minY, double maxX, double maxY,
+	                                 double maxDistance, boolean useDistance) {
+		if (useDistance)
+			return distance(b, i, minX, minY, maxX, maxY) < maxDistance;
+		else
+			return intersects(b, i, minX, minY, maxX, maxY);
+	}
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bbn.poi.xdgf.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.bbn.poi.xdgf.geom.Segments;
+
+/**
+ * Finds every pair of segments, from different owners, whose bounding
+ * boxes overlap. Wiring diagrams are mostly long axis-aligned connectors,
+ * so those are handled separately from everything else:
+ *
+ * - horizontal against vertical: a sweep in x that keeps the open
+ *   horizontals ordered by y, and answers each vertical with a range query
+ * - horizontal against horizontal (and vertical against vertical): only
+ *   segments on the same line can overlap, so each line is swept by itself
+ * - anything else (diagonals) is checked against the segments whose
+ *   x-interval is still open
+ *
+ * The first two cost O((n + k) log n) for k overlapping pairs, however long
+ * the connectors are. Only the diagonals can be quadratic. Point segments
+ * are treated as verticals.
+ *
+ * The listener decides whether the segments really intersect.
+ */
+public class SegmentSweep {
+
+	public static interface Listener {
+		
+		// ownerA is always less than ownerB
+		public void overlap(int ownerA, int segmentA, int ownerB, int segmentB);
+	}
+	
+	protected final List<Segments> owners = new ArrayList<>();
+	
+	// the segments of all owners, only set during run
+	protected int[] owner;
+	protected int[] segment;
+	protected double[] minX;
+	protected double[] minY;
+	protected double[] maxX;
+	protected double[] maxY;
+	
+	// adds the segments of one owner, returns the owner index
+	public int add(Segments segments) {
+		owners.add(segments);
+		return owners.size() - 1;
+	}
+	
+	public void run(Listener listener) {
+		
+		int n = 0;
+		for (Segments segments: owners)
+			n += segments.size();
+		
+		owner = new int[n];
+		segment = new int[n];
+		minX = new double[n];
+		minY = new double[n];
+		maxX = new double[n];
+		maxY = new double[n];
+		
+		int[] horizontals = new int[n];
+		int[] verticals = new int[n];
+		int[] others = new int[n];
+		int nh = 0, nv = 0, no = 0;
+		
+		int s = 0;
+		for (int o = 0; o < owners.size(); o++) {
+			Segments segments = owners.get(o);
+			for (int i = 0; i < segments.size(); i++, s++) {
+				owner[s] = o;
+				segment[s] = i;
+				minX[s] = segments.minX(i);
+				minY[s] = segments.minY(i);
+				maxX[s] = segments.maxX(i);
+				maxY[s] = segments.maxY(i);
+				
+				if (minX[s] == maxX[s])
+					verticals[nv++] = s;
+				else if (minY[s] == maxY[s])
+					horizontals[nh++] = s;
+				else
+					others[no++] = s;
+			}
+		}
+		
+		try {
+			sweepCrossings(horizontals, nh, verticals, nv, listener);
+			sweepCollinear(horizontals, nh, minY, minX, maxX, listener);
+			sweepCollinear(verticals, nv, minX, minY, maxY, listener);
+			
+			if (no != 0)
+				sweepOthers(n, others, no, listener);
+		} finally {
+			owner = segment = null;
+			minX = minY = maxX = maxY = null;
+		}
+	}
+	
+	// horizontals against verticals. Horizontals are added when the sweep
+	// reaches their start, and removed once it has passed their end
+	protected void sweepCrossings(int[] horizontals, int nh, int[] verticals, int nv, Listener listener) {
+		
+		if (nh == 0 || nv == 0)
+			return;
+		
+		// positions of the horizontals when ordered by y
+		int[] byY = Arrays.copyOf(horizontals, nh);
+		Sorting.sort(byY, 0, nh, minY);
+		
+		double[] ys = new double[nh];
+		int[] rank = new int[minY.length];
+		for (int r = 0; r < nh; r++) {
+			ys[r] = minY[byY[r]];
+			rank[byY[r]] = r;
+		}
+		
+		int[] starts = Arrays.copyOf(horizontals, nh);
+		Sorting.sort(starts, 0, nh, minX);
+		
+		int[] ends = Arrays.copyOf(horizontals, nh);
+		Sorting.sort(ends, 0, nh, maxX);
+		
+		int[] xs = Arrays.copyOf(verticals, nv);
+		Sorting.sort(xs, 0, nv, minX);
+		
+		RankSet open = new RankSet(nh);
+		int a = 0, b = 0, c = 0;
+		
+		while (c < nv) {
+			
+			int v = xs[c];
+			double x = minX[v];
+			
+			// segments that touch x are open
+			if (a < nh && minX[starts[a]] <= x) {
+				open.add(rank[starts[a++]]);
+				continue;
+			}
+			
+			if (b < nh && maxX[ends[b]] < x) {
+				open.remove(rank[ends[b++]]);
+				continue;
+			}
+			
+			c++;
+			
+			for (int r = open.next(lowerBound(ys, minY[v])); r != -1 && ys[r] <= maxY[v]; r = open.next(r + 1))
+				report(byY[r], v, listener);
+		}
+	}
+	
+	// segments on the same line, which is given by key. The segments of each
+	// line are swept from start to end, and everything still open overlaps
+	protected void sweepCollinear(int[] items, int n, double[] key, double[] start, double[] end, Listener listener) {
+		
+		int[] order = Arrays.copyOf(items, n);
+		Sorting.sort(order, 0, n, key);
+		
+		int[] active = new int[16];
+		
+		for (int from = 0, to; from < n; from = to) {
+			
+			to = from + 1;
+			while (to < n && key[order[to]] == key[order[from]])
+				to++;
+			
+			if (to - from == 1)
+				continue;
+			
+			Sorting.sort(order, from, to, start);
+			int activeCount = 0;
+			
+			for (int k = from; k < to; k++) {
+				
+				int s = order[k];
+				
+				int keep = 0;
+				for (int i = 0; i < activeCount; i++) {
+					int t = active[i];
+					if (end[t] >= start[s]) {
+						active[keep++] = t;
+						report(t, s, listener);
+					}
+				}
+				
+				activeCount = keep;
+				
+				if (activeCount == active.length)
+					active = Arrays.copyOf(active, active.length*2);
+				
+				active[activeCount++] = s;
+			}
+		}
+	}
+	
+	// diagonals against everything, by the segments whose x-interval is
+	// still open. Axis-aligned segments are only checked when a diagonal
+	// comes along, they already found each other
+	protected void sweepOthers(int n, int[] others, int no, Listener listener) {
+		
+		boolean[] isOther = new boolean[n];
+		for (int i = 0; i < no; i++)
+			isOther[others[i]] = true;
+		
+		int[] order = new int[n];
+		for (int i = 0; i < n; i++)
+			order[i] = i;
+		
+		Sorting.sort(order, 0, n, minX);
+		
+		int[] activeOthers = new int[16];
+		int othersCount = 0;
+		int[] activeAligned = new int[16];
+		int alignedCount = 0;
+		
+		for (int k = 0; k < n; k++) {
+			
+			int s = order[k];
+			
+			othersCount = overlapActive(s, activeOthers, othersCount, listener);
+			
+			if (isOther[s]) {
+				alignedCount = overlapActive(s, activeAligned, alignedCount, listener);
+				
+				if (othersCount == activeOthers.length)
+					activeOthers = Arrays.copyOf(activeOthers, othersCount*2);
+				activeOthers[othersCount++] = s;
+				
+			} else {
+				if (alignedCount == activeAligned.length)
+					activeAligned = Arrays.copyOf(activeAligned, alignedCount*2);
+				activeAligned[alignedCount++] = s;
+			}
+		}
+	}
+	
+	// drops the active segments that end before s starts, and reports the
+	// rest if they overlap in y. Returns the new number of active segments
+	protected int overlapActive(int s, int[] active, int activeCount, Listener listener) {
+		
+		int keep = 0;
+		for (int i = 0; i < activeCount; i++) {
+			int t = active[i];
+			if (maxX[t] < minX[s])
+				continue;
+			
+			active[keep++] = t;
+			
+			if (minY[t] <= maxY[s] && minY[s] <= maxY[t])
+				report(t, s, listener);
+		}
+		
+		return keep;
+	}
+	
+	protected void report(int s, int t, Listener listener) {
+		if (owner[s] == owner[t])
+			return;
+		
+		if (owner[s] < owner[t])
+			listener.overlap(owner[s], segment[s], owner[t], segment[t]);
+		else
+			listener.overlap(owner[t], segment[t], owner[s], segment[s]);
+	}
+	
+	// first index of sorted with a value >= value
+	protected static int lowerBound(double[] sorted, double value) {
+		int lo = 0, hi = sorted.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (sorted[mid] < value)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		
+		return lo;
+	}
+	
+	// a set of the positions 0 to n-1, as a tree of counts so that the next
+	// position in the set can be found in O(log n)
+	protected static class RankSet {
+		
+		final int size;
+		final int[] counts;
+		
+		RankSet(int n) {
+			int size = 1;
+			while (size < n)
+				size *= 2;
+			
+			this.size = size;
+			counts = new int[size*2];
+		}
+		
+		void add(int r) {
+			for (int i = r + size; i != 0; i >>= 1)
+				counts[i]++;
+		}
+		
+		void remove(int r) {
+			for (int i = r + size; i != 0; i >>= 1)
+				counts[i]--;
+		}
+		
+		// the first position >= r in the set, or -1
+		int next(int r) {
+			
+			if (r >= size)
+				return -1;
+			
+			int i = r + size;
+			if (counts[i] != 0)
+				return r;
+			
+			// go up until there's a right sibling with something in it
+			while (i > 1) {
+				if ((i & 1) == 0 && counts[i + 1] != 0) {
+					i++;
+					
+					// then down to its leftmost position
+					while (i < size)
+						i = counts[2*i] != 0 ? 2*i : 2*i + 1;
+					
+					return i - size;
+				}
+				
+				i >>= 1;
+			}
+			
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bbn.poi.xdgf.index;
+
+// sorting helpers shared by the index structures
+class Sorting {
+
+	// sorts order[from, to) by key[order[i]], without boxing
+	static void sort(int[] order, int from, int to, double[] key) {
+
+		while (to - from > 16) {
+
+			// median of three pivot
+			int mid = (from + to) >>> 1;
+			double a = key[order[from]], b = key[order[mid]], c = key[order[to - 1]];
+			double pivot = a < b ? (b < c ? b : (a < c ? c : a)) : (a < c ? a : (b < c ? c : b));
+
+			int i = from, j = to - 1;
+			while (i <= j) {
+				while (key[order[i]] < pivot)
+					i++;
+				while (key[order[j]] > pivot)
+					j--;
+
+				if (i <= j) {
+					int tmp = order[i];
+					order[i++] = order[j];
+					order[j--] = tmp;
+				}
+			}
+
+			// recurse into the smaller half, loop on the larger one
+			if (j - from < to - i) {
+				sort(order, from, j + 1, key);
+				from = i;
+			} else {
+				sort(order, i, to, key);
+				to = j + 1;
+			}
+		}
+
+		// insertion sort for small ranges
+		for (int i = from + 1; i < to; i++) {
+			int v = order[i];
+			double k = key[v];
+			int j = i - 1;
+			while (j >= from && key[order[j]] > k) {
+				order[j + 1] = order[j];
+				j--;
+			}
+			order[j + 1] = v;
+		}
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.bbn.poi.xdgf.index;
+
+import java.util.List;
+
+/**
+ * A mutable index of items by their bounding rectangles. Rectangles are
+ * given as minX, minY, maxX, maxY, and rectangles that touch intersect.
+ *
+ * The index must not be modified from inside a visitor.
+ */
+public interface SpatialIndex<T> {
+
+	public static interface Visitor<T> {
+
+		// return false to stop the search
+		public boolean visit(T item);
+	}
+
+	public int size();
+
+	// replaces the contents of the index. bounds holds 4 values per item
+	public void load(List<? extends T> items, double[] bounds);
+
+	public void add(T item, double minX, double minY, double maxX, double maxY);
+
+	// the bounds must be the ones the item was added with. Returns false
+	// if the item wasn't in the index
+	public boolean remove(T item, double minX, double minY, double maxX, double maxY);
+
+	// visits every item whose bounds intersect the rectangle
+	public void search(double minX, double minY, double maxX, double maxY, Visitor<? super T> visitor);
+
+	// visits every item whose bounds are closer than maxDistance to the rectangle
+	public void searchNear(double minX, double minY, double maxX, double maxY, double maxDistance, Visitor<? super T> visitor);
+
+	// visits the same items as searchNear, but closest first. Items are
+	// found lazily, so stopping early skips the work for the rest
+	public void nearest(double minX, double minY, double maxX, double maxY, double maxDistance, Visitor<? super T> visitor);
+
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+/**
+ * Joins two sets of rectangles, or one set with itself, reporting every
+ * pair whose bounds intersect. Like SegmentSweep, this sweeps the rectangles
+ * sorted by minimum x, keeping the ones whose x-interval is still open, so
+ * the whole join costs one sort instead of a query per rectangle.
+ *
+ * Rectangles are given as minX, minY, maxX, maxY, 4 values per item, and
+ * rectangles that touch intersect.
+ */
+public class SpatialJoin {
+
+	public static interface Listener {
+		
+		// a is an index into the first set, b into the second
+		public void overlap(int a, int b);
+	}
+	
+	// reports every pair of distinct items whose bounds intersect once, with
+	// a less than b
+	public static void selfJoin(double[] bounds, int n, Listener listener) {
+		
+		double[] minX = new double[n];
+		int[] order = new int[n];
+		
+		for (int i = 0; i < n; i++) {
+			minX[i] = bounds[i*4];
+			order[i] = i;
+		}
+		
+		Sorting.sort(order, 0, n, minX);
+		
+		int[] active = new int[16];
+		int activeCount = 0;
+		
+		for (int k = 0; k < n; k++) {
+			
+			int s = order[k];
+			double sMinY = bounds[s*4 + 1];
+			double sMaxY = bounds[s*4 + 3];
+			
+			// drop the rectangles that end before this one starts, everything
+			// left overlaps in x, so just check y
+			int keep = 0;
+			for (int i = 0; i < activeCount; i++) {
+				int t = active[i];
+				if (bounds[t*4 + 2] < minX[s])
+					continue;
+				
+				active[keep++] = t;
+				
+				if (bounds[t*4 + 1] > sMaxY || sMinY > bounds[t*4 + 3])
+					continue;
+				
+				if (t < s)
+					listener.overlap(t, s);
+				else
+					listener.overlap(s, t);
+			}
+			
+			activeCount = keep;
+			
+			if (activeCount == active.length) {
+				int[] newActive = new int[active.length*2];
+				System.arraycopy(active, 0, newActive, 0, activeCount);
+				active = newActive;
+			}
+			
+			active[activeCount++] = s;
+		}
+	}
+	
+	// reports every pair of an item from a and an item from b whose
+	// bounds intersect
+	public static void join(double[] a, int na, double[] b, int nb, Listener listener) {
+		
+		int n = na + nb;
+		
+		// items of b are numbered after the items of a
+		double[] minX = new double[n];
+		int[] order = new int[n];
+		
+		for (int i = 0; i < na; i++) {
+			minX[i] = a[i*4];
+			order[i] = i;
+		}
+		
+		for (int i = 0; i < nb; i++) {
+			minX[na + i] = b[i*4];
+			order[na + i] = na + i;
+		}
+		
+		Sorting.sort(order, 0, n, minX);
+		
+		int[][] active = {new int[16], new int[16]};
+		int[] activeCount = {0, 0};
+		
+		for (int k = 0; k < n; k++) {
+			
+			int s = order[k];
+			int side = s < na ? 0 : 1;
+			int item = side == 0 ? s : s - na;
+			
+			double[] bounds = side == 0 ? a : b;
+			double[] otherBounds = side == 0 ? b : a;
+			int[] others = active[1 - side];
+			
+			double sMinX = bounds[item*4];
+			double sMinY = bounds[item*4 + 1];
+			double sMaxY = bounds[item*4 + 3];
+			
+			// drop the rectangles from the other set that end before this one
+			// starts, everything left overlaps in x, so just check y
+			int keep = 0;
+			for (int i = 0; i < activeCount[1 - side]; i++) {
+				int t = others[i];
+				if (otherBounds[t*4 + 2] < sMinX)
+					continue;
+				
+				others[keep++] = t;
+				
+				if (otherBounds[t*4 + 1] > sMaxY || sMinY > otherBounds[t*4 + 3])
+					continue;
+				
+				if (side == 0)
+					listener.overlap(item, t);
+				else
+					listener.overlap(t, item);
+			}
+			
+			activeCount[1 - side] = keep;
+			
+			int[] mine = active[side];
+			if (activeCount[side] == mine.length) {
+				int[] newActive = new int[mine.length*2];
+				System.arraycopy(mine, 0, newActive, 0, activeCount[side]);
+				active[side] = mine = newActive;
+			}
+			
+			mine[activeCount[side]++] = item;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.io;
+
+/**
+ * Constants for the binary graph format.
+ *
+ * A file is a header (magic, version) followed by records. Each record is
+ * a type byte and an int length, followed by that many bytes of payload,
+ * so readers can skip record types they don't know about. All numbers are
+ * big endian, strings are an int byte count followed by UTF-8.
+ *
+ * STRING defines the next entry of the string table; the first is 0.
+ * Property keys, vertex ids, edge labels and repeated property values are
+ * written as references into this table.
+ *
+ * VERTEX: int id ref, properties
+ * EDGE: string id, int out vertex id ref, int in vertex id ref, int label ref, properties
+ *
+ * Properties are an int count, then for each one an int key ref, a value
+ * tag and the value.
+ */
+final class BinaryGraphFormat {
+
+	static final int MAGIC = 0x56475246;	// "VGRF"
+	static final int VERSION = 1;
+	
+	static final byte RECORD_STRING = 1;
+	static final byte RECORD_VERTEX = 2;
+	static final byte RECORD_EDGE = 3;
+	
+	static final byte VALUE_STRING_REF = 1;
+	static final byte VALUE_STRING = 2;
+	static final byte VALUE_BOOLEAN = 3;
+	static final byte VALUE_INT = 4;
+	static final byte VALUE_LONG = 5;
+	static final byte VALUE_FLOAT = 6;
+	static final byte VALUE_DOUBLE = 7;
+	
+	private BinaryGraphFormat() {
+	}
+}
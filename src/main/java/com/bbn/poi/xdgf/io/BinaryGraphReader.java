@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.io;
+
+import static com.bbn.poi.xdgf.io.BinaryGraphFormat.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+
+/**
+ * Reads graphs written by BinaryGraphWriter. Files are memory mapped
+ * rather than read through a stream.
+ */
+public class BinaryGraphReader {
+
+	protected final Graph graph;
+	
+	protected final List<String> strings = new ArrayList<>();
+	
+	// vertex for each string table entry that is a vertex id
+	protected final List<Vertex> vertices = new ArrayList<>();
+	
+	protected byte[] scratch = new byte[256];
+	
+	protected BinaryGraphReader(Graph graph) {
+		this.graph = graph;
+	}
+	
+	public static Graph inputGraph(String filename) throws IOException {
+		Graph graph = new TinkerGraph();
+		inputGraph(graph, filename);
+		return graph;
+	}
+	
+	public static void inputGraph(Graph graph, String filename) throws IOException {
+		try (FileChannel channel = FileChannel.open(new File(filename).toPath(), StandardOpenOption.READ)) {
+			
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(filename + " is too large to map");
+			
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			inputGraph(graph, buffer);
+		}
+	}
+	
+	// reads from the buffer's position to its limit
+	public static void inputGraph(Graph graph, ByteBuffer buffer) throws IOException {
+		new BinaryGraphReader(graph).read(buffer.duplicate());
+	}
+	
+	protected void read(ByteBuffer buffer) throws IOException {
+		
+		if (buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+			throw new IOException("Not a binary graph file");
+		
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported binary graph version " + version);
+		
+		int limit = buffer.limit();
+		
+		while (buffer.hasRemaining()) {
+			
+			byte type = getByte(buffer);
+			int length = getInt(buffer);
+			
+			if (length < 0 || length > limit - buffer.position())
+				throw new IOException("Truncated record at " + (buffer.position() - 5));
+			
+			int end = buffer.position() + length;
+			
+			// fields can't run into the next record
+			buffer.limit(end);
+			
+			switch (type) {
+				case RECORD_STRING:
+					strings.add(readString(buffer));
+					break;
+					
+				case RECORD_VERTEX:
+					readVertex(buffer);
+					break;
+					
+				case RECORD_EDGE:
+					readEdge(buffer);
+					break;
+					
+				default:
+					// unknown record, skip it
+					break;
+			}
+			
+			buffer.limit(limit);
+			buffer.position(end);
+		}
+	}
+	
+	protected void readVertex(ByteBuffer buffer) throws IOException {
+		int id = getInt(buffer);
+		
+		Vertex vertex = graph.addVertex(string(id));
+		
+		while (vertices.size() <= id)
+			vertices.add(null);
+		vertices.set(id, vertex);
+		
+		readProperties(buffer, vertex);
+	}
+	
+	protected void readEdge(ByteBuffer buffer) throws IOException {
+		String id = readString(buffer);
+		Vertex out = vertex(getInt(buffer));
+		Vertex in = vertex(getInt(buffer));
+		String label = string(getInt(buffer));
+		
+		Edge edge = graph.addEdge(id, out, in, label);
+		readProperties(buffer, edge);
+	}
+	
+	protected void readProperties(ByteBuffer buffer, Element element) throws IOException {
+		
+		int count = getInt(buffer);
+		
+		for (int i = 0; i < count; i++) {
+			String key = string(getInt(buffer));
+			byte tag = getByte(buffer);
+			
+			Object value;
+			switch (tag) {
+				case VALUE_STRING_REF: value = string(getInt(buffer)); break;
+				case VALUE_STRING: value = readString(buffer); break;
+				case VALUE_BOOLEAN: value = getByte(buffer) != 0; break;
+				case VALUE_INT: value = getInt(buffer); break;
+				case VALUE_LONG: require(buffer, 8); value = buffer.getLong(); break;
+				case VALUE_FLOAT: require(buffer, 4); value = buffer.getFloat(); break;
+				case VALUE_DOUBLE: require(buffer, 8); value = buffer.getDouble(); break;
+				default:
+					throw new IOException("Unknown value type " + tag + " for " + key);
+			}
+			
+			element.setProperty(key, value);
+		}
+	}
+	
+	protected String string(int id) throws IOException {
+		if (id < 0 || id >= strings.size())
+			throw new IOException("Invalid string reference " + id);
+		return strings.get(id);
+	}
+	
+	protected Vertex vertex(int id) throws IOException {
+		Vertex vertex = id < vertices.size() ? vertices.get(id) : null;
+		if (vertex == null)
+			throw new IOException("Edge refers to unknown vertex " + string(id));
+		return vertex;
+	}
+	
+	protected String readString(ByteBuffer buffer) throws IOException {
+		int length = getInt(buffer);
+		if (length < 0)
+			throw new IOException("Invalid string length " + length + " at " + (buffer.position() - 4));
+		
+		require(buffer, length);
+		if (scratch.length < length)
+			scratch = new byte[Math.max(length, scratch.length*2)];
+		
+		buffer.get(scratch, 0, length);
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+	
+	// a malformed file throws IOException, never BufferUnderflowException
+	protected static void require(ByteBuffer buffer, int bytes) throws IOException {
+		if (buffer.remaining() < bytes)
+			throw new IOException("Truncated record at " + buffer.position());
+	}
+	
+	protected static byte getByte(ByteBuffer buffer) throws IOException {
+		require(buffer, 1);
+		return buffer.get();
+	}
+	
+	protected static int getInt(ByteBuffer buffer) throws IOException {
+		require(buffer, 4);
+		return buffer.getInt();
+	}
+}
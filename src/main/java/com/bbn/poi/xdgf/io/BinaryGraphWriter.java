@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.io;
+
+import static com.bbn.poi.xdgf.io.BinaryGraphFormat.*;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * Writes a graph in the compact binary format described in
+ * BinaryGraphFormat. Read it back with BinaryGraphReader.
+ */
+public class BinaryGraphWriter {
+
+	// properties set by the page parser that have few distinct values
+	public static final Collection<String> DEFAULT_INTERNED_KEYS = Arrays.asList(
+			"pageName", "symbolName", "type", "group", "groupId", "secondaryGroup", "textRefWhy");
+	
+	protected final Graph graph;
+	protected Set<String> internedKeys = new HashSet<>(DEFAULT_INTERNED_KEYS);
+	
+	protected long vertexCount = 0;
+	protected long edgeCount = 0;
+	
+	// state for the current write
+	protected DataOutputStream out;
+	protected final Map<String, Integer> strings = new HashMap<>();
+	protected final ByteArrayOutputStream recordBytes = new ByteArrayOutputStream(256);
+	protected final DataOutputStream record = new DataOutputStream(recordBytes);
+	
+	public BinaryGraphWriter(Graph graph) {
+		this.graph = graph;
+	}
+	
+	// string values of these properties are written to the string table
+	// instead of inline
+	public void setInternedKeys(Collection<String> internedKeys) {
+		this.internedKeys = new HashSet<>(internedKeys);
+	}
+	
+	public long getVertexCount() {
+		return vertexCount;
+	}
+	
+	public long getEdgeCount() {
+		return edgeCount;
+	}
+	
+	public void outputGraph(String filename) throws IOException {
+		try (OutputStream out = new FileOutputStream(filename)) {
+			outputGraph(out);
+		}
+	}
+	
+	public void outputGraph(WritableByteChannel channel) throws IOException {
+		outputGraph(Channels.newOutputStream(channel));
+	}
+	
+	// the stream is flushed, but not closed
+	public void outputGraph(OutputStream os) throws IOException {
+		
+		out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+		strings.clear();
+		vertexCount = 0;
+		edgeCount = 0;
+		
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			
+			for (Vertex vertex: graph.getVertices()) {
+				
+				int id = intern(vertex.getId().toString());
+				
+				recordBytes.reset();
+				record.writeInt(id);
+				writeProperties(vertex);
+				writeRecord(RECORD_VERTEX);
+				
+				vertexCount += 1;
+			}
+			
+			for (Edge edge: graph.getEdges()) {
+				
+				int outId = intern(edge.getVertex(Direction.OUT).getId().toString());
+				int inId = intern(edge.getVertex(Direction.IN).getId().toString());
+				int label = intern(edge.getLabel());
+				
+				recordBytes.reset();
+				writeString(record, edge.getId().toString());
+				record.writeInt(outId);
+				record.writeInt(inId);
+				record.writeInt(label);
+				writeProperties(edge);
+				writeRecord(RECORD_EDGE);
+				
+				edgeCount += 1;
+			}
+			
+			out.flush();
+			
+		} finally {
+			out = null;
+			strings.clear();
+		}
+	}
+	
+	// string table entries are written directly to the output, so they
+	// always come before the record that refers to them
+	protected int intern(String s) throws IOException {
+		Integer id = strings.get(s);
+		if (id == null) {
+			id = strings.size();
+			strings.put(s, id);
+			
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			out.writeByte(RECORD_STRING);
+			out.writeInt(4 + bytes.length);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+		
+		return id;
+	}
+	
+	protected void writeProperties(Element element) throws IOException {
+		
+		int count = 0;
+		for (String key: element.getPropertyKeys()) {
+			if (element.getProperty(key) != null)
+				count += 1;
+		}
+		
+		record.writeInt(count);
+		
+		for (String key: element.getPropertyKeys()) {
+			Object value = element.getProperty(key);
+			if (value == null)
+				continue;
+			
+			record.writeInt(intern(key));
+			
+			if (value instanceof String) {
+				if (internedKeys.contains(key)) {
+					record.writeByte(VALUE_STRING_REF);
+					record.writeInt(intern((String)value));
+				} else {
+					record.writeByte(VALUE_STRING);
+					writeString(record, (String)value);
+				}
+			} else if (value instanceof Boolean) {
+				record.writeByte(VALUE_BOOLEAN);
+				record.writeBoolean((Boolean)value);
+			} else if (value instanceof Integer) {
+				record.writeByte(VALUE_INT);
+				record.writeInt((Integer)value);
+			} else if (value instanceof Long) {
+				record.writeByte(VALUE_LONG);
+				record.writeLong((Long)value);
+			} else if (value instanceof Float) {
+				record.writeByte(VALUE_FLOAT);
+				record.writeFloat((Float)value);
+			} else if (value instanceof Double) {
+				record.writeByte(VALUE_DOUBLE);
+				record.writeDouble((Double)value);
+			} else {
+				// same as what GraphML would do with it
+				record.writeByte(VALUE_STRING);
+				writeString(record, value.toString());
+			}
+		}
+	}
+	
+	protected void writeRecord(byte type) throws IOException {
+		record.flush();
+		out.writeByte(type);
+		out.writeInt(recordBytes.size());
+		recordBytes.writeTo(out);
+	}
+	
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+}
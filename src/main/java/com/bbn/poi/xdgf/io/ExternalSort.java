@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts key/value string records by key without holding all of them in
+ * memory. Records are collected in chunks; full chunks are sorted and
+ * spilled to temporary files, which are merged when the values are
+ * written out. If everything fits in one chunk, nothing touches the disk.
+ */
+class ExternalSort implements Closeable {
+
+	static final Comparator<String[]> BY_KEY = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] o1, String[] o2) {
+			return o1[0].compareTo(o2[0]);
+		}
+	};
+	
+	// one spilled chunk being merged
+	static class Run implements Closeable {
+		
+		final DataInputStream in;
+		String[] current = null;
+		
+		Run(File file) throws IOException {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+			advance();
+		}
+		
+		void advance() throws IOException {
+			try {
+				String key = readString(in);
+				current = new String[] {key, readString(in)};
+			} catch (EOFException e) {
+				current = null;
+			}
+		}
+		
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+	
+	final int chunkSize;
+	final File tempDir;
+	
+	final List<String[]> chunk = new ArrayList<>();
+	final List<File> spills = new ArrayList<>();
+	
+	// tempDir may be null to use the system default
+	ExternalSort(int chunkSize, File tempDir) {
+		if (chunkSize < 1)
+			throw new IllegalArgumentException("chunkSize must be positive");
+		
+		this.chunkSize = chunkSize;
+		this.tempDir = tempDir;
+	}
+	
+	void add(String key, String value) throws IOException {
+		chunk.add(new String[] {key, value});
+		if (chunk.size() >= chunkSize)
+			spill();
+	}
+	
+	// writes all of the values in key order
+	void writeTo(Writer out) throws IOException {
+		
+		Collections.sort(chunk, BY_KEY);
+		
+		if (spills.isEmpty()) {
+			for (String[] record: chunk)
+				out.write(record[1]);
+			
+			chunk.clear();
+			return;
+		}
+		
+		if (!chunk.isEmpty())
+			spill();
+		
+		List<Run> runs = new ArrayList<>();
+		PriorityQueue<Run> queue = new PriorityQueue<>(spills.size(), new Comparator<Run>() {
+			@Override
+			public int compare(Run o1, Run o2) {
+				return BY_KEY.compare(o1.current, o2.current);
+			}
+		});
+		
+		try {
+			for (File spill: spills) {
+				Run run = new Run(spill);
+				runs.add(run);
+				if (run.current != null)
+					queue.add(run);
+			}
+			
+			while (!queue.isEmpty()) {
+				Run run = queue.poll();
+				out.write(run.current[1]);
+				
+				run.advance();
+				if (run.current != null)
+					queue.add(run);
+			}
+			
+		} finally {
+			for (Run run: runs)
+				run.close();
+		}
+	}
+	
+	protected void spill() throws IOException {
+		
+		Collections.sort(chunk, BY_KEY);
+		
+		File file = File.createTempFile("sort", ".chunk", tempDir);
+		file.deleteOnExit();
+		spills.add(file);
+		
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+			for (String[] record: chunk) {
+				writeString(out, record[0]);
+				writeString(out, record[1]);
+			}
+		}
+		
+		chunk.clear();
+	}
+	
+	// removes any spilled chunks
+	@Override
+	public void close() {
+		for (File spill: spills)
+			spill.delete();
+		
+		spills.clear();
+		chunk.clear();
+	}
+	
+	// DataOutputStream.writeUTF can't handle strings longer than 64k
+	static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+	
+	static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,310 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.io;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+
+/**
+ * Writes a graph as GraphML while iterating over it, without building the
+ * document or sorting the elements in memory. The output is compatible
+ * with what Blueprints' GraphMLWriter produces.
+ *
+ * GraphML needs the keys declared before the graph, so unless the key
+ * types are given with setKeyTypes the properties are scanned first. When
+ * sorted output is requested elements are ordered by id using an external
+ * sort, which gives the same ordering as GraphMLWriter's normalization.
+ */
+public class GraphMLStreamWriter {
+
+	public static final int DEFAULT_SORT_CHUNK_SIZE = 50000;
+	
+	protected final Graph graph;
+	
+	protected String edgeLabelKey = null;
+	
+	protected boolean sorted = false;
+	protected int sortChunkSize = DEFAULT_SORT_CHUNK_SIZE;
+	protected File tempDir = null;
+	
+	// property name -> graphml type, null if they should be scanned
+	protected Map<String, String> vertexKeyTypes = null;
+	protected Map<String, String> edgeKeyTypes = null;
+	
+	// counts from the last write
+	protected long vertexCount = 0;
+	protected long edgeCount = 0;
+	
+	protected final StringBuilder sb = new StringBuilder(256);
+	
+	public GraphMLStreamWriter(Graph graph) {
+		this.graph = graph;
+	}
+	
+	// if set, edge labels are written as data with this key instead of as
+	// an attribute of the edge
+	public void setEdgeLabelKey(String edgeLabelKey) {
+		this.edgeLabelKey = edgeLabelKey;
+	}
+	
+	// if true, vertices and edges are written in order of their ids
+	public void setSorted(boolean sorted) {
+		this.sorted = sorted;
+	}
+	
+	// number of elements that are sorted in memory before spilling to disk
+	public void setSortChunkSize(int sortChunkSize) {
+		this.sortChunkSize = sortChunkSize;
+	}
+	
+	public void setTempDir(File tempDir) {
+		this.tempDir = tempDir;
+	}
+	
+	// declares the keys up front, so the graph only needs to be iterated
+	// once. Types are graphml types (string, boolean, int, long, float,
+	// double). Properties that aren't declared are not written.
+	public void setKeyTypes(Map<String, String> vertexKeyTypes, Map<String, String> edgeKeyTypes) {
+		this.vertexKeyTypes = vertexKeyTypes;
+		this.edgeKeyTypes = edgeKeyTypes;
+	}
+	
+	public long getVertexCount() {
+		return vertexCount;
+	}
+	
+	public long getEdgeCount() {
+		return edgeCount;
+	}
+	
+	public void outputGraph(String filename) throws IOException {
+		try (OutputStream out = new FileOutputStream(filename)) {
+			outputGraph(out);
+		}
+	}
+	
+	public void outputGraph(WritableByteChannel channel) throws IOException {
+		outputGraph(Channels.newOutputStream(channel));
+	}
+	
+	// the stream is flushed, but not closed
+	public void outputGraph(OutputStream out) throws IOException {
+		
+		Map<String, String> vertexKeys = vertexKeyTypes;
+		Map<String, String> edgeKeys = edgeKeyTypes;
+		
+		if (vertexKeys == null || edgeKeys == null) {
+			vertexKeys = new TreeMap<>();
+			edgeKeys = new TreeMap<>();
+			
+			for (Vertex vertex: graph.getVertices())
+				scanKeys(vertex, vertexKeys);
+			
+			for (Edge edge: graph.getEdges())
+				scanKeys(edge, edgeKeys);
+		}
+		
+		if (edgeLabelKey != null && !edgeKeys.containsKey(edgeLabelKey)) {
+			edgeKeys = new TreeMap<>(edgeKeys);
+			edgeKeys.put(edgeLabelKey, "string");
+		}
+		
+		vertexCount = 0;
+		edgeCount = 0;
+		
+		Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+		
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\" " +
+					 "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" " +
+					 "xsi:schemaLocation=\"http://graphml.graphdrawing.org/xmlns http://graphml.graphdrawing.org/xmlns/1.1/graphml.xsd\">\n");
+		
+		writeKeys(writer, vertexKeys, "node");
+		writeKeys(writer, edgeKeys, "edge");
+		
+		writer.write("<graph id=\"G\" edgedefault=\"directed\">\n");
+		
+		if (sorted) {
+			try (ExternalSort sort = new ExternalSort(sortChunkSize, tempDir)) {
+				for (Vertex vertex: graph.getVertices()) {
+					sort.add(vertex.getId().toString(), vertexXml(vertex, vertexKeys));
+					vertexCount += 1;
+				}
+				sort.writeTo(writer);
+			}
+			
+			try (ExternalSort sort = new ExternalSort(sortChunkSize, tempDir)) {
+				for (Edge edge: graph.getEdges()) {
+					sort.add(edge.getId().toString(), edgeXml(edge, edgeKeys));
+					edgeCount += 1;
+				}
+				sort.writeTo(writer);
+			}
+			
+		} else {
+			for (Vertex vertex: graph.getVertices()) {
+				writer.write(vertexXml(vertex, vertexKeys));
+				vertexCount += 1;
+			}
+			
+			for (Edge edge: graph.getEdges()) {
+				writer.write(edgeXml(edge, edgeKeys));
+				edgeCount += 1;
+			}
+		}
+		
+		writer.write("</graph>\n</graphml>\n");
+		writer.flush();
+	}
+	
+	protected void scanKeys(Element element, Map<String, String> keys) {
+		for (String key: element.getPropertyKeys()) {
+			if (!keys.containsKey(key))
+				keys.put(key, typeOf(element.getProperty(key)));
+		}
+	}
+	
+	protected void writeKeys(Writer writer, Map<String, String> keys, String kind) throws IOException {
+		for (Map.Entry<String, String> entry: keys.entrySet()) {
+			sb.setLength(0);
+			sb.append("<key id=\"");
+			escape(entry.getKey(), sb);
+			sb.append("\" for=\"").append(kind).append("\" attr.name=\"");
+			escape(entry.getKey(), sb);
+			sb.append("\" attr.type=\"").append(entry.getValue()).append("\"/>\n");
+			writer.append(sb);
+		}
+	}
+	
+	protected String vertexXml(Vertex vertex, Map<String, String> keys) {
+		sb.setLength(0);
+		sb.append("<node id=\"");
+		escape(vertex.getId().toString(), sb);
+		sb.append("\">");
+		data(vertex, keys);
+		sb.append("</node>\n");
+		return sb.toString();
+	}
+	
+	protected String edgeXml(Edge edge, Map<String, String> keys) {
+		sb.setLength(0);
+		sb.append("<edge id=\"");
+		escape(edge.getId().toString(), sb);
+		sb.append("\" source=\"");
+		escape(edge.getVertex(Direction.OUT).getId().toString(), sb);
+		sb.append("\" target=\"");
+		escape(edge.getVertex(Direction.IN).getId().toString(), sb);
+		
+		if (edgeLabelKey == null) {
+			sb.append("\" label=\"");
+			escape(edge.getLabel(), sb);
+			sb.append("\">");
+		} else {
+			sb.append("\">");
+			appendData(edgeLabelKey, edge.getLabel());
+		}
+		
+		data(edge, keys);
+		sb.append("</edge>\n");
+		return sb.toString();
+	}
+	
+	protected void data(Element element, Map<String, String> keys) {
+		
+		Collection<String> propertyKeys = element.getPropertyKeys();
+		if (sorted) {
+			List<String> ordered = new ArrayList<>(propertyKeys);
+			Collections.sort(ordered);
+			propertyKeys = ordered;
+		}
+		
+		for (String key: propertyKeys) {
+			if (!keys.containsKey(key))
+				continue;
+			
+			// the label is already written for edges
+			if (element instanceof Edge && key.equals(edgeLabelKey))
+				continue;
+			
+			appendData(key, element.getProperty(key));
+		}
+	}
+	
+	protected void appendData(String key, Object value) {
+		if (value == null)
+			return;
+		
+		sb.append("<data key=\"");
+		escape(key, sb);
+		sb.append("\">");
+		escape(value.toString(), sb);
+		sb.append("</data>");
+	}
+	
+	public static String typeOf(Object value) {
+		if (value instanceof Boolean)
+			return "boolean";
+		if (value instanceof Integer)
+			return "int";
+		if (value instanceof Long)
+			return "long";
+		if (value instanceof Float)
+			return "float";
+		if (value instanceof Double)
+			return "double";
+		return "string";
+	}
+	
+	// escapes text for use in attributes and element content, dropping
+	// characters that XML 1.0 can't represent
+	public static void escape(String s, StringBuilder out) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '&': out.append("&amp;"); break;
+				case '<': out.append("&lt;"); break;
+				case '>': out.append("&gt;"); break;
+				case '"': out.append("&quot;"); break;
+				case '\n': out.append("&#10;"); break;
+				case '\r': out.append("&#13;"); break;
+				case '\t': out.append("&#9;"); break;
+				default:
+					if (c >= 0x20 && c != 0xFFFE && c != 0xFFFF)
+						out.append(c);
+			}
+		}
+	}
+}
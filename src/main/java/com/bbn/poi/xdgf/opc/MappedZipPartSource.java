@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.opc;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads parts from a memory mapped zip file. Only the central directory is
+ * read up front, and a part is only inflated when it is opened, so the
+ * heap doesn't grow with the size of the file. Media and thumbnails are
+ * left out of the index entirely, since the parser never needs them.
+ * 
+ * Parts can be opened from multiple threads at once. Files must be
+ * smaller than 2GB.
+ */
+public class MappedZipPartSource implements PartSource {
+
+	static final int EOCD_SIG = 0x06054b50;
+	static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+	static final int ZIP64_EOCD_SIG = 0x06064b50;
+	static final int CEN_SIG = 0x02014b50;
+	static final int LOC_SIG = 0x04034b50;
+	
+	static final int STORED = 0;
+	static final int DEFLATED = 8;
+	
+	protected static class Entry {
+		final int method;
+		final long compressedSize;
+		final long size;
+		final long headerOffset;
+		
+		Entry(int method, long compressedSize, long size, long headerOffset) {
+			this.method = method;
+			this.compressedSize = compressedSize;
+			this.size = size;
+			this.headerOffset = headerOffset;
+		}
+	}
+	
+	protected final String name;
+	protected MappedByteBuffer buffer;
+	protected final Map<String, Entry> entries = new HashMap<>();
+	
+	public MappedZipPartSource(File file) throws IOException {
+		
+		name = file.getPath();
+		
+		try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+			 FileChannel channel = raf.getChannel()) {
+			
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException(name + " is too large to map");
+			
+			// the mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		readCentralDirectory();
+	}
+	
+	// parts that are never indexed
+	public static boolean isSkipped(String partName) {
+		return partName.endsWith("/") ||
+			   partName.startsWith("visio/media/") || 
+			   partName.startsWith("docProps/thumbnail");
+	}
+	
+	@Override
+	public boolean hasPart(String partName) {
+		return entries.containsKey(partName);
+	}
+	
+	@Override
+	public InputStream getPart(String partName) throws IOException {
+		
+		Entry entry = entries.get(partName);
+		if (entry == null)
+			throw new FileNotFoundException(partName + " not found in " + name);
+		
+		ByteBuffer buf = buffer();
+		if (buf.getInt((int)entry.headerOffset) != LOC_SIG)
+			throw new ZipException("Bad local header for " + partName);
+		
+		int nameLength = buf.getShort((int)entry.headerOffset + 26) & 0xffff;
+		int extraLength = buf.getShort((int)entry.headerOffset + 28) & 0xffff;
+		long start = entry.headerOffset + 30 + nameLength + extraLength;
+		
+		if (start + entry.compressedSize > buf.limit())
+			throw new ZipException("Truncated data for " + partName);
+		
+		buf.position((int)start);
+		buf.limit((int)(start + entry.compressedSize));
+		ByteBuffer data = buf.slice();
+		
+		switch (entry.method) {
+			case STORED:
+				return new ByteBufferInputStream(data, false);
+				
+			case DEFLATED:
+				// the inflater is ours, so InflaterInputStream won't end it
+				final Inflater inflater = new Inflater(true);
+				return new InflaterInputStream(new ByteBufferInputStream(data, true), inflater, 
+											   (int)Math.max(512, Math.min(entry.compressedSize, 1 << 16))) {
+					@Override
+					public void close() throws IOException {
+						super.close();
+						inflater.end();
+					}
+				};
+				
+			default:
+				throw new ZipException("Unsupported compression method " + entry.method + " for " + partName);
+		}
+	}
+	
+	// the mapping is released when the buffer is garbage collected
+	@Override
+	public void close() {
+		buffer = null;
+		entries.clear();
+	}
+	
+	protected ByteBuffer buffer() throws IOException {
+		MappedByteBuffer b = buffer;
+		if (b == null)
+			throw new IOException(name + " is closed");
+		
+		ByteBuffer dup = b.duplicate();
+		dup.order(ByteOrder.LITTLE_ENDIAN);
+		return dup;
+	}
+	
+	protected void readCentralDirectory() throws IOException {
+		
+		ByteBuffer buf = buffer();
+		int length = buf.limit();
+		
+		// the end record is followed by a comment of up to 64k
+		int eocd = -1;
+		for (int i = length - 22; i >= Math.max(0, length - 22 - 0xffff); i--) {
+			if (buf.getInt(i) == EOCD_SIG) {
+				eocd = i;
+				break;
+			}
+		}
+		
+		if (eocd == -1)
+			throw new ZipException(name + " is not a zip file");
+		
+		long count = buf.getShort(eocd + 10) & 0xffff;
+		long offset = buf.getInt(eocd + 16) & 0xffffffffL;
+		
+		// zip64 end record
+		int locator = eocd - 20;
+		if (locator >= 0 && buf.getInt(locator) == ZIP64_LOCATOR_SIG) {
+			long zip64 = buf.getLong(locator + 8);
+			if (zip64 < 0 || zip64 > length - 56 || buf.getInt((int)zip64) != ZIP64_EOCD_SIG)
+				throw new ZipException("Bad zip64 end record in " + name);
+			
+			count = buf.getLong((int)zip64 + 32);
+			offset = buf.getLong((int)zip64 + 48);
+		}
+		
+		int pos = (int)offset;
+		for (long i = 0; i < count; i++) {
+			
+			if (pos + 46 > length || buf.getInt(pos) != CEN_SIG)
+				throw new ZipException("Bad central directory in " + name);
+			
+			int method = buf.getShort(pos + 10) & 0xffff;
+			long compressedSize = buf.getInt(pos + 20) & 0xffffffffL;
+			long size = buf.getInt(pos + 24) & 0xffffffffL;
+			int nameLength = buf.getShort(pos + 28) & 0xffff;
+			int extraLength = buf.getShort(pos + 30) & 0xffff;
+			int commentLength = buf.getShort(pos + 32) & 0xffff;
+			long headerOffset = buf.getInt(pos + 42) & 0xffffffffL;
+			
+			byte[] nameBytes = new byte[nameLength];
+			buf.position(pos + 46);
+			buf.get(nameBytes);
+			String partName = new String(nameBytes, StandardCharsets.UTF_8);
+			
+			// zip64 sizes and offset, in that order, only if they overflowed
+			int extra = pos + 46 + nameLength;
+			int extraEnd = extra + extraLength;
+			while (extra + 4 <= extraEnd) {
+				int id = buf.getShort(extra) & 0xffff;
+				int size64 = buf.getShort(extra + 2) & 0xffff;
+				
+				if (id == 0x0001) {
+					int p = extra + 4;
+					if (size == 0xffffffffL) {
+						size = buf.getLong(p);
+						p += 8;
+					}
+					if (compressedSize == 0xffffffffL) {
+						compressedSize = buf.getLong(p);
+						p += 8;
+					}
+					if (headerOffset == 0xffffffffL) {
+						headerOffset = buf.getLong(p);
+					}
+				}
+				
+				extra += 4 + size64;
+			}
+			
+			if (!isSkipped(partName))
+				entries.put(partName, new Entry(method, compressedSize, size, headerOffset));
+			
+			pos += 46 + nameLength + extraLength + commentLength;
+		}
+	}
+	
+	// reads a slice of the mapped file. Inflater needs an extra byte
+	// after the end of a raw deflate stream in some cases, like ZipFile
+	// gives it
+	protected static class ByteBufferInputStream extends InputStream {
+		
+		protected final ByteBuffer data;
+		protected boolean padding;
+		
+		ByteBufferInputStream(ByteBuffer data, boolean padding) {
+			this.data = data;
+			this.padding = padding;
+		}
+		
+		@Override
+		public int read() {
+			if (data.hasRemaining())
+				return data.get() & 0xff;
+			
+			if (padding) {
+				padding = false;
+				return 0;
+			}
+			
+			return -1;
+		}
+		
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0)
+				return 0;
+			
+			if (!data.hasRemaining()) {
+				if (padding) {
+					padding = false;
+					b[off] = 0;
+					return 1;
+				}
+				return -1;
+			}
+			
+			int n = Math.min(len, data.remaining());
+			data.get(b, off, n);
+			return n;
+		}
+		
+		@Override
+		public int available() {
+			return data.remaining() + (padding ? 1 : 0);
+		}
+	}
+}
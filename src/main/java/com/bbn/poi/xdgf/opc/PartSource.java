@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.opc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Raw access to the parts of an OPC package. Part names are given without
+ * a leading slash, for example "visio/pages/page1.xml".
+ */
+public interface PartSource extends Closeable {
+
+	public boolean hasPart(String name);
+	
+	// throws FileNotFoundException if the part doesn't exist
+	public InputStream getPart(String name) throws IOException;
+	
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.opc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.POIXMLException;
+
+/**
+ * Finds the document, master and page parts of a vsdx package by following
+ * its relationships, and hashes the parts that a page's graph depends on.
+ * Nothing is parsed beyond the relationships and the page list.
+ */
+public class VsdxParts {
+
+	public static final String R_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	
+	// bump this if the parser output changes in a way that makes old
+	// cached results wrong
+	public static final String KEY_VERSION = "2";
+	
+	public static class Relationship {
+		public final String id;
+		public final String type;
+		public final String target;		// resolved part name
+		
+		public Relationship(String id, String type, String target) {
+			this.id = id;
+			this.type = type;
+			this.target = target;
+		}
+		
+		// the last path component of the type, like "page" or "master"
+		public String shortType() {
+			return type.substring(type.lastIndexOf('/') + 1);
+		}
+	}
+	
+	public static class PagePart {
+		public final long id;
+		public final String name;
+		public final String partName;
+		
+		// masters used by the page
+		public final List<String> masterParts = new ArrayList<>();
+		
+		public PagePart(long id, String name, String partName) {
+			this.id = id;
+			this.name = name;
+			this.partName = partName;
+		}
+		
+		@Override
+		public String toString() {
+			return "[PagePart " + id + " " + partName + "]";
+		}
+	}
+	
+	protected final PartSource parts;
+	
+	protected String documentPart = null;
+	protected String mastersPart = null;
+	protected String pagesPart = null;
+	protected final List<PagePart> pages = new ArrayList<>();
+	
+	// part name -> hash of its contents, so that parts shared by pages
+	// are only read once
+	protected final Map<String, byte[]> partHashes = new HashMap<>();
+	
+	public VsdxParts(PartSource parts) throws IOException {
+		this.parts = parts;
+		
+		for (Relationship rel: readRelationships("")) {
+			if (rel.shortType().equals("document"))
+				documentPart = rel.target;
+		}
+		
+		if (documentPart == null)
+			throw new POIXMLException("Not a Visio document, no document relationship found");
+		
+		for (Relationship rel: readRelationships(documentPart)) {
+			if (rel.shortType().equals("pages"))
+				pagesPart = rel.target;
+			else if (rel.shortType().equals("masters"))
+				mastersPart = rel.target;
+		}
+		
+		if (pagesPart == null)
+			throw new POIXMLException("Visio document lacks pages section");
+		
+		readPages();
+	}
+	
+	public PartSource getPartSource() {
+		return parts;
+	}
+	
+	public String getDocumentPart() {
+		return documentPart;
+	}
+	
+	// null if the document doesn't have any masters
+	public String getMastersPart() {
+		return mastersPart;
+	}
+	
+	public String getPagesPart() {
+		return pagesPart;
+	}
+	
+	// in document order
+	public List<PagePart> getPages() {
+		return Collections.unmodifiableList(pages);
+	}
+	
+	// a hash of everything that the page's graph is derived from: the page
+	// itself, the masters it uses, the document's styles and the page's
+	// id and name. salt should describe any other configuration.
+	public String pageKey(PagePart page, String salt) throws IOException {
+		
+		MessageDigest digest = createDigest();
+		
+		update(digest, KEY_VERSION);
+		update(digest, salt);
+		update(digest, Long.toString(page.id));
+		update(digest, page.name);
+		
+		hashPart(digest, documentPart);
+		hashPart(digest, page.partName);
+		hashPart(digest, relsName(page.partName));
+		
+		if (mastersPart != null)
+			hashPart(digest, mastersPart);
+		
+		for (String master: page.masterParts)
+			hashPart(digest, master);
+		
+		StringBuilder sb = new StringBuilder();
+		for (byte b: digest.digest())
+			sb.append(String.format("%02x", b & 0xff));
+		
+		return sb.toString();
+	}
+	
+	//
+	// Relationships
+	//
+	
+	// relationships of the part, or of the package if partName is ""
+	public List<Relationship> readRelationships(String partName) throws IOException {
+		
+		List<Relationship> rels = new ArrayList<>();
+		String relsName = relsName(partName);
+		
+		if (!parts.hasPart(relsName))
+			return rels;
+		
+		String base = partName.contains("/") ? partName.substring(0, partName.lastIndexOf('/') + 1) : "";
+		
+		try (InputStream in = parts.getPart(relsName)) {
+			XMLStreamReader reader = createReader(in);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() == XMLStreamConstants.START_ELEMENT &&
+						reader.getLocalName().equals("Relationship")) {
+						
+						// links to things outside the package aren't parts
+						if ("External".equals(reader.getAttributeValue(null, "TargetMode")))
+							continue;
+						
+						rels.add(new Relationship(reader.getAttributeValue(null, "Id"),
+												  reader.getAttributeValue(null, "Type"),
+												  resolve(base, reader.getAttributeValue(null, "Target"))));
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Error reading " + relsName, e);
+		}
+		
+		return rels;
+	}
+	
+	public static String relsName(String partName) {
+		int slash = partName.lastIndexOf('/');
+		return partName.substring(0, slash + 1) + "_rels/" + partName.substring(slash + 1) + ".rels";
+	}
+	
+	// resolves a relationship target against the directory of its source
+	public static String resolve(String base, String target) {
+		
+		if (target.startsWith("/"))
+			return target.substring(1);
+		
+		List<String> path = new ArrayList<>();
+		for (String s: (base + target).split("/")) {
+			if (s.isEmpty() || s.equals("."))
+				continue;
+			
+			if (s.equals("..")) {
+				if (!path.isEmpty())
+					path.remove(path.size() - 1);
+			} else {
+				path.add(s);
+			}
+		}
+		
+		StringBuilder sb = new StringBuilder();
+		for (String s: path) {
+			if (sb.length() != 0)
+				sb.append('/');
+			sb.append(s);
+		}
+		
+		return sb.toString();
+	}
+	
+	//
+	// Internals
+	//
+	
+	protected void readPages() throws IOException {
+		
+		Map<String, String> targets = new LinkedHashMap<>();
+		for (Relationship rel: readRelationships(pagesPart))
+			targets.put(rel.id, rel.target);
+		
+		try (InputStream in = parts.getPart(pagesPart)) {
+			XMLStreamReader reader = createReader(in);
+			try {
+				String id = null;
+				String name = null;
+				
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT)
+						continue;
+					
+					String element = reader.getLocalName();
+					
+					if (element.equals("Page")) {
+						id = reader.getAttributeValue(null, "ID");
+						name = reader.getAttributeValue(null, "Name");
+						
+					} else if (element.equals("Rel") && id != null) {
+						String relId = reader.getAttributeValue(R_NS, "id");
+						String target = targets.get(relId);
+						if (target == null)
+							throw new POIXMLException("PageSettings relationship for " + relId + " not found");
+						
+						pages.add(new PagePart(Long.parseLong(id), name, target));
+						id = null;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Error reading " + pagesPart, e);
+		}
+		
+		for (PagePart page: pages) {
+			for (Relationship rel: readRelationships(page.partName)) {
+				if (rel.shortType().equals("master"))
+					page.masterParts.add(rel.target);
+			}
+			
+			Collections.sort(page.masterParts);
+		}
+	}
+	
+	// adds the name and the hash of the part's contents to the digest
+	protected void hashPart(MessageDigest digest, String name) throws IOException {
+		
+		update(digest, name);
+		
+		byte[] hash = partHashes.get(name);
+		if (hash == null) {
+			hash = readPartHash(name);
+			partHashes.put(name, hash);
+		}
+		
+		digest.update((byte)(hash.length == 0 ? 0 : 1));
+		digest.update(hash);
+	}
+	
+	// an empty array if the part doesn't exist
+	protected byte[] readPartHash(String name) throws IOException {
+		
+		if (!parts.hasPart(name))
+			return new byte[0];
+		
+		MessageDigest digest = createDigest();
+		
+		byte[] buffer = new byte[1 << 14];
+		try (InputStream in = parts.getPart(name)) {
+			int n;
+			while ((n = in.read(buffer)) != -1)
+				digest.update(buffer, 0, n);
+		}
+		
+		return digest.digest();
+	}
+	
+	protected static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	// length prefixed, so adjacent strings can't run together
+	protected static void update(MessageDigest digest, String s) {
+		byte[] bytes = (s == null ? "" : s).getBytes(StandardCharsets.UTF_8);
+		int n = bytes.length;
+		digest.update(new byte[] {(byte)(n >>> 24), (byte)(n >>> 16), (byte)(n >>> 8), (byte)n});
+		digest.update(bytes);
+	}
+	
+	protected static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory.createXMLStreamReader(in);
+	}
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.opc;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Reads parts straight out of the zip file, without going through POI
+ */
+public class ZipPartSource implements PartSource {
+
+	protected final ZipFile zip;
+	
+	public ZipPartSource(File file) throws IOException {
+		zip = new ZipFile(file);
+	}
+	
+	@Override
+	public boolean hasPart(String name) {
+		return zip.getEntry(name) != null;
+	}
+	
+	@Override
+	public InputStream getPart(String name) throws IOException {
+		ZipEntry entry = zip.getEntry(name);
+		if (entry == null)
+			throw new FileNotFoundException(name + " not found in " + zip.getName());
+		
+		return zip.getInputStream(entry);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		zip.close();
+	}
+}
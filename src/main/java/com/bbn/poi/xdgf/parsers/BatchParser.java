@@ -0,0 +1,324 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Iterables;
+import com.tinkerpop.blueprints.Graph;
+
+/**
+ * Parses many vsdx files at once. Documents and their pages all run on one
+ * work-stealing pool, and only a limited number of documents are open at
+ * a time so that memory stays bounded.
+ * 
+ * Usage: BatchParser [options] -o outdir (file|dir)...
+ * 
+ *   -o dir          where graphs are written
+ *   -j n            threads (default: number of processors)
+ *   --in-flight n   documents open at once (default: threads)
+ *   --list file     also parse the files listed in file, one per line
+ *   --per-page      write one graph per page instead of per document
+ *   --format fmt    graphml (default) or vgraph
+ *   --png dir       render debug PNGs of each page into dir
+ *   --stream        read pages with the streaming parser, which never
+ *                   renders
+ */
+public class BatchParser {
+
+	protected static class DocumentParser extends VisioParser {
+		
+		protected final boolean streaming;
+		
+		// renderer may be null
+		public DocumentParser(File vsdxFile, ExecutorService executor, PageRenderer renderer, boolean streaming) throws IOException {
+			this.renderer = renderer;
+			this.streaming = streaming;
+			
+			load(vsdxFile, executor, null, null);
+		}
+		
+		@Override
+		protected boolean useStreamingParser() {
+			return streaming;
+		}
+	}
+	
+	protected final File outDir;
+	protected int parallelism = Runtime.getRuntime().availableProcessors();
+	protected int inFlight = 0;
+	protected boolean perPage = false;
+	protected String format = "graphml";
+	protected File pngDir = null;
+	protected boolean streaming = false;
+	
+	protected final AtomicLong documents = new AtomicLong();
+	protected final AtomicLong failures = new AtomicLong();
+	protected final AtomicLong pages = new AtomicLong();
+	protected final AtomicLong shapes = new AtomicLong();
+	
+	public BatchParser(File outDir) {
+		this.outDir = outDir;
+	}
+	
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+	
+	// 0 means the same as the parallelism
+	public void setInFlight(int inFlight) {
+		this.inFlight = inFlight;
+	}
+	
+	public void setPerPage(boolean perPage) {
+		this.perPage = perPage;
+	}
+	
+	// graphml or vgraph
+	public void setFormat(String format) {
+		this.format = format;
+	}
+	
+	public void setPngDir(File pngDir) {
+		this.pngDir = pngDir;
+	}
+	
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+	
+	// parses all of the files, and prints a summary when done. Returns the
+	// number of files that failed
+	public long parse(List<File> files) throws InterruptedException {
+		
+		outDir.mkdirs();
+		
+		final ForkJoinPool pool = new ForkJoinPool(parallelism);
+		final int maxInFlight = inFlight > 0 ? inFlight : parallelism;
+		final Semaphore permits = new Semaphore(maxInFlight);
+		final PageRenderer renderer = pngDir == null ? null : new PageRenderer(pngDir);
+		Set<String> names = new HashSet<>();
+		
+		long start = System.nanoTime();
+		
+		try {
+			for (final File file: files) {
+				
+				final String name = outputName(file, names);
+				
+				// blocks once enough documents are open
+				permits.acquire();
+				
+				try {
+					pool.execute(new Runnable() {
+						@Override
+						public void run() {
+							try {
+								parseDocument(file, name, pool, renderer);
+							} finally {
+								permits.release();
+							}
+						}
+					});
+				} catch (RuntimeException e) {
+					permits.release();
+					throw e;
+				}
+			}
+			
+			// the last documents are still submitting their pages to the
+			// pool, so wait for all of them before shutting it down
+			permits.acquire(maxInFlight);
+			
+			pool.shutdown();
+			pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		} finally {
+			pool.shutdownNow();
+		}
+		
+		printSummary(System.nanoTime() - start);
+		
+		// rendering isn't counted in the summary
+		if (renderer != null) {
+			System.out.println("Waiting for PNGs...");
+			renderer.awaitCompletion();
+			try {
+				renderer.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		return failures.get();
+	}
+	
+	protected void parseDocument(File file, String name, ExecutorService pool, PageRenderer renderer) {
+		
+		try {
+			VisioParser parser = new DocumentParser(file, pool, renderer, streaming);
+			Map<Long, Graph> pageGraphs = parser.getPageGraphs();
+			
+			for (Map.Entry<Long, Graph> entry: pageGraphs.entrySet()) {
+				shapes.addAndGet(Iterables.size(entry.getValue().getVertices()));
+				
+				if (perPage)
+					Util.saveGraph(entry.getValue(), new File(outDir, name + "-page" + entry.getKey() + "." + format).getPath());
+			}
+			
+			if (!perPage)
+				Util.saveGraph(parser.getGraph(), new File(outDir, name + "." + format).getPath());
+			
+			pages.addAndGet(pageGraphs.size());
+			documents.incrementAndGet();
+			
+		} catch (Exception e) {
+			failures.incrementAndGet();
+			System.err.println("Error parsing " + file + ": " + e);
+			e.printStackTrace();
+		}
+	}
+	
+	protected void printSummary(long nanos) {
+		
+		double seconds = nanos / 1e9;
+		
+		System.out.println(String.format("Parsed %d documents (%d failed), %d pages, %d shapes in %.2fs",
+				documents.get(), failures.get(), pages.get(), shapes.get(), seconds));
+		
+		System.out.println(String.format("  %.2f documents/s, %.2f pages/s, %.1f shapes/s",
+				documents.get() / seconds, pages.get() / seconds, shapes.get() / seconds));
+	}
+	
+	// the file name without its extension, made unique
+	protected String outputName(File file, Set<String> used) {
+		
+		String base = file.getName();
+		int dot = base.lastIndexOf('.');
+		if (dot > 0)
+			base = base.substring(0, dot);
+		
+		String name = base;
+		for (int i = 2; !used.add(name); i++)
+			name = base + "-" + i;
+		
+		return name;
+	}
+	
+	// directories are searched for vsdx files
+	public static void collectFiles(File file, List<File> files) {
+		
+		if (!file.isDirectory()) {
+			files.add(file);
+			return;
+		}
+		
+		File[] children = file.listFiles();
+		if (children == null)
+			return;
+		
+		List<File> sorted = new ArrayList<>();
+		Collections.addAll(sorted, children);
+		Collections.sort(sorted);
+		
+		for (File child: sorted) {
+			if (child.isDirectory() || child.getName().toLowerCase().endsWith(".vsdx"))
+				collectFiles(child, files);
+		}
+	}
+	
+	public static void main(String[] args) throws Exception {
+		
+		File outDir = null;
+		List<File> files = new ArrayList<>();
+		
+		Integer parallelism = null;
+		int inFlight = 0;
+		boolean perPage = false;
+		boolean streaming = false;
+		String format = "graphml";
+		File pngDir = null;
+		
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "-o":
+						outDir = new File(args[++i]);
+						break;
+					case "-j":
+						parallelism = Integer.parseInt(args[++i]);
+						break;
+					case "--in-flight":
+						inFlight = Integer.parseInt(args[++i]);
+						break;
+					case "--list":
+						for (String line: Files.readAllLines(new File(args[++i]).toPath(), StandardCharsets.UTF_8)) {
+							if (!line.trim().isEmpty())
+								collectFiles(new File(line.trim()), files);
+						}
+						break;
+					case "--per-page":
+						perPage = true;
+						break;
+					case "--format":
+						format = args[++i];
+						break;
+					case "--png":
+						pngDir = new File(args[++i]);
+						break;
+					case "--stream":
+						streaming = true;
+						break;
+					default:
+						collectFiles(new File(args[i]), files);
+						break;
+				}
+			}
+		} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+			outDir = null;
+		}
+		
+		if (outDir == null || files.isEmpty() || !(format.equals("graphml") || format.equals("vgraph"))) {
+			System.err.println("Usage: BatchParser [-j threads] [--in-flight n] [--list file] [--per-page] " + 
+							   "[--format graphml|vgraph] [--png dir] [--stream] -o outdir (file|dir)...");
+			System.exit(1);
+		}
+		
+		BatchParser batch = new BatchParser(outDir);
+		if (parallelism != null)
+			batch.setParallelism(parallelism);
+		batch.setInFlight(inFlight);
+		batch.setPerPage(perPage);
+		batch.setFormat(format);
+		batch.setPngDir(pngDir);
+		batch.setStreaming(streaming);
+		
+		System.exit(batch.parse(files) == 0 ? 0 : 2);
+	}
+}
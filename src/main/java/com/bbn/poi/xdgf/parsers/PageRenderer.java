@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.apache.poi.xdgf.usermodel.XDGFPage;
+import org.apache.poi.xdgf.usermodel.shape.ShapeDataAcceptor;
+import org.apache.poi.xdgf.usermodel.shape.ShapeDebuggerRenderer;
+import org.apache.poi.xdgf.util.VsdxToPng;
+
+/**
+ * Renders debug PNGs of pages on its own executor, so that rendering runs
+ * alongside parsing instead of before it. Shapes that the parser would
+ * look at are highlighted.
+ */
+public class PageRenderer implements Closeable {
+
+	public static final double DEFAULT_SCALE = 2000.0/11.0;
+	
+	protected final File pngDir;
+	protected final double scale;
+	protected final ExecutorService executor;
+	protected final boolean ownsExecutor;
+	
+	protected final List<Future<?>> pending = new ArrayList<>();
+	
+	// renders on a single background thread
+	public PageRenderer(File pngDir) {
+		this(pngDir, DEFAULT_SCALE, null);
+	}
+	
+	// if executor is null, a single background thread is used
+	public PageRenderer(File pngDir, double scale, ExecutorService executor) {
+		this.pngDir = pngDir;
+		this.scale = scale;
+		
+		if (executor == null) {
+			this.executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "page-renderer");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.ownsExecutor = true;
+		} else {
+			this.executor = executor;
+			this.ownsExecutor = false;
+		}
+		
+		pngDir.mkdirs();
+	}
+	
+	public File getPngDir() {
+		return pngDir;
+	}
+	
+	// returns immediately
+	public Future<?> submit(final XDGFPage page) {
+		
+		Future<?> future = executor.submit(new Runnable() {
+			@Override
+			public void run() {
+				render(page);
+			}
+		});
+		
+		synchronized (pending) {
+			pending.add(future);
+		}
+		
+		return future;
+	}
+	
+	protected void render(XDGFPage page) {
+		try {
+			ShapeDebuggerRenderer renderer = new ShapeDebuggerRenderer();
+			renderer.setDebugAcceptor(new ShapeDataAcceptor());
+			
+			VsdxToPng.renderToPngDir(page, pngDir, scale, renderer);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	// waits for everything submitted so far. Errors are printed, rendering
+	// is only for debugging
+	public void awaitCompletion() throws InterruptedException {
+		
+		List<Future<?>> futures;
+		synchronized (pending) {
+			futures = new ArrayList<>(pending);
+			pending.clear();
+		}
+		
+		for (Future<?> future: futures) {
+			try {
+				future.get();
+			} catch (ExecutionException e) {
+				System.err.println("Error rendering page: " + e.getCause());
+			}
+		}
+	}
+	
+	// waits for outstanding renders, and shuts down the executor if it
+	// was created here
+	@Override
+	public void close() throws IOException {
+		try {
+			awaitCompletion();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (ownsExecutor)
+				executor.shutdown();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+/**
+ * Receives timing and counters for each phase of VisioPageParser.process().
+ * Override the methods you're interested in; when no listener is set the
+ * parser doesn't take any timings at all.
+ */
+public class ParserListener {
+
+	// running totals kept by the parser, these are always counted
+	public static class Counters {
+		public long indexQueries = 0;
+		public long geometryCalls = 0;
+		public long edgesCreated = 0;
+		public long edgesRemoved = 0;
+		public long splits1d = 0;
+	}
+	
+	// what happened during a single phase
+	public static class PhaseStats {
+		
+		public final String phase;
+		
+		public long nanos;
+		public int shapesIn;
+		public int shapesOut;
+		
+		public long indexQueries;
+		public long geometryCalls;
+		public long edgesCreated;
+		public long edgesRemoved;
+		public long splits1d;
+		
+		public PhaseStats(String phase, int shapesIn, Counters counters) {
+			this.phase = phase;
+			this.shapesIn = shapesIn;
+			
+			nanos = -System.nanoTime();
+			indexQueries = -counters.indexQueries;
+			geometryCalls = -counters.geometryCalls;
+			edgesCreated = -counters.edgesCreated;
+			edgesRemoved = -counters.edgesRemoved;
+			splits1d = -counters.splits1d;
+		}
+		
+		// turns the starting snapshot into deltas
+		public void finish(int shapesOut, Counters counters) {
+			this.shapesOut = shapesOut;
+			
+			nanos += System.nanoTime();
+			indexQueries += counters.indexQueries;
+			geometryCalls += counters.geometryCalls;
+			edgesCreated += counters.edgesCreated;
+			edgesRemoved += counters.edgesRemoved;
+			splits1d += counters.splits1d;
+		}
+		
+		@Override
+		public String toString() {
+			return "[" + phase + ": " + (nanos / 1000000.0) + "ms, shapes " + shapesIn + " -> " + shapesOut +
+				   ", index queries " + indexQueries + ", geometry calls " + geometryCalls +
+				   ", edges +" + edgesCreated + "/-" + edgesRemoved + ", 1d splits " + splits1d + "]";
+		}
+	}
+	
+	// called before a phase starts
+	public void onPhaseStart(long pageId, String pageName, String phase) {
+		
+	}
+	
+	// called after a phase has finished
+	public void onPhaseEnd(long pageId, String pageName, PhaseStats stats) {
+		
+	}
+	
+}
@@ -21,17 +21,26 @@ import java.util.List;
 import org.apache.poi.xdgf.usermodel.XDGFShape;
 
 /**
- * The idea is that when 
+ * Hooks that let a subclass change how the shapes of a page are
+ * interpreted, and attach its own properties to the resulting vertices.
+ *
+ * The callbacks run while the page is parsed, before any vertices exist,
+ * so vertex properties are stored with ShapeData.setProperty (and read
+ * with getProperty or getProperties). They are copied to the vertex when
+ * the graph is exported, after the parser's own properties, so they can
+ * override them.
  */
 public class SemanticHelper {
 
-	// called when a shape is created
+	// called when a shape is created. shape is null if the page was
+	// read by the streaming parser
 	public void onCreate(ShapeData newShapeData, XDGFShape shape) {
 		
 	}
 	
 	// called when a shape was about to be created, but it was decided that
-	// the text should be reassigned to its parent instead
+	// the text should be reassigned to its parent instead. shape is null
+	// if the page was read by the streaming parser
 	public void onReassignToParent(ShapeData parentShapeData, XDGFShape shape) {
 		
 	}
@@ -73,6 +82,20 @@ public class SemanticHelper {
 	public double textInferenceDistance(ShapeData shapeData) {
 		return 0.3;	 // in inches
 	}
+	
+	// return true to assign all text in one pass, closest pairs first,
+	// instead of one textbox at a time in order of area. The result
+	// doesn't depend on the order of the shapes
+	public boolean useBatchedTextAssignment() {
+		return false;
+	}
+
+	// identifies this helper's configuration when caching parse results.
+	// Subclasses whose behavior depends on their own settings should
+	// include those settings; return null to disable caching
+	public String getCacheKey() {
+		return getClass().getName();
+	}
 
 	
 	
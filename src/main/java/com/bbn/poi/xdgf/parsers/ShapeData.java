@@ -23,15 +23,22 @@ import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.poi.POIXMLException;
+import org.apache.poi.xdgf.usermodel.XDGFCell;
 import org.apache.poi.xdgf.usermodel.XDGFShape;
+import org.apache.poi.xdgf.usermodel.XDGFSheet;
+import org.apache.poi.xdgf.usermodel.XDGFStyleSheet;
 
 import com.bbn.poi.xdgf.geom.GeomUtils;
+import com.bbn.poi.xdgf.geom.Segments;
 import com.bbn.poi.xdgf.parsers.rx.SpatialTools;
+import com.bbn.poi.xdgf.parsers.stream.StreamShape;
 import com.github.davidmoten.rtree.geometry.Rectangle;
-import com.tinkerpop.blueprints.Vertex;
 
 public class ShapeData {
 
@@ -45,7 +52,26 @@ public class ShapeData {
 	
 	public XDGFShape shape = null; // don't use this
 	
-	public Vertex vertex;
+	// position in the parser's ShapeGraph and ShapeStore
+	public int node = -1;
+	public int storeIndex = -1;
+	
+	// vertex properties, copied to the vertex on export
+	public String label = "";
+	public String name = "";
+	public String type = "";
+	public String symbolName = "";
+	public String group = "";
+	public String groupId = "";
+	public boolean inSecondaryGroup = false;
+	public String secondaryGroup = null;
+	public boolean isShape1D = false;
+	public Long textRef = null;
+	public String textRefWhy = null;
+	public Long shapeRef = null;
+	
+	// any other vertex properties, for use by a SemanticHelper
+	protected Map<String, Object> properties = null;
 	
 	// in global coordinates
 	public Rectangle rtreeBounds;	// don't use this except for the rtree, as this is in different precision!
@@ -59,6 +85,11 @@ public class ShapeData {
 	public Path2D path2D = null;
 	public boolean hasGeometry;
 	
+	// the path flattened at the default flatness, and without flattening.
+	// Created on first use, call invalidateSegments if the path changes
+	protected Segments segments = null;
+	protected Segments rawSegments = null;
+	
 	public Rectangle2D bounds;
 	
 	public Point2D textCenter = null;
@@ -78,12 +109,52 @@ public class ShapeData {
 	
 	public ShapeData(XDGFShape shape, AffineTransform globalTransform) {
 		
+		setGeometry(shape.getPath(), shape.isShape1D(), shape.getBoundsAsPath(), globalTransform);
+		
+		this.shape = shape;
+		this.shapeId = shape.getID();
+		
+		this.isInteresting = isInteresting(shape);
+		
+		// parsed the same way as the streaming parser, POI reads color
+		// indexes as RGB values and throws on formula errors
+		this.lineColor = StreamShape.parseColor(getLineCell(shape, "LineColor"));
+		this.linePattern = StreamShape.parseInteger(getLineCell(shape, "LinePattern"));
+		
+		hasText = shape.hasText() && !shape.getTextAsString().isEmpty();
+		isTextbox = hasText && !shape.hasMaster() && !shape.hasMasterShape();
+		
+		if (hasText)
+			textCenter = globalTransform.transform(shape.getText().getTextCenter(), null);
+	}
+	
+	// a shape read by the streaming parser
+	public ShapeData(StreamShape shape, AffineTransform globalTransform) {
+		
+		setGeometry(shape.getPath(), shape.isShape1D(), shape.getBoundsAsPath(), globalTransform);
+		
+		this.shapeId = shape.getID();
+		
+		this.isInteresting = isInteresting(shape);
+		
+		this.lineColor = shape.getLineColor();
+		this.linePattern = shape.getLinePattern();
+		
+		hasText = shape.hasText() && !shape.getTextAsString().isEmpty();
+		isTextbox = hasText && !shape.hasMaster() && !shape.hasMasterShape();
+		
+		if (hasText)
+			textCenter = globalTransform.transform(shape.getTextCenter(), null);
+	}
+	
+	// path and localBounds are in the shape's coordinates, and are modified
+	protected void setGeometry(Path2D path, boolean isShape1D, Path2D localBounds, AffineTransform globalTransform) {
+		
 		Path2D shapeBounds;
-		Path2D path = shape.getPath();
 		
 		// some 1d shapes don't have a path associated with them, 
 		// if they have subshapes... 
-		if (shape.isShape1D() && path != null) {
+		if (isShape1D && path != null) {
 			path1D = path;
 			path1D.transform(globalTransform);
 			path1D = GeomUtils.roundPath(path1D);
@@ -93,7 +164,7 @@ public class ShapeData {
 			shapeBounds = path1D; // use path as bounds
 		} else {
 			// calculate bounding boxes + other geometry information we'll need later
-			shapeBounds = shape.getBoundsAsPath();
+			shapeBounds = localBounds;
 			
 			shapeBounds.transform(globalTransform);
 			shapeBounds = GeomUtils.roundPath(shapeBounds);
@@ -103,29 +174,30 @@ public class ShapeData {
 		}
 		
 		this.bounds = shapeBounds.getBounds2D();
-		
-		this.shape = shape;
-		this.shapeId = shape.getID();
 		this.rtreeBounds = SpatialTools.convertRect(this.bounds);
 		this.area = this.rtreeBounds.area();
-		
-		this.isInteresting = isInteresting(shape);
-		
-		this.lineColor = shape.getLineColor();
-		this.linePattern = shape.getLinePattern();
-		
-		hasText = shape.hasText() && !shape.getTextAsString().isEmpty();
-		isTextbox = hasText && !shape.hasMaster() && !shape.hasMasterShape();
-		
-		if (hasText)
-			textCenter = globalTransform.transform(shape.getText().getTextCenter(), null);
 	}
 	
 	// clone 1d shapes
-	public ShapeData(long shapeId, Vertex vertex, ShapeData other, Path2D.Double new1dPath) {
+	public ShapeData(long shapeId, ShapeData other, Path2D.Double new1dPath) {
 		
 		this.shapeId = shapeId;
-		this.vertex = vertex;
+		
+		label = other.label;
+		name = other.name;
+		type = other.type;
+		symbolName = other.symbolName;
+		group = other.group;
+		groupId = other.groupId;
+		inSecondaryGroup = other.inSecondaryGroup;
+		secondaryGroup = other.secondaryGroup;
+		isShape1D = other.isShape1D;
+		textRef = other.textRef;
+		textRefWhy = other.textRefWhy;
+		shapeRef = other.shapeRef;
+		
+		if (other.properties != null)
+			properties = new HashMap<>(other.properties);
 		
 		lineColor = other.lineColor;
 		linePattern = other.linePattern;
@@ -142,6 +214,20 @@ public class ShapeData {
 		isTextbox = false;
 	}
 	
+	public Object getProperty(String key) {
+		return properties == null ? null : properties.get(key);
+	}
+	
+	public void setProperty(String key, Object value) {
+		if (properties == null)
+			properties = new HashMap<>();
+		properties.put(key, value);
+	}
+	
+	public Map<String, Object> getProperties() {
+		return properties == null ? Collections.<String, Object>emptyMap() : properties;
+	}
+	
 	public boolean is1d() {
 		return path1D != null;
 	}
@@ -150,6 +236,27 @@ public class ShapeData {
 		return path1D != null ? path1D : path2D;
 	}
 	
+	// getPath(), flattened with a flatness of 0.01
+	public Segments getSegments() {
+		if (segments == null)
+			segments = new Segments(getPath(), 0.01);
+		
+		return segments;
+	}
+	
+	// getPath(), with curves left out instead of flattened
+	public Segments getRawSegments() {
+		if (rawSegments == null)
+			rawSegments = new Segments(getPath(), null);
+		
+		return rawSegments;
+	}
+	
+	public void invalidateSegments() {
+		segments = null;
+		rawSegments = null;
+	}
+	
 	protected void calculate1dEndpoints() {
 		// can't use beginX et al here, as it's in parent coordinates
 		double[] coords = new double[6];
@@ -185,4 +292,41 @@ public class ShapeData {
 		return !shape.getSymbolName().isEmpty() || shape.isShape1D() || shape.hasMaster() || shape.hasText();
 	}
 	
+	public static boolean isInteresting(StreamShape shape) {
+		return !shape.getSymbolName().isEmpty() || shape.isShape1D() || shape.hasMaster() || shape.hasText();
+	}
+	
+	// the raw value of a line cell, found the way XDGFShape.getLineColor
+	// finds it: the shape's cell, its line style, then its master shape,
+	// and the document's default line style last
+	protected static String getLineCell(XDGFShape shape, String cellName) {
+		
+		for (XDGFShape s = shape; s != null; s = s.getMasterShape()) {
+			String v = getStyleCell(s, cellName);
+			if (v != null)
+				return v;
+		}
+		
+		XDGFStyleSheet defaultStyle = shape.getDocument().getDefaultLineStyle();
+		return defaultStyle == null ? null : getStyleCell(defaultStyle, cellName);
+	}
+	
+	protected static String getStyleCell(XDGFSheet sheet, String cellName) {
+		
+		// guard against loops, real documents only have a few levels
+		for (int i = 0; i < 32 && sheet != null; i++) {
+			XDGFCell cell = sheet.getCell(cellName);
+			if (cell != null)
+				return cell.getValue();
+			
+			XDGFStyleSheet style = sheet.getLineStyle();
+			if (style == sheet)
+				return null;
+			
+			sheet = style;
+		}
+		
+		return null;
+	}
+	
 }
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.util.Arrays;
+
+import com.bbn.poi.xdgf.index.LongIntHashMap;
+
+/**
+ * The graph that VisioPageParser works on while inferring connections.
+ * Vertices are the ShapeData objects themselves, edges are indices into
+ * parallel arrays, and each shape keeps an array of the edges that touch
+ * it. Nothing here allocates per lookup; the Blueprints graph is only
+ * created when the parser exports it.
+ *
+ * There is at most one edge for each (from, to) pair, looked up by the two
+ * node indices packed into a long. Edges don't have string ids here, the
+ * parser makes those up when it exports the graph.
+ *
+ * Edge indices stay valid after other edges are removed.
+ */
+public class ShapeGraph {
+
+	public static final int NO_EDGE = -1;
+	
+	// vertices, by node index
+	protected ShapeData[] nodes = new ShapeData[64];
+	protected int nodeCount = 0;
+	
+	// edges of each node, in the order they were added
+	protected int[][] adjacency = new int[64][];
+	protected int[] degree = new int[64];
+	
+	// edges, by edge index
+	protected int[] edgeFrom = new int[64];
+	protected int[] edgeTo = new int[64];
+	protected String[] edgeLabels = new String[64];
+	protected double[] edgeX = new double[64];
+	protected double[] edgeY = new double[64];
+	protected boolean[] edgeRemoved = new boolean[64];
+	protected int edgeCount = 0;
+	protected int liveEdges = 0;
+	
+	// (from, to) -> edge index, for live edges
+	protected final LongIntHashMap edgesByEnds = new LongIntHashMap(64);
+	
+	public int nodeCount() {
+		return nodeCount;
+	}
+	
+	public ShapeData node(int i) {
+		return nodes[i];
+	}
+	
+	// number of edges that have been added, including removed ones
+	public int edgeCount() {
+		return edgeCount;
+	}
+	
+	public int liveEdgeCount() {
+		return liveEdges;
+	}
+	
+	public void addNode(ShapeData shapeData) {
+		if (shapeData.node != -1)
+			throw new IllegalStateException(shapeData + " is already in the graph");
+		
+		if (nodeCount == nodes.length) {
+			int n = nodes.length*2;
+			nodes = Arrays.copyOf(nodes, n);
+			adjacency = Arrays.copyOf(adjacency, n);
+			degree = Arrays.copyOf(degree, n);
+		}
+		
+		shapeData.node = nodeCount;
+		nodes[nodeCount++] = shapeData;
+	}
+	
+	// removes all of the edges of the shape. The node index is not reused
+	public void removeNode(ShapeData shapeData) {
+		int n = shapeData.node;
+		while (degree[n] != 0)
+			removeEdge(adjacency[n][degree[n] - 1]);
+	}
+	
+	//
+	// Edges
+	//
+	
+	// returns NO_EDGE if there isn't a live edge from -> to
+	public int findEdge(ShapeData from, ShapeData to) {
+		return edgesByEnds.get(key(from.node, to.node), NO_EDGE);
+	}
+	
+	// x/y may be NaN if the edge doesn't have a connection point. The
+	// caller must make sure there isn't an edge from -> to already
+	public int addEdge(ShapeData from, ShapeData to, String label, double x, double y) {
+		
+		if (edgeCount == edgeFrom.length) {
+			int n = edgeFrom.length*2;
+			edgeFrom = Arrays.copyOf(edgeFrom, n);
+			edgeTo = Arrays.copyOf(edgeTo, n);
+			edgeLabels = Arrays.copyOf(edgeLabels, n);
+			edgeX = Arrays.copyOf(edgeX, n);
+			edgeY = Arrays.copyOf(edgeY, n);
+			edgeRemoved = Arrays.copyOf(edgeRemoved, n);
+		}
+		
+		int e = edgeCount++;
+		edgeFrom[e] = from.node;
+		edgeTo[e] = to.node;
+		edgeLabels[e] = label;
+		edgeX[e] = x;
+		edgeY[e] = y;
+		edgeRemoved[e] = false;
+		
+		link(from.node, e);
+		if (to.node != from.node)
+			link(to.node, e);
+		
+		edgesByEnds.put(key(from.node, to.node), e);
+		liveEdges += 1;
+		return e;
+	}
+	
+	public void removeEdge(int e) {
+		if (edgeRemoved[e])
+			return;
+		
+		edgeRemoved[e] = true;
+		unlink(edgeFrom[e], e);
+		if (edgeTo[e] != edgeFrom[e])
+			unlink(edgeTo[e], e);
+		
+		edgesByEnds.remove(key(edgeFrom[e], edgeTo[e]));
+		liveEdges -= 1;
+	}
+	
+	public boolean isRemoved(int e) {
+		return edgeRemoved[e];
+	}
+	
+	public String label(int e) {
+		return edgeLabels[e];
+	}
+	
+	public ShapeData from(int e) {
+		return nodes[edgeFrom[e]];
+	}
+	
+	public ShapeData to(int e) {
+		return nodes[edgeTo[e]];
+	}
+	
+	// the end of the edge that isn't the given shape
+	public ShapeData other(int e, ShapeData shapeData) {
+		int n = edgeFrom[e] == shapeData.node ? edgeTo[e] : edgeFrom[e];
+		return nodes[n];
+	}
+	
+	public boolean hasPoint(int e) {
+		return !Double.isNaN(edgeX[e]);
+	}
+	
+	public double x(int e) {
+		return edgeX[e];
+	}
+	
+	public double y(int e) {
+		return edgeY[e];
+	}
+	
+	//
+	// Adjacency
+	//
+	
+	public int degree(ShapeData shapeData) {
+		return degree[shapeData.node];
+	}
+	
+	// the i'th edge of the shape
+	public int edge(ShapeData shapeData, int i) {
+		return adjacency[shapeData.node][i];
+	}
+	
+	// a copy of the shape's edges, for when edges are added or removed
+	// while iterating
+	public int[] edges(ShapeData shapeData) {
+		int n = shapeData.node;
+		int[] edges = adjacency[n];
+		return edges == null ? new int[0] : Arrays.copyOf(edges, degree[n]);
+	}
+	
+	protected static long key(int from, int to) {
+		return ((long)from << 32) | (to & 0xFFFFFFFFL);
+	}
+	
+	protected void link(int n, int e) {
+		int[] edges = adjacency[n];
+		if (edges == null) {
+			edges = new int[4];
+			adjacency[n] = edges;
+		} else if (degree[n] == edges.length) {
+			edges = Arrays.copyOf(edges, edges.length*2);
+			adjacency[n] = edges;
+		}
+		
+		edges[degree[n]++] = e;
+	}
+	
+	// keeps the remaining edges in order
+	protected void unlink(int n, int e) {
+		int[] edges = adjacency[n];
+		int d = degree[n];
+		for (int i = d - 1; i >= 0; i--) {
+			if (edges[i] == e) {
+				System.arraycopy(edges, i + 1, edges, i, d - i - 1);
+				degree[n] = d - 1;
+				return;
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The list of shapes that VisioPageParser iterates over. Removing a shape
+ * is O(1): its slot becomes a tombstone that iterators skip, and the array
+ * is compacted in place once enough tombstones pile up. Compaction keeps
+ * the remaining shapes in order, so the order set by sort() holds.
+ *
+ * Shapes may be removed while iterating, but compact() and sort() must not
+ * be called while an iteration is in progress.
+ */
+public class ShapeStore implements Iterable<ShapeData> {
+
+	protected ShapeData[] items = new ShapeData[64];
+	
+	// slots in use, including tombstones
+	protected int end = 0;
+	
+	// live shapes
+	protected int size = 0;
+	
+	public int size() {
+		return size;
+	}
+	
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	public void add(ShapeData shapeData) {
+		if (shapeData.storeIndex != -1)
+			throw new IllegalStateException(shapeData + " is already stored");
+		
+		if (end == items.length)
+			items = Arrays.copyOf(items, items.length*2);
+		
+		shapeData.storeIndex = end;
+		items[end++] = shapeData;
+		size += 1;
+	}
+	
+	// returns false if the shape isn't in the store
+	public boolean remove(ShapeData shapeData) {
+		int i = shapeData.storeIndex;
+		if (i == -1 || items[i] != shapeData)
+			return false;
+		
+		items[i] = null;
+		shapeData.storeIndex = -1;
+		size -= 1;
+		return true;
+	}
+	
+	// compacts if more than a quarter of the slots are tombstones
+	public void compactIfNeeded() {
+		if ((end - size)*4 > end)
+			compact();
+	}
+	
+	public void compact() {
+		int j = 0;
+		for (int i = 0; i < end; i++) {
+			ShapeData shapeData = items[i];
+			if (shapeData != null) {
+				shapeData.storeIndex = j;
+				items[j++] = shapeData;
+			}
+		}
+		
+		Arrays.fill(items, j, end, null);
+		end = j;
+	}
+	
+	// stable, like Collections.sort
+	public void sort(Comparator<? super ShapeData> comparator) {
+		compact();
+		Arrays.sort(items, 0, end, comparator);
+		
+		for (int i = 0; i < end; i++)
+			items[i].storeIndex = i;
+	}
+	
+	@Override
+	public Iterator<ShapeData> iterator() {
+		return new Iterator<ShapeData>() {
+			
+			int next = advance(0);
+			
+			int advance(int i) {
+				while (i < end && items[i] == null)
+					i++;
+				return i;
+			}
+			
+			@Override
+			public boolean hasNext() {
+				// shapes may have been removed since the last call
+				next = advance(next);
+				return next < end;
+			}
+
+			@Override
+			public ShapeData next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return items[next++];
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.bbn.poi.xdgf.parsers.stream.StreamConnect;
+import com.bbn.poi.xdgf.parsers.stream.StreamPage;
+import com.bbn.poi.xdgf.parsers.stream.StreamShape;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+
+/**
+ * Parses a page that was read by StreamDocument instead of POI. Everything
+ * after collecting the shapes is the same as VisioPageParser.
+ * 
+ * SemanticHelper callbacks are given a null XDGFShape.
+ */
+public class StreamingPageParser extends VisioPageParser {
+
+	protected final StreamPage page;
+	
+	public StreamingPageParser(StreamPage page) {
+		this(page, new SemanticHelper(), new TinkerGraph());
+	}
+	
+	public StreamingPageParser(StreamPage page, SemanticHelper helper) {
+		this(page, helper, new TinkerGraph());
+	}
+	
+	public StreamingPageParser(StreamPage page, SemanticHelper helper, Graph graph) {
+		super(page.getID(), page.getName(), helper, graph);
+		this.page = page;
+	}
+	
+	@Override
+	protected void collectShapes() {
+		for (StreamShape shape: page.getShapes()) {
+			collectShapes(shape, new AffineTransform());
+		}
+	}
+	
+	// same order and transforms as XDGFShape.visitShapes
+	protected void collectShapes(StreamShape shape, AffineTransform parentTransform) {
+		
+		AffineTransform globalTransform = new AffineTransform(parentTransform);
+		globalTransform.concatenate(shape.getParentToLocalTransform());
+		
+		if (accept(shape))
+			collectShape(shape, globalTransform);
+		
+		for (StreamShape child: shape.getShapes()) {
+			collectShapes(child, globalTransform);
+		}
+	}
+	
+	protected void collectShape(StreamShape shape, AffineTransform globalTransform) {
+		
+		ShapeData shapeData = new ShapeData(shape, globalTransform);
+		
+		if (shapeData.hasText && reassignTextNodeToParent(shapeData, shape.getTextAsString(), shape.getTextCenter())) {
+			return;
+		}
+		
+		shapeData.label = shape.getTextAsString();
+		shapeData.isShape1D = shape.isShape1D();
+		shapeData.name = shape.getName();
+		shapeData.symbolName = shape.getSymbolName();
+		shapeData.type = shape.getShapeType();
+		
+		addShape(shapeData, null);
+	}
+	
+	// same as POI's ShapeDataAcceptor
+	protected boolean accept(StreamShape shape) {
+		
+		if (!shape.isVisible())
+			return false;
+		
+		// text is interesting
+		if (shape.hasText() && !shape.getTextAsString().isEmpty())
+			return true;
+		
+		// 1d shapes are interesting, they create connections
+		if (shape.isShape1D())
+			return true;
+		
+		// user specified shape data is interesting
+		if (!shape.hasMasterShape())
+			return true;
+		
+		// include stencil content, but exclude stencil subshapes
+		return shape.getMasterShape().isTopmost();
+	}
+	
+	@Override
+	protected void collectConnections() {
+		
+		if (!helper.useRealConnections())
+			return;
+		
+		for (StreamConnect conn: page.getConnections()) {
+			createRealEdge(conn.fromSheet, conn.toSheet, conn.fromPart);
+		}
+	}
+	
+	@Override
+	protected Long getParentId(long shapeId) {
+		StreamShape parent = page.getShapeById(shapeId).getParentShape();
+		return parent == null ? null : parent.getID();
+	}
+	
+	@Override
+	protected List<Long> getChildIds(long shapeId) {
+		
+		List<StreamShape> children = page.getShapeById(shapeId).getShapes();
+		if (children.isEmpty())
+			return Collections.emptyList();
+		
+		List<Long> ids = new ArrayList<>(children.size());
+		for (StreamShape child: children)
+			ids.add(child.getID());
+		
+		return ids;
+	}
+}
@@ -18,28 +18,57 @@ package com.bbn.poi.xdgf.parsers;
 
 import java.io.IOException;
 
-import com.google.common.collect.Iterators;
+import com.bbn.poi.xdgf.io.BinaryGraphWriter;
+import com.bbn.poi.xdgf.io.GraphMLStreamWriter;
 import com.tinkerpop.blueprints.Graph;
-import com.tinkerpop.blueprints.util.io.graphml.GraphMLWriter;
 
 public class Util {
 
 	public static void saveToGraphml(Graph graph, String filename) {
 		
-		GraphMLWriter writer = new GraphMLWriter(graph);
-		writer.setNormalize(true);
+		GraphMLStreamWriter writer = new GraphMLStreamWriter(graph);
+		writer.setSorted(true);
 		
 		writer.setEdgeLabelKey("label");
 		
 		System.out.println("** Writing graph to " + filename);
-		System.out.println("** -> " + Iterators.size(graph.getVertices().iterator()) + " Nodes" +
-		                              Iterators.size(graph.getEdges().iterator()) + " Edges");
 		
 		try {
 			writer.outputGraph(filename);
 		} catch (IOException e) {
 			System.err.println("Error writing to " + filename + ": " + e.getMessage());
+			return;
 		}
+		
+		System.out.println("** -> " + writer.getVertexCount() + " Nodes, " +
+		                              writer.getEdgeCount() + " Edges");
+	}
+	
+	// writes the compact binary format, read it with BinaryGraphReader
+	public static void saveToBinary(Graph graph, String filename) {
+		
+		BinaryGraphWriter writer = new BinaryGraphWriter(graph);
+		
+		System.out.println("** Writing graph to " + filename);
+		
+		try {
+			writer.outputGraph(filename);
+		} catch (IOException e) {
+			System.err.println("Error writing to " + filename + ": " + e.getMessage());
+			return;
+		}
+		
+		System.out.println("** -> " + writer.getVertexCount() + " Nodes, " +
+		                              writer.getEdgeCount() + " Edges");
+	}
+	
+	// picks the format from the file extension: .vgraph is binary,
+	// anything else is GraphML
+	public static void saveGraph(Graph graph, String filename) {
+		if (filename.endsWith(".vgraph"))
+			saveToBinary(graph, filename);
+		else
+			saveToGraphml(graph, filename);
 	}
 	
 }
@@ -23,6 +23,7 @@ import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -31,29 +32,28 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.poi.POIXMLException;
 import org.apache.poi.xdgf.usermodel.XDGFConnection;
 import org.apache.poi.xdgf.usermodel.XDGFPage;
 import org.apache.poi.xdgf.usermodel.XDGFPageContents;
 import org.apache.poi.xdgf.usermodel.XDGFShape;
-import org.apache.poi.xdgf.usermodel.XDGFText;
 import org.apache.poi.xdgf.usermodel.shape.ShapeDataAcceptor;
 import org.apache.poi.xdgf.usermodel.shape.ShapeVisitor;
-import org.apache.poi.xdgf.usermodel.shape.exceptions.StopVisiting;
-
-import rx.Observable;
 
 import com.bbn.poi.xdgf.geom.GeomUtils;
-import com.bbn.poi.xdgf.parsers.rx.Rx;
-import com.bbn.poi.xdgf.parsers.rx.SpatialTools;
-import com.github.davidmoten.rtree.Entry;
-import com.github.davidmoten.rtree.RTree;
+import com.bbn.poi.xdgf.geom.Segments;
+import com.bbn.poi.xdgf.index.Forest;
+import com.bbn.poi.xdgf.index.GridIndex;
+import com.bbn.poi.xdgf.index.LongIntHashMap;
+import com.bbn.poi.xdgf.index.PackedRTree;
+import com.bbn.poi.xdgf.index.SegmentSweep;
+import com.bbn.poi.xdgf.index.SpatialIndex;
+import com.bbn.poi.xdgf.index.SpatialJoin;
 import com.github.davidmoten.rtree.geometry.Rectangle;
-import com.google.common.collect.Iterators;
-import com.google.common.collect.Sets;
-import com.tinkerpop.blueprints.Direction;
 import com.tinkerpop.blueprints.Edge;
 import com.tinkerpop.blueprints.Graph;
 import com.tinkerpop.blueprints.Vertex;
@@ -64,7 +64,12 @@ import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
  */
 public class VisioPageParser {
 
+	// the graph is only filled in when it is exported, inference works
+	// on shapeGraph
 	protected Graph graph;
+	protected boolean exported = false;
+	protected final ShapeGraph shapeGraph = new ShapeGraph();
+	
 	protected SemanticHelper helper;
 	
 	protected class SplitData {
@@ -98,10 +103,18 @@ public class VisioPageParser {
 	}
 	
 	// indices
-	protected RTree<ShapeData, Rectangle> rtree = RTree.create();
+	// which spatial index to build once the shapes are collected
+	public static enum IndexType {
+		RTREE,
+		GRID,
+		// a grid when the shapes are similar in size, otherwise an R-tree
+		AUTO
+	}
+	
+	protected IndexType indexType = IndexType.RTREE;
+	protected SpatialIndex<ShapeData> index = new PackedRTree<>();
 	protected final Map<Long, ShapeData> shapesMap = new HashMap<>();
-	protected final List<ShapeData> shapes = new ArrayList<>();
-	protected final Map<String, Edge> edges = new HashMap<>();
+	protected final ShapeStore shapes = new ShapeStore();
 	
 	// shapes removed from the graph
 	protected final List<GroupData> groupShapes = new ArrayList<>();
@@ -109,6 +122,20 @@ public class VisioPageParser {
 	// secondary sets of groups
 	protected final List<GroupData> secondaryGroupShapes = new ArrayList<>();
 	
+	// the visio group hierarchy of the shapes and their ancestors, built by
+	// buildGroupForest. Nodes are numbered in groupForestIds
+	protected Forest groupForest = null;
+	protected long[] groupForestIds = null;
+	protected LongIntHashMap groupForestNodes = null;
+	
+	// topmost shape with geometry above each forest position, cleared for
+	// a subtree when a shape in the hierarchy is removed
+	protected ShapeData[] topmostWithGeom = null;
+	protected boolean[] topmostKnown = null;
+	
+	// scratch space for findTopmostWithGeom, no path is longer than the forest
+	protected int[] topmostPath = null;
+	
 	// convenience
 	protected final long pageId;
 	protected final String pageName;
@@ -116,6 +143,12 @@ public class VisioPageParser {
 	
 	// for allocating new shapes -- decrement each time a new shape is created
 	protected long shapeIdAllocator = -42;
+	
+	// instrumentation: counters are always kept, phases are only timed
+	// when there is a listener
+	protected ParserListener listener = null;
+	protected final ParserListener.Counters counters = new ParserListener.Counters();
+	protected ParserListener.PhaseStats phaseStats = null;
 
 	public VisioPageParser(XDGFPage page) {
 		this(page, new SemanticHelper(), new TinkerGraph());
@@ -134,33 +167,107 @@ public class VisioPageParser {
 		pageContents = page.getContent();
 	}
 	
+	// for subclasses that read the page without POI. There is no page
+	// contents, so collectShapes, collectConnections, getParentId and
+	// getChildIds must be overridden
+	protected VisioPageParser(long pageId, String pageName, SemanticHelper helper, Graph graph) {
+		this.graph = graph;
+		this.helper = helper;
+		this.pageId = pageId;
+		this.pageName = pageName;
+		this.pageContents = null;
+	}
+	
+	// exports the graph the first time it is called
 	public Graph getGraph() {
+		if (!exported) {
+			exportGraph();
+			exported = true;
+		}
 		return graph;
 	}
 	
+	public ShapeGraph getShapeGraph() {
+		return shapeGraph;
+	}
+	
+	// must be called before process(). The default is RTREE; GRID and AUTO
+	// can visit candidates in a different order
+	public void setIndexType(IndexType indexType) {
+		this.indexType = indexType;
+	}
+	
+	public void setListener(ParserListener listener) {
+		this.listener = listener;
+	}
+	
+	public ParserListener.Counters getCounters() {
+		return counters;
+	}
+	
 	// processes the page and creates a graph from it
 	public void process() {
 		
 		// TODO: there are a lot of O(N) operations here... 
 		
+		startPhase("collectShapes");
 		collectShapes();
+		endPhase();
+		
+		startPhase("collectConnections");
 		collectConnections();
+		endPhase();
 		
+		startPhase("removeBoringShapes");
 		removeBoringShapes();
+		endPhase();
 		
 		// before we perform analysis, sort the shapes
 		// - Can't do this earlier, removeBoringShapes depends on the ordering
-		Collections.sort(shapes, new ShapeData.OrderByLargestAreaFirst());
+		startPhase("sortShapes");
+		shapes.sort(new ShapeData.OrderByLargestAreaFirst());
+		endPhase();
 		
+		startPhase("associateText");
 		associateText();
+		endPhase();
+		
+		startPhase("joinGroupedShapes");
 		joinGroupedShapes();
+		endPhase();
+		
+		startPhase("addGroupLabels");
 		addGroupLabels();
-		inferConnections();
+		endPhase();
 		
+		startPhase("inferConnections");
+		inferConnections();
+		endPhase();
 		
+		startPhase("inferGroupConnections");
 		inferGroupConnections();
+		endPhase();
 		
+		startPhase("removeConnectionsAt2Dobjects");
 		removeConnectionsAt2Dobjects();
+		endPhase();
+	}
+	
+	protected void startPhase(String phase) {
+		if (listener == null)
+			return;
+		
+		listener.onPhaseStart(pageId, pageName, phase);
+		phaseStats = new ParserListener.PhaseStats(phase, shapes.size(), counters);
+	}
+	
+	protected void endPhase() {
+		if (listener == null)
+			return;
+		
+		phaseStats.finish(shapes.size(), counters);
+		listener.onPhaseEnd(pageId, pageName, phaseStats);
+		phaseStats = null;
 	}
 	
 	// create vertices from interesting shapes
@@ -178,57 +285,50 @@ public class VisioPageParser {
 				
 				ShapeData shapeData = new ShapeData(shape, globalTransform);
 				
-				if (shapeData.hasText && reassignTextNodeToParent(shape, shapeData)) {
+				if (shapeData.hasText && reassignTextNodeToParent(shapeData, shape.getTextAsString(), shape.getText().getTextCenter())) {
 					return;
 				}
 				
-				String id = pageId + ": " + shape.getID();
-				Vertex vertex = graph.addVertex(id);
-				
-				shapeData.vertex = vertex;
-				
 				// useful properties for later... 
-				vertex.setProperty("label", shape.getTextAsString());
-				vertex.setProperty("shapeId", shape.getID());
-				
-				vertex.setProperty("group", "");
-				vertex.setProperty("groupId", "");
-				vertex.setProperty("inSecondaryGroup", false);
-				vertex.setProperty("is1d", shape.isShape1D());
-				vertex.setProperty("name", shape.getName());
-				vertex.setProperty("pageName", pageName);
-				vertex.setProperty("symbolName", shape.getSymbolName());
-				vertex.setProperty("type", shape.getShapeType());
+				shapeData.label = shape.getTextAsString();
+				shapeData.isShape1D = shape.isShape1D();
+				shapeData.name = shape.getName();
+				shapeData.symbolName = shape.getSymbolName();
+				shapeData.type = shape.getShapeType();
 				
 				// this isn't actually accurate
 				//vertex.setProperty("visible", shape.isVisible());
 				
-				// local coordinates
-				vertex.setProperty("x", shapeData.getCenterX());
-				vertex.setProperty("y", shapeData.getCenterY());
-				
-				helper.onCreate(shapeData, shape);
-
-				shapesMap.put(shape.getID(), shapeData);
-				shapes.add(shapeData);
+				addShape(shapeData, shape);
 			}
 		});
 	}
 	
-	protected boolean reassignTextNodeToParent(XDGFShape shape, ShapeData shapeData) {
+	// shape is null if the page wasn't read by POI
+	protected void addShape(ShapeData shapeData, XDGFShape shape) {
+		
+		shapeGraph.addNode(shapeData);
+		
+		helper.onCreate(shapeData, shape);
+
+		shapesMap.put(shapeData.shapeId, shapeData);
+		shapes.add(shapeData);
+	}
+	
+	// textCenter is in the shape's local coordinates
+	protected boolean reassignTextNodeToParent(ShapeData shapeData, String text, Point2D textCenter) {
 	
 		// keep looking at parents to see if they're a good match
 		ShapeData parentMatch = null;
-		XDGFShape current = shape;
+		Long current = getParentId(shapeData.shapeId);
 		ArrayList<ShapeData> duplicates = new ArrayList<>();
 		
 		double x = shapeData.bounds.getMinX();
 		double width = shapeData.bounds.getWidth();
 		
-		while (current.hasParent()) {
+		while (current != null) {
 			
-			XDGFShape parent = current.getParentShape();
-			ShapeData parentData = getShape(parent.getID());
+			ShapeData parentData = getShape(current);
 			
 			if (parentData != null) {
 			
@@ -249,21 +349,20 @@ public class VisioPageParser {
 				}
 			}
 			
-			current = parent;
+			current = getParentId(current);
 		}
 		
 		// if there's a parent match, reassign the text
 		if (parentMatch != null) {
-			XDGFText text = shape.getText();
 			
-			parentMatch.vertex.setProperty("label", shape.getTextAsString());
-			parentMatch.vertex.setProperty("textRef", shape.getID());
-			parentMatch.vertex.setProperty("textRefWhy", "reassignToParent");
+			parentMatch.label = text;
+			parentMatch.textRef = shapeData.shapeId;
+			parentMatch.textRefWhy = "reassignToParent";
 			parentMatch.hasText = true;
 			parentMatch.isInteresting = true;
-			parentMatch.textCenter = text.getTextCenter();
+			parentMatch.textCenter = textCenter;
 			
-			helper.onReassignToParent(parentMatch, shape);
+			helper.onReassignToParent(parentMatch, shapeData.shape);
 			
 			for (ShapeData dup: duplicates) {
 				removeShape(dup);
@@ -284,29 +383,33 @@ public class VisioPageParser {
 		for (XDGFConnection conn: pageContents.getConnections()) {
 			// if we get the connection point, then it has to be in real coordinates
 			
-			Double x = null, y = null;
-			XDGFShape from = conn.getFromShape();
-			XDGFShape to = conn.getToShape();
-			
-			ShapeData fromShapeData = findShapeOrParent(from.getID());
-			
-			switch (conn.getFromPart()) {
-				case XDGFConnection.visBegin:
-					x = fromShapeData.path1Dstart.getX();
-					y = fromShapeData.path1Dstart.getY();
-					break;
-				case XDGFConnection.visEnd:
-					x = fromShapeData.path1Dend.getX();
-					y = fromShapeData.path1Dend.getY();
-					break;
-				default:
-					break;
-			}
-			
-			createEdge(from, to, "real", x, y);
+			createRealEdge(conn.getFromShape().getID(), conn.getToShape().getID(), conn.getFromPart());
 		}
 	}
 	
+	// fromPart is the part of the from shape that is glued, such as
+	// XDGFConnection.visBegin
+	protected void createRealEdge(long fromId, long toId, int fromPart) {
+		
+		Double x = null, y = null;
+		ShapeData fromShapeData = findShapeOrParent(fromId);
+		
+		switch (fromPart) {
+			case XDGFConnection.visBegin:
+				x = fromShapeData.path1Dstart.getX();
+				y = fromShapeData.path1Dstart.getY();
+				break;
+			case XDGFConnection.visEnd:
+				x = fromShapeData.path1Dend.getX();
+				y = fromShapeData.path1Dend.getY();
+				break;
+			default:
+				break;
+		}
+		
+		createEdge(fromId, toId, "real", x, y);
+	}
+	
 	protected void removeBoringShapes() {
 		
 		// remove the boring shapes -- we only kept them so far because one of the 
@@ -314,37 +417,31 @@ public class VisioPageParser {
 		
 		// if there isn't, get rid of it so we don't have extra stuff in the output
 		
+		final List<ShapeData> indexed = new ArrayList<>();
+		
 		for (final ShapeData shapeData: shapes) {
 			
-			if (shapeData.removed)
-				continue;
-			
-			if (!shapeData.isInteresting && shapeData.vertex.getProperty("type").equals("Group")) {
+			if (!shapeData.isInteresting && shapeData.type.equals("Group")) {
 			
 				final List<ShapeData> children = new ArrayList<>();
 				
 				// if not interesting -- but, all of the children are either groups or shapes..
 				// .. remove the kids?
-				try {
-					shapeData.shape.visitShapes(new ShapeVisitor() {
-						
-						@Override
-						public void visit(XDGFShape shape, AffineTransform globalTransform, int level) {
-							
-							if (shape.getID() == shapeData.shapeId)
-								return;
-							
-							ShapeData child = getShape(shape.getID());
-							if (child != null) {
-								if (child.hasText || !child.shape.getSymbolName().isEmpty())
-									throw new StopVisiting();
-								
-								children.add(child);
-							}
+				LinkedList<Long> descendants = new LinkedList<>(getChildIds(shapeData.shapeId));
+				while (!descendants.isEmpty()) {
+					
+					long id = descendants.removeFirst();
+					descendants.addAll(0, getChildIds(id));
+					
+					ShapeData child = getShape(id);
+					if (child != null) {
+						if (child.hasText || !child.symbolName.isEmpty()) {
+							children.clear();
+							break;
 						}
-					}, 0);
-				} catch (StopVisiting e) {
-					children.clear();
+						
+						children.add(child);
+					}
 				}
 				
 				// if deemed interesting, remove kids and mark self as interesting
@@ -353,16 +450,16 @@ public class VisioPageParser {
 					for (ShapeData child: children) {
 						
 						// if child has connections, move them over to the new interesting shape
-						for (Edge edge: child.vertex.getEdges(Direction.BOTH)) {
-							ShapeData other = getShapeFromEdge(edge, Direction.IN);
+						for (int edge: shapeGraph.edges(child)) {
+							ShapeData other = getShapeFromEdge(edge, true);
 							if (other == child)
-								other = getShapeFromEdge(edge, Direction.OUT);
+								other = getShapeFromEdge(edge, false);
 							
-							Double x = edge.getProperty("x");
-							Double y = edge.getProperty("y");
+							Double x = getEdgeX(edge);
+							Double y = getEdgeY(edge);
 							
 							createEdge(shapeData, other, "real-moved", x, y);
-							edge.remove();
+							removeEdge(edge);
 						}
 						
 						removeShape(child);
@@ -371,7 +468,7 @@ public class VisioPageParser {
 			}
 			
 			// if it's interesting -- or if it has a connection, then keep it
-			if (shapeData.isInteresting || shapeData.vertex.getEdges(Direction.BOTH).iterator().hasNext()) {
+			if (shapeData.isInteresting || shapeGraph.degree(shapeData) != 0) {
 
 				// add to the tree
 				// - RTree only deals with bounding rectangles, so we need
@@ -382,7 +479,7 @@ public class VisioPageParser {
 				// TODO: is it worth setting up a custom geometry?
 				// -> problem with a custom geometry is that calculating the
 				//    distance between objects would be annoying
-				rtree = rtree.add(shapeData, shapeData.rtreeBounds);
+				indexed.add(shapeData);
 				
 			} else {
 				removeShape(shapeData);
@@ -390,6 +487,61 @@ public class VisioPageParser {
 		}
 		
 		cleanShapes();
+		
+		// children of later groups may have been removed after they were
+		// collected, and the tree is bulk loaded all at once
+		Iterator<ShapeData> i = indexed.iterator();
+		while (i.hasNext()) {
+			if (i.next().removed)
+				i.remove();
+		}
+		
+		buildIndex(indexed);
+	}
+	
+	protected void buildIndex(List<ShapeData> indexed) {
+		
+		double[] bounds = new double[indexed.size()*4];
+		int i = 0;
+		
+		for (ShapeData shapeData: indexed) {
+			Rectangle r = shapeData.rtreeBounds;
+			bounds[i++] = r.x1();
+			bounds[i++] = r.y1();
+			bounds[i++] = r.x2();
+			bounds[i++] = r.y2();
+		}
+		
+		index = createIndex(bounds, indexed.size());
+		index.load(indexed, bounds);
+	}
+	
+	protected SpatialIndex<ShapeData> createIndex(double[] bounds, int n) {
+		switch (indexType) {
+			case GRID:
+				return new GridIndex<>();
+			case AUTO:
+				if (GridIndex.isSuitable(bounds, n))
+					return new GridIndex<>();
+				return new PackedRTree<>();
+			default:
+				return new PackedRTree<>();
+		}
+	}
+	
+	protected void searchIndex(Rectangle r, SpatialIndex.Visitor<ShapeData> visitor) {
+		counters.indexQueries++;
+		index.search(r.x1(), r.y1(), r.x2(), r.y2(), visitor);
+	}
+	
+	protected void searchIndexNear(Rectangle r, double maxDistance, SpatialIndex.Visitor<ShapeData> visitor) {
+		counters.indexQueries++;
+		index.searchNear(r.x1(), r.y1(), r.x2(), r.y2(), maxDistance, visitor);
+	}
+	
+	protected void searchIndexNearest(Rectangle r, double maxDistance, SpatialIndex.Visitor<ShapeData> visitor) {
+		counters.indexQueries++;
+		index.nearest(r.x1(), r.y1(), r.x2(), r.y2(), maxDistance, visitor);
 	}
 	
 	protected void joinGroupedShapes() {
@@ -404,41 +556,73 @@ public class VisioPageParser {
 		// bounding rectangles annoying. Instead, just link them together
 		// with an edge 
 		
-		// insert naive implementation here
-		for (final ShapeData shapeData: shapes) {
+		final List<ShapeData> candidates = new ArrayList<>();
+		for (ShapeData shapeData: shapes) {
+			if (!shapeData.is1d() && !shapeData.symbolName.equals(""))
+				candidates.add(shapeData);
+		}
+		
+		// find all of the overlapping pairs at once, but link them in the
+		// order of the shapes
+		final Map<ShapeData, List<ShapeData>> linked = new HashMap<>();
+		
+		selfJoinShapes(candidates, new SpatialJoin.Listener() {
 			
-			if (shapeData.is1d())
-				continue;
+			@Override
+			public void overlap(int a, int b) {
+				
+				ShapeData shapeData = candidates.get(a);
+				ShapeData other = candidates.get(b);
+				
+				// if the intersection is equal to the area of the smallest, then
+				// we can assume one of them contains the other
+				// .. don't want those to be joined
+				
+				if (!other.symbolName.equals(shapeData.symbolName) || 
+					ShapeData.eitherEncloses(shapeData, other)) {
+					return;
+				}
+				
+				List<ShapeData> others = linked.get(shapeData);
+				if (others == null) {
+					others = new ArrayList<>();
+					linked.put(shapeData, others);
+				}
+				
+				others.add(other);
+			}
+		});
+		
+		for (ShapeData shapeData: candidates) {
 			
-			final String symbolName = shapeData.vertex.getProperty("symbolName");
-			if (symbolName.equals(""))
+			List<ShapeData> others = linked.get(shapeData);
+			if (others == null)
 				continue;
 			
-			Observable<Entry<ShapeData, Rectangle>> entries = rtree.search(shapeData.rtreeBounds);
-			
-			entries.forEach(new Rx.RTreeAction() {
-
-				@Override
-				public void call(Entry<ShapeData, Rectangle> entry) {
-					ShapeData other = entry.value();
-					
-					if (other == shapeData || other.is1d())
-						return;
-					
-					// if the intersection is equal to the area of the smallest, then
-					// we can assume one of them contains the other
-					// .. don't want those to be joined
-					
-					if (!other.vertex.getProperty("symbolName").equals(symbolName) || 
-						ShapeData.eitherEncloses(shapeData, other)) {
-						return;
-					}
-					
-					// but if it doesn't contain, then link them together
-					createEdge(shapeData, other, "linked", null, null);
-				}
-			});
+			// but if it doesn't contain, then link them together
+			for (ShapeData other: others)
+				createEdge(shapeData, other, "linked", null, null);
+		}
+	}
+	
+	// finds every pair of shapes in the list whose bounds intersect in a
+	// single sweep, instead of searching the index once per shape. a is
+	// always less than b
+	protected void selfJoinShapes(List<ShapeData> list, SpatialJoin.Listener listener) {
+		
+		double[] bounds = new double[list.size()*4];
+		int i = 0;
+		
+		for (ShapeData shapeData: list) {
+			Rectangle r = shapeData.rtreeBounds;
+			bounds[i++] = r.x1();
+			bounds[i++] = r.y1();
+			bounds[i++] = r.x2();
+			bounds[i++] = r.y2();
 		}
+		
+		counters.indexQueries++;
+		SpatialJoin.selfJoin(bounds, list.size(), listener);
 	}
 	
 	protected void addGroupLabels() {
@@ -452,54 +636,83 @@ public class VisioPageParser {
 		// additionally, if a shape denotes a group, it is excluded from being
 		// connected to, and its vertex is removed from the tree/shapedata
 		
-		for (final ShapeData shapeData: shapes) {
+		// shapes are compared by their topmost parents below
+		buildGroupForest();
+		
+		// include 1d shapes? no
+		final List<ShapeData> candidates = new ArrayList<>();
+		for (ShapeData shapeData: shapes) {
+			if (!shapeData.is1d())
+				candidates.add(shapeData);
+		}
+		
+		// find every shape that visually contains another in one pass
+		final Map<ShapeData, List<ShapeData>> enclosed = new HashMap<>();
+		
+		selfJoinShapes(candidates, new SpatialJoin.Listener() {
+			
+			@Override
+			public void overlap(int a, int b) {
+				
+				ShapeData s1 = candidates.get(a);
+				ShapeData s2 = candidates.get(b);
+				
+				if (s1.hasText && s1.encloses(s2))
+					addEnclosed(s1, s2);
+				
+				if (s2.hasText && s2.encloses(s1))
+					addEnclosed(s2, s1);
+			}
+			
+			private void addEnclosed(ShapeData shapeData, ShapeData other) {
+				List<ShapeData> others = enclosed.get(shapeData);
+				if (others == null) {
+					others = new ArrayList<>();
+					enclosed.put(shapeData, others);
+				}
+				
+				others.add(other);
+			}
+		});
+		
+		for (ShapeData shapeData: candidates) {
 			
-			if (shapeData.is1d() || !shapeData.hasText)
+			List<ShapeData> others = enclosed.get(shapeData);
+			if (others == null)
 				continue;
 			
-			final boolean inGroup = !shapeData.vertex.getProperty("groupId").equals("");
+			final boolean inGroup = !shapeData.groupId.equals("");
 			
 			final ShapeData topmostParent = findTopmostParentWithGeom(shapeData);
 			
 			final ArrayList<ShapeData> containedShapes = new ArrayList<>();
 			final ArrayList<ShapeData> secondaryShapes = new ArrayList<>();
 			
-			Observable<Entry<ShapeData, Rectangle>> entries = rtree.search(shapeData.rtreeBounds);
-			
-			entries.forEach(new Rx.RTreeAction() {
-
-				@Override
-				public void call(Entry<ShapeData, Rectangle> e) {
-					ShapeData other = e.value();
-					
-					// include 1d shapes? no
-					if (other == shapeData || other.is1d())
-						return;
-					
-					// if it visually contains it
-					if (shapeData.encloses(other)) {
-						
-						// ok, what to do here.
-						// -- problem: two hierarchies present here
-						
-						// AND if they're not in the same hierarchy.. unless one is the topmost parent
-						if (!inGroup && (topmostParent == null || topmostParent != findTopmostParentWithGeom(other))) { 
-							containedShapes.add(other);
-						} else {
-							secondaryShapes.add(other);
-						}
-					}
+			for (ShapeData other: others) {
+				
+				// groups found earlier are gone
+				if (other.removed)
+					continue;
+				
+				// ok, what to do here.
+				// -- problem: two hierarchies present here
+				
+				// AND if they're not in the same hierarchy.. unless one is the topmost parent
+				if (!inGroup && (topmostParent == null || topmostParent != findTopmostParentWithGeom(other))) { 
+					containedShapes.add(other);
+				} else {
+					secondaryShapes.add(other);
 				}
-			});
+			}
 			
 			if (!containedShapes.isEmpty()) {
 				
-				String groupName = shapeData.vertex.getProperty("label");
-				Object groupId = shapeData.vertex.getId();
+				String groupName = shapeData.label;
+				String groupId = getVertexId(shapeData);
 				
 				for (ShapeData other: containedShapes) {
-					other.vertex.setProperty("group", groupName);
-					other.vertex.setProperty("groupId", groupId);
+					other.group = groupName;
+					other.groupId = groupId;
 				}
 				
 				// store group information for later usage
@@ -515,9 +728,9 @@ public class VisioPageParser {
 			} else if (!secondaryShapes.isEmpty()) {
 				
 				for (ShapeData other: secondaryShapes) {
-					other.vertex.setProperty("inSecondaryGroup", true);
+					other.inSecondaryGroup = true;
 					// TODO: technically, could be part of multiple secondary groups...
-					other.vertex.setProperty("secondaryGroup", shapeData.vertex.getProperty("label"));
+					other.secondaryGroup = shapeData.label;
 				}
 				
 				// this is a secondary group, it doesn't get removed from the graph yet
@@ -563,11 +776,7 @@ public class VisioPageParser {
 		// connected, and connect them
 		//
 		
-		for (ShapeData shapeData: shapes) {
-			if (shapeData.is1d()) {
-				infer1dConnections(shapeData);
-			}
-		}
+		infer1dConnections();
 		
 		// next, try to collect all 1d networks, and replace the lines
 		// with new lines more fully representing the connectedness of
@@ -592,46 +801,51 @@ public class VisioPageParser {
 		final Set<ShapeData> connections = new HashSet<>();
 		
 		// create a list of real things that I'm attached to
-		final Set<Vertex> attached = Sets.newHashSet(shapeData.vertex.getVertices(Direction.BOTH, "real"));
+		final Set<ShapeData> attached = new HashSet<>();
+		for (int i = 0; i < shapeGraph.degree(shapeData); i++) {
+			int edge = shapeGraph.edge(shapeData, i);
+			if (shapeGraph.label(edge).equals("real"))
+				attached.add(shapeGraph.other(edge, shapeData));
+		}
 		
 		// identify any shapes that it overlaps with
 		// add that shape to the list of connections
-		Observable<Entry<ShapeData, Rectangle>> entries = rtree.search(shapeData.rtreeBounds);
-		
-		entries.subscribe(new Rx.RTreeSubscriber() {
+		searchIndex(shapeData.rtreeBounds, new SpatialIndex.Visitor<ShapeData>() {
 
 			@Override
-			public void onNext(Entry<ShapeData, Rectangle> e) {
+			public boolean visit(ShapeData other) {
 				
-				ShapeData other = e.value();
 				if (other == shapeData)
-					return;
+					return true;
 				
 				// discard 1d shapes, textboxes, shapes that are already attached, or shapes
 				// that don't intersect
 				if (other.is1d() || other.isTextbox)
-					return;
+					return true;
 				
 				// Don't create new connections to things it's already attached to
-				if (attached.contains(other.vertex))
-					return;
+				if (attached.contains(other))
+					return true;
 				
-				if (!GeomUtils.pathIntersects(shapeData.path1D, other.path2D))
-					return;
+				counters.geometryCalls++;
+				if (!GeomUtils.pathIntersects(shapeData.getSegments(), other.getSegments()))
+					return true;
 				
 				// if we get here, then we've inferred a new connection
 				
 				// if either of this line's endpoints are inside the 2d shape,
 				// then just create a connection and be done with it
-				if (GeomUtils.isInsideOrOnBoundary(other.path2D, shapeData.path1Dstart)) {
+				if (isInsideOrOnBoundary(other, shapeData.path1Dstart)) {
 					Point2D p = shapeData.path1Dstart;
 					createEdge(shapeData, other, "inferred-2d", p.getX(), p.getY());
-				} else if (GeomUtils.isInsideOrOnBoundary(other.path2D, shapeData.path1Dend)) {
+				} else if (isInsideOrOnBoundary(other, shapeData.path1Dend)) {
 					Point2D p = shapeData.path1Dend;
 					createEdge(shapeData, other, "inferred-2d", p.getX(), p.getY());
 				} else {
 					connections.add(other);
 				}
+				
+				return true;
 			}
 		});
 		
@@ -648,11 +862,10 @@ public class VisioPageParser {
 		List<ShapeData> connectedToEnd = new LinkedList<>();
 		
 		
-		for (Edge edge: shapeData.vertex.getEdges(Direction.BOTH)) {
-			ShapeData in = getShapeFromEdge(edge, Direction.IN);
-			ShapeData out = getShapeFromEdge(edge, Direction.OUT);
+		for (int edge: shapeGraph.edges(shapeData)) {
+			ShapeData in = getShapeFromEdge(edge, true);
+			ShapeData out = getShapeFromEdge(edge, false);
 			ShapeData other;
-			Path2D otherPath;
 			
 			if (in != shapeData) {
 				other = in;
@@ -662,16 +875,14 @@ public class VisioPageParser {
 				throw new POIXMLException("Internal error processing existing connections");
 			}
 			
-			otherPath = other.getPath();
-			
-			if (GeomUtils.isInsideOrOnBoundary(otherPath, shapeData.path1Dstart))
+			if (isInsideOrOnBoundary(other, shapeData.path1Dstart))
 				connectedToStart.add(other);
-			else if (GeomUtils.isInsideOrOnBoundary(otherPath, shapeData.path1Dend))
+			else if (isInsideOrOnBoundary(other, shapeData.path1Dend))
 				connectedToEnd.add(other);
 			else
 				connections.add(in);
 				
-			graph.removeEdge(edge);
+			removeEdge(edge);
 		}
 		
 		// at this point, all items in connections must be in the middle somewhere,
@@ -688,6 +899,8 @@ public class VisioPageParser {
 		
 		PathIterator pit = shapeData.path1D.getPathIterator(null, 0.01);
 		double[] coords = new double[6];
+		double[] intersectionPt = new double[2];
+		List<Point2D> points = new ArrayList<>();
         double lastX = 0, lastY = 0;
         final Point2D firstPt = shapeData.path1Dstart;
         
@@ -711,20 +924,18 @@ public class VisioPageParser {
             		break;
             	case PathIterator.SEG_LINETO:
             		
-            		Line2D.Double line = new Line2D.Double(lastX, lastY,
-							   coords[0], coords[1]);
-            		
             		List<IntersectionData> intersections = new ArrayList<>();
             		
             		for (ShapeData connectedShape: connections) {
             			
-            			List<Point2D> points = new LinkedList<>();
+            			points.clear();
+            			counters.geometryCalls++;
+            			GeomUtils.findIntersections(connectedShape.getSegments(), lastX, lastY, coords[0], coords[1],
+            			                            points, intersectionPt);
             			
-            			if (GeomUtils.findIntersections(connectedShape.getPath(), line, points, 0.01)) {
-            				// found a split point, add it to the list
-            				for (Point2D point: points) {
-            					intersections.add(new IntersectionData(connectedShape, point));
-            				}
+            			// found a split point, add it to the list
+            			for (Point2D point: points) {
+            				intersections.add(new IntersectionData(connectedShape, point));
             			}
             		}
             		
@@ -764,7 +975,8 @@ public class VisioPageParser {
 	            			
 	            			// see if this is closest to the text
 	            			if (shapeData.hasText) {
-		            			double thisTextDistance = GeomUtils.pathDistance(thisShape.path1D, textCenter);
+		            			counters.geometryCalls++;
+		            			double thisTextDistance = GeomUtils.pathDistance(thisShape.getSegments(), textCenter.getX(), textCenter.getY());
 		            			if (thisTextDistance < textDistance)
 		            				textShape = thisShape;
 	            			}
@@ -810,16 +1022,17 @@ public class VisioPageParser {
 		
 		// see if this is closest to the text
 		if (shapeData.hasText) {
-			double thisTextDistance = GeomUtils.pathDistance(thisShape.path1D, textCenter);
+			counters.geometryCalls++;
+			double thisTextDistance = GeomUtils.pathDistance(thisShape.getSegments(), textCenter.getX(), textCenter.getY());
 			if (thisTextDistance < textDistance)
 				textShape = thisShape;
 			
 			// ok, now that it's done, reassociate the text
 			textShape.hasText = true;
 			textShape.textCenter = shapeData.textCenter;
-			textShape.vertex.setProperty("label", shapeData.vertex.getProperty("label"));
-			textShape.vertex.setProperty("textRef", shapeData.shapeId);
-			textShape.vertex.setProperty("textRefWhy", "reassign2dClosest");
+			textShape.label = shapeData.label;
+			textShape.textRef = shapeData.shapeId;
+			textShape.textRefWhy = "reassign2dClosest";
 			
 			helper.onAssignText(shapeData, textShape);
 		}
@@ -832,65 +1045,257 @@ public class VisioPageParser {
 		removeShape(shapeData);
 	}
 	
-	protected void infer1dConnections(final ShapeData shapeData) {
+	protected void infer1dConnections() {
 		
-		// create a list of things that I'm attached to
-		final Set<Vertex> attached = Sets.newHashSet(shapeData.vertex.getVertices(Direction.BOTH));
+		final List<ShapeData> lines = new ArrayList<>();
+		SegmentSweep sweep = new SegmentSweep();
 		
-		// identify any shapes that it overlaps with
-		// add that shape to the list of connections
-		Observable<Entry<ShapeData, Rectangle>> entries = rtree.search(shapeData.rtreeBounds);
+		for (ShapeData shapeData: shapes) {
+			if (shapeData.is1d()) {
+				lines.add(shapeData);
+				sweep.add(shapeData.getRawSegments());
+			}
+		}
+		
+		// for each pair of lines that intersect, keep the first intersection
+		// along the earlier line: segment on that line, segment on the other
+		// line, x, y. Keyed by the pair, so the edges are created in order
+		final Map<Long, double[]> crossings = new TreeMap<>();
+		final double[] pt = new double[2];
 		
-		entries.subscribe(new Rx.RTreeSubscriber() {
+		sweep.run(new SegmentSweep.Listener() {
 			
 			@Override
-			public void onNext(Entry<ShapeData, Rectangle> e) {
-				
-				ShapeData other = e.value();
+			public void overlap(int a, int segA, int b, int segB) {
 				
-				if (other == shapeData || other.removed || !other.is1d() || attached.contains(other.vertex))
-					return;
+				ShapeData shapeData = lines.get(a);
+				ShapeData other = lines.get(b);
 				
 				// don't infer connections between lines of different colors
 				// or different line patterns
-				if (!shapeData.lineColor.equals(other.lineColor) || shapeData.linePattern != other.linePattern) {
+				if (!Objects.equals(shapeData.lineColor, other.lineColor) || !Objects.equals(shapeData.linePattern, other.linePattern)) {
 					return;
 				}
 				
-				// compute if they intersect
-				List<Point2D> intersections = new ArrayList<>();
+				Long key = ((long)a << 32) | b;
+				double[] crossing = crossings.get(key);
+				
+				if (crossing != null && (crossing[0] < segA || (crossing[0] == segA && crossing[1] < segB)))
+					return;
 				
-				if (!GeomUtils.findIntersections(shapeData.path1D, other.path1D, intersections, null)) {
+				counters.geometryCalls++;
+				if (!intersect1d(shapeData.getRawSegments(), segA, other.getRawSegments(), segB, pt))
 					return;
+				
+				if (crossing == null) {
+					crossing = new double[4];
+					crossings.put(key, crossing);
 				}
 				
-				// TODO
-				// if they are both dynamic connectors, don't create connections
-				// unless their intersection is at the end of a line?
-				// alternatively, try to check if the intersection happens at an
-				// 'arcto' point. if so, discard, as that's a 'clear' visual indicator
-				// that it should not be connected
-				
-				// ok, we've gotten here, create a connection between the two lines
-				// -> connection point is first point.. not sure what to do with other points
-				Point2D intersection = intersections.get(0);
-				createEdge(shapeData, other, "inferred-1d", intersection.getX(), intersection.getY());
+				crossing[0] = segA;
+				crossing[1] = segB;
+				crossing[2] = pt[0];
+				crossing[3] = pt[1];
 			}
 		});
+		
+		// TODO
+		// if they are both dynamic connectors, don't create connections
+		// unless their intersection is at the end of a line?
+		// alternatively, try to check if the intersection happens at an
+		// 'arcto' point. if so, discard, as that's a 'clear' visual indicator
+		// that it should not be connected
+		
+		// ok, create a connection between each pair of lines
+		// -> connection point is first point.. not sure what to do with other points
+		for (Map.Entry<Long, double[]> entry: crossings.entrySet()) {
+			
+			long key = entry.getKey();
+			double[] crossing = entry.getValue();
+			
+			ShapeData shapeData = lines.get((int)(key >>> 32));
+			ShapeData other = lines.get((int)key);
+			
+			createEdge(shapeData, other, "inferred-1d", crossing[2], crossing[3]);
+		}
+	}
+	
+	// tests segment i of s1 against segment j of s2 and stores the point
+	// where they meet in pt
+	protected static boolean intersect1d(Segments s1, int i, Segments s2, int j, double[] pt) {
+		
+		if (s1.isPoint(i)) {
+			double px = s1.x1(i), py = s1.y1(i);
+			
+			if (s2.isPoint(j) ? (s2.x1(j) == px && s2.y1(j) == py) :
+				                Line2D.ptSegDist(s2.x1(j), s2.y1(j), s2.x2(j), s2.y2(j), px, py) == 0.0) {
+				pt[0] = px;
+				pt[1] = py;
+				return true;
+			}
+			
+			return false;
+		}
+		
+		if (s2.isPoint(j)) {
+			double qx = s2.x1(j), qy = s2.y1(j);
+			
+			if (Line2D.ptSegDist(s1.x1(i), s1.y1(i), s1.x2(i), s1.y2(i), qx, qy) == 0.0) {
+				pt[0] = qx;
+				pt[1] = qy;
+				return true;
+			}
+			
+			return false;
+		}
+		
+		return GeomUtils.getLineIntersection(s2.x1(j), s2.y1(j), s2.x2(j), s2.y2(j),
+		                                     s1.x1(i), s1.y1(i), s1.x2(i), s1.y2(i), pt);
 	}
 	
 	protected void associateText() {
 		
-		// ordered by largest first
+		if (helper.useBatchedTextAssignment()) {
+			associateTextBatched();
+		} else {
+		
+			// ordered by largest first
+			for (ShapeData shapeData: shapes) {
+				
+				if (!shapeData.isTextbox)
+					continue;
+				
+				associateTextboxWithShape(shapeData);
+			}
+		}
+		
+		cleanShapes();
+	}
+	
+	// a textbox and a shape it could be assigned to
+	protected static class TextCandidate {
+		
+		final ShapeData textBox;
+		final ShapeData other;
+		final double distance;
+		final boolean encloses;
+		
+		TextCandidate(ShapeData textBox, ShapeData other, double distance, boolean encloses) {
+			this.textBox = textBox;
+			this.other = other;
+			this.distance = distance;
+			this.encloses = encloses;
+		}
+	}
+	
+	/**
+	 * Finds all of the textbox/shape pairs in a single join, then assigns
+	 * them greedily: shapes that don't enclose the textbox first, closest
+	 * first, ties broken by shape id. Each textbox and each shape is used
+	 * at most once.
+	 */
+	protected void associateTextBatched() {
+		
+		final List<ShapeData> textBoxes = new ArrayList<>();
+		final List<ShapeData> others = new ArrayList<>();
+		
 		for (ShapeData shapeData: shapes) {
+			if (shapeData.isTextbox)
+				textBoxes.add(shapeData);
+			if (!shapeData.hasText)
+				others.add(shapeData);
+		}
+		
+		if (textBoxes.isEmpty() || others.isEmpty())
+			return;
+		
+		// textboxes are grown by their inference distance
+		final double[] textBounds = new double[textBoxes.size()*4];
+		final double[] maxDistance = new double[textBoxes.size()];
+		
+		for (int i = 0; i < textBoxes.size(); i++) {
+			ShapeData textBox = textBoxes.get(i);
+			Rectangle r = textBox.rtreeBounds;
+			double d = helper.textInferenceDistance(textBox);
+			
+			maxDistance[i] = d;
+			textBounds[i*4] = r.x1() - d;
+			textBounds[i*4 + 1] = r.y1() - d;
+			textBounds[i*4 + 2] = r.x2() + d;
+			textBounds[i*4 + 3] = r.y2() + d;
+		}
+		
+		double[] otherBounds = new double[others.size()*4];
+		for (int i = 0; i < others.size(); i++) {
+			Rectangle r = others.get(i).rtreeBounds;
+			otherBounds[i*4] = r.x1();
+			otherBounds[i*4 + 1] = r.y1();
+			otherBounds[i*4 + 2] = r.x2();
+			otherBounds[i*4 + 3] = r.y2();
+		}
+		
+		final List<TextCandidate> candidates = new ArrayList<>();
+		
+		counters.indexQueries++;
+		SpatialJoin.join(textBounds, textBoxes.size(), otherBounds, others.size(), new SpatialJoin.Listener() {
 			
-			if (!shapeData.isTextbox || shapeData.removed)
+			@Override
+			public void overlap(int a, int b) {
+				
+				ShapeData textBox = textBoxes.get(a);
+				ShapeData other = others.get(b);
+				
+				if (other == textBox)
+					return;
+				
+				// the join only checks the grown bounds
+				double distance = distance(textBox.rtreeBounds, other.rtreeBounds);
+				if (distance >= maxDistance[a])
+					return;
+				
+				if (!helper.onTextInference(textBox, other))
+					return;
+				
+				candidates.add(new TextCandidate(textBox, other, distance, other.encloses(textBox)));
+			}
+		});
+		
+		// if it encloses it, only associate if there's nothing else
+		Collections.sort(candidates, new Comparator<TextCandidate>() {
+			
+			@Override
+			public int compare(TextCandidate c1, TextCandidate c2) {
+				
+				if (c1.encloses != c2.encloses)
+					return c1.encloses ? 1 : -1;
+				
+				int cmp = Double.compare(c1.distance, c2.distance);
+				if (cmp != 0)
+					return cmp;
+				
+				cmp = Long.compare(c1.textBox.shapeId, c2.textBox.shapeId);
+				if (cmp != 0)
+					return cmp;
+				
+				return Long.compare(c1.other.shapeId, c2.other.shapeId);
+			}
+		});
+		
+		for (TextCandidate candidate: candidates) {
+			
+			// assigned textboxes are removed, assigned shapes have text
+			if (candidate.textBox.removed || candidate.other.removed || candidate.other.hasText)
 				continue;
 			
-			associateTextboxWithShape(shapeData);
+			doAssociateTextboxWithShape(candidate.textBox, candidate.other);
 		}
-		
-		cleanShapes();
+	}
+	
+	// euclidean distance between two rectangles, zero if they intersect
+	protected static double distance(Rectangle r1, Rectangle r2) {
+		double dx = Math.max(0, Math.max(r1.x1() - r2.x2(), r2.x1() - r1.x2()));
+		double dy = Math.max(0, Math.max(r1.y1() - r2.y2(), r2.y1() - r1.y2()));
+		return Math.sqrt(dx*dx + dy*dy);
 	}
 	
 	
@@ -901,62 +1306,64 @@ public class VisioPageParser {
 		
 		// limit the search to some reasonable number/distance (TODO: what is reasonable)
 		
-		Observable<Entry<ShapeData, Rectangle>> entries = SpatialTools.nearest(rtree, textBox.rtreeBounds, helper.textInferenceDistance(textBox), rtree.size());
+		final Rectangle r = textBox.rtreeBounds;
+		final ShapeData[] found = {null, null};	// match, first enclosing
 		
-		final List<ShapeData> maybe = new ArrayList<>();
-		
-		entries.subscribe(new Rx.RTreeSubscriber() {
+		// closest first, and stop as soon as there's a match
+		searchIndexNearest(r, helper.textInferenceDistance(textBox), new SpatialIndex.Visitor<ShapeData>() {
 			
 			@Override
-			public void onNext(Entry<ShapeData, Rectangle> e) {
+			public boolean visit(ShapeData other) {
 				
-				ShapeData other = e.value();
+				if (other == textBox || other.hasText || other.removed)
+					return true;
 				
-				if (other == textBox || other.hasText || other.removed || !helper.onTextInference(textBox, other))
-					return;
+				if (!helper.onTextInference(textBox, other))
+					return true;
 				
 				// if it encloses it, only associate if there's nothing else closer
 				if (other.encloses(textBox)) {
-					if (maybe.isEmpty())
-						maybe.add(other);
+					if (found[1] == null)
+						found[1] = other;
 					
-					return;
+					return true;
 				}
 				
-				doAssociateTextboxWithShape(textBox, other);
-				maybe.clear();
-				
 				// TODO: probably want to be more intelligent, and assign the text to
 				//       things that are nearer in a particular direction, taking 
 				//       advantage of how a human might naturally align the text..
 				
-				// done with this
-				unsubscribe();
+				found[0] = other;
+				return false;
 			}
 		});
 		
+		// the index can't be changed during the search
+		if (found[0] != null)
+			doAssociateTextboxWithShape(textBox, found[0]);
+		
 		// if we didn't find any alternatives, associate the first one that enclosed
-		if (!maybe.isEmpty())
-			doAssociateTextboxWithShape(textBox, maybe.get(0));
+		else if (found[1] != null)
+			doAssociateTextboxWithShape(textBox, found[1]);
 	}
 	
 	protected void doAssociateTextboxWithShape(ShapeData textBox, ShapeData other) {
-		other.vertex.setProperty("label", textBox.vertex.getProperty("label"));
-		other.vertex.setProperty("textRef", textBox.shapeId);
-		other.vertex.setProperty("textRefWhy", "associateWithShape");
+		other.label = textBox.label;
+		other.textRef = textBox.shapeId;
+		other.textRefWhy = "associateWithShape";
 		other.hasText = true;
 		other.textCenter = textBox.textCenter;
 		
 		// move any edges from the textbox to us
-		for (Edge edge: textBox.vertex.getEdges(Direction.BOTH)) {
+		for (int edge: shapeGraph.edges(textBox)) {
 			
-			ShapeData in = getShapeFromEdge(edge, Direction.IN);
-			ShapeData out = getShapeFromEdge(edge, Direction.OUT);
+			ShapeData in = getShapeFromEdge(edge, true);
+			ShapeData out = getShapeFromEdge(edge, false);
 			
 			if (in != other && out != other) {
 				
-				Double x = edge.getProperty("x");
-				Double y = edge.getProperty("y");
+				Double x = getEdgeX(edge);
+				Double y = getEdgeY(edge);
 				
 				if (in == textBox)
 					createEdge(out, other, "reparent", x, y);
@@ -966,7 +1373,7 @@ public class VisioPageParser {
 					throw new POIXMLException("Internal error");
 			}
 			
-			graph.removeEdge(edge);
+			removeEdge(edge);
 		}
 		
 		helper.onAssignText(textBox, other);
@@ -1009,17 +1416,13 @@ public class VisioPageParser {
 				continue;
 			
 			final List<ShapeData> connections = new ArrayList<>();
-			final Path2D groupPath = groupData.group.getPath();
+			final Segments groupSegments = groupData.group.getSegments();
 			
 			// secondary groups are still in the graph, so they probably have vertices
 			// associated with them
-			for (Edge e: groupData.group.vertex.getEdges(Direction.BOTH)) {
-				
-				Vertex v = e.getVertex(Direction.IN);
-				if (v == groupData.group.vertex)
-					v = e.getVertex(Direction.OUT);
+			for (int e: shapeGraph.edges(groupData.group)) {
 				
-				ShapeData other = getShape((long)v.getProperty("shapeId"));
+				ShapeData other = shapeGraph.other(e, groupData.group);
 				
 				if (!other.is1d())
 					continue;
@@ -1027,21 +1430,19 @@ public class VisioPageParser {
 				boolean has2dConnection = false;
 				
 				// check to see if it is connected to a 2d shape that overlaps this shape
-				for (Vertex vv: v.getVertices(Direction.BOTH)) {
-					if (vv == groupData.group.vertex)
+				for (int i = 0; i < shapeGraph.degree(other); i++) {
+					ShapeData oo = shapeGraph.other(shapeGraph.edge(other, i), other);
+					if (oo == groupData.group || oo.is1d())
 						continue;
 					
-					ShapeData oo = getShape((long)vv.getProperty("shapeId"));
-					if (oo.is1d())
-						continue;
-					
-					if (GeomUtils.pathIntersects(groupPath, oo.getPath()))
+					counters.geometryCalls++;
+					if (GeomUtils.pathIntersects(groupSegments, oo.getSegments()))
 						has2dConnection = true;
 				}
 				
-				if (!e.getLabel().startsWith("real") &&
-					!GeomUtils.pathIntersects(groupPath, other.path1Dstart) &&
-					!GeomUtils.pathIntersects(groupPath, other.path1Dend) &&
+				if (!shapeGraph.label(e).startsWith("real") &&
+					!pathIntersects(groupSegments, other.path1Dstart) &&
+					!pathIntersects(groupSegments, other.path1Dend) &&
 					!has2dConnection) {
 					continue;
 				}
@@ -1070,10 +1471,10 @@ public class VisioPageParser {
 			if (child.removed || !child.hasText || child.is1d())
 				continue;
 			
-			if (ignoreSecondary && child.vertex.getProperty("inSecondaryGroup").equals(true))
+			if (ignoreSecondary && child.inSecondaryGroup)
 				continue;
 			
-			if (!child.vertex.getEdges(Direction.BOTH).iterator().hasNext())
+			if (shapeGraph.degree(child) == 0)
 				disconnectedShapes += 1;
 			
 			totalShapes += 1;
@@ -1087,18 +1488,15 @@ public class VisioPageParser {
 	protected void inferDisconnectedGroupConnections(final GroupData groupData, final List<ShapeData> connections, final boolean ignore1d) {
 		// identify any shapes that the group overlaps with
 		// add that shape to the list of connections
-		Observable<Entry<ShapeData, Rectangle>> entries = rtree.search(groupData.group.rtreeBounds);
-		
-		final Path2D groupPath = groupData.group.getPath();
+		final Segments groupSegments = groupData.group.getSegments();
 		
-		entries.subscribe(new Rx.RTreeSubscriber() {
+		searchIndex(groupData.group.rtreeBounds, new SpatialIndex.Visitor<ShapeData>() {
 
 			@Override
-			public void onNext(Entry<ShapeData, Rectangle> e) {
+			public boolean visit(ShapeData other) {
 				
-				ShapeData other = e.value();
 				if (other == groupData.group)
-					return;
+					return true;
 				
 				if (other.is1d()) {
 					
@@ -1106,24 +1504,27 @@ public class VisioPageParser {
 					//       -- but only matches on the end segments matching
 					
 					if (ignore1d)
-						return;
+						return true;
 					
 					// check to see if one of the endpoints of the 1d shape intersects
 					// with the group
-					if (!GeomUtils.pathIntersects(groupPath, other.path1Dstart) &&
-					    !GeomUtils.pathIntersects(groupPath, other.path1Dend)) {
-						return;
+					if (!pathIntersects(groupSegments, other.path1Dstart) &&
+					    !pathIntersects(groupSegments, other.path1Dend)) {
+						return true;
 					}
 					
 				} else {
 					
-					if (!other.vertex.getVertices(Direction.BOTH).iterator().hasNext() ||  
-						!GeomUtils.pathIntersects(groupPath, other.path2D)) {
-						return;
+					counters.geometryCalls++;
+					if (shapeGraph.degree(other) == 0 ||  
+						!GeomUtils.pathIntersects(groupSegments, other.getSegments())) {
+						return true;
 					}
 				}
 				
 				connections.add(other);
+				
+				return true;
 			}
 		});
 	}
@@ -1163,24 +1564,22 @@ public class VisioPageParser {
 			Set<Long> collected2dObjects = null;
 			
 			// get the connection point from the edge properties
-			for (Edge edge: shape.vertex.getEdges(Direction.BOTH)) {
-				Double x = edge.getProperty("x");
-				if (x == null)
+			for (int edge: shapeGraph.edges(shape)) {
+				if (!shapeGraph.hasPoint(edge))
 					continue;
 				
-				Double y = edge.getProperty("y");
+				double x = shapeGraph.x(edge);
+				double y = shapeGraph.y(edge);
 				
 				// ok, the other end must be a 1d object. Find the object.
 				// Find all 2d objects that I'm connected to, and see if the
 				// other object is connected to any of them.
 				
 				if (collected2dObjects == null)
-					collected2dObjects = collect2dObjects(shape.vertex);
+					collected2dObjects = collect2dObjects(shape);
 				
 				// if both connected to the same object, see if the x/y overlaps
-				Vertex other = edge.getVertex(Direction.IN);
-				if (other == shape.vertex)
-					other = edge.getVertex(Direction.OUT);
+				ShapeData other = shapeGraph.other(edge, shape);
 				
 				Set<Long> other2dObjects = collect2dObjects(other);
 				
@@ -1189,7 +1588,7 @@ public class VisioPageParser {
 						ShapeData sd = getShape(o);
 						if (sd.bounds.intersects(x - 0.00001, y - 0.00001, 0.00002, 0.00002)) {
 							// remove edge if it overlaps
-							edge.remove();
+							removeEdge(edge);
 						}
 					}
 				}
@@ -1197,15 +1596,16 @@ public class VisioPageParser {
 		}
 	}
 	
-	Set<Long> collect2dObjects(Vertex v) {
+	Set<Long> collect2dObjects(ShapeData shapeData) {
 		
 		Set<Long> collected = new HashSet<>();
 		
-		for (Vertex other: v.getVertices(Direction.BOTH)) {
-			if (other.getProperty("is1d"))
+		for (int i = 0; i < shapeGraph.degree(shapeData); i++) {
+			ShapeData other = shapeGraph.other(shapeGraph.edge(shapeData, i), shapeData);
+			if (other.isShape1D)
 				continue;
 			
-			collected.add((Long)other.getProperty("shapeId"));
+			collected.add(other.shapeId);
 		}
 		
 		return collected;
@@ -1213,15 +1613,19 @@ public class VisioPageParser {
 	
 	
 	protected void createEdge(XDGFShape shape1, XDGFShape shape2, String edgeType, Double x, Double y) {
+		createEdge(shape1.getID(), shape2.getID(), edgeType, x, y);
+	}
+	
+	protected void createEdge(long shapeId1, long shapeId2, String edgeType, Double x, Double y) {
 		
-		ShapeData sd1 = findShapeOrParent(shape1.getID());
-		ShapeData sd2 = findShapeOrParent(shape2.getID());
+		ShapeData sd1 = findShapeOrParent(shapeId1);
+		ShapeData sd2 = findShapeOrParent(shapeId2);
 		
 		if (sd1 == null) 
-			throw new POIXMLException("Cannot find from node " + shape1.getID());
+			throw new POIXMLException("Cannot find from node " + shapeId1);
 		
 		if (sd2 == null) 
-			throw new POIXMLException("Cannot find to node " + shape2.getID());
+			throw new POIXMLException("Cannot find to node " + shapeId2);
 		
 		// TODO: how to deal with from/to being null? Might happen.
 		createEdge(sd1, sd2, edgeType, x, y);
@@ -1244,19 +1648,32 @@ public class VisioPageParser {
 			to = sd1;
 		}
 		
-		String eId = getConnId(from, to);
-		
-		Edge edge = graph.getEdge(eId);
-		if (edge == null) {
-			edge = graph.addEdge(eId, from.vertex, to.vertex, edgeType);
+		// the string id is only created when the graph is exported
+		if (shapeGraph.findEdge(from, to) == ShapeGraph.NO_EDGE) {
+			if (x != null && y != null)
+				shapeGraph.addEdge(from, to, edgeType, x, y);
+			else
+				shapeGraph.addEdge(from, to, edgeType, Double.NaN, Double.NaN);
 			
-			if (x != null && y != null) {
-				edge.setProperty("x", x);
-				edge.setProperty("y", y);
-			}
+			counters.edgesCreated++;
 		}
 	}
 	
+	protected void removeEdge(int edge) {
+		if (!shapeGraph.isRemoved(edge)) {
+			shapeGraph.removeEdge(edge);
+			counters.edgesRemoved++;
+		}
+	}
+	
+	protected Double getEdgeX(int edge) {
+		return shapeGraph.hasPoint(edge) ? shapeGraph.x(edge) : null;
+	}
+	
+	protected Double getEdgeY(int edge) {
+		return shapeGraph.hasPoint(edge) ? shapeGraph.y(edge) : null;
+	}
+	
 	protected ShapeData getShape(long id) {
 		ShapeData sd = shapesMap.get(id);
 		if (sd != null && !sd.removed)
@@ -1272,14 +1689,11 @@ public class VisioPageParser {
 			return sd;
 		
 		// find a parent that is in the graph already
-		XDGFShape shape = pageContents.getShapeById(id);
+		Long parentId = getParentId(id);
 		
-		while (sd == null) {
-			shape = shape.getParentShape();
-			if (shape == null)
-				break;
-			
-			sd = getShape(shape.getID());
+		while (sd == null && parentId != null) {
+			sd = getShape(parentId);
+			parentId = getParentId(parentId);
 		}
 		
 		return sd;
@@ -1287,23 +1701,140 @@ public class VisioPageParser {
 	
 	protected ShapeData findTopmostParentWithGeom(ShapeData shapeData) {
 		
+		int node = groupForest == null ? -1 : groupForestNodes.get(shapeData.shapeId, -1);
+		
+		if (node != -1) {
+			
+			int parent = groupForest.parent(node);
+			if (parent != Forest.NO_PARENT) {
+				ShapeData topmost = findTopmostWithGeom(parent);
+				if (topmost != null)
+					return topmost;
+			}
+			
+			return shapeData.hasGeometry ? shapeData : null;
+		}
+		
+		// not in the hierarchy, so walk the parents
 		ShapeData shapeWithGeom = (shapeData.hasGeometry ? shapeData: null);
 		
-		XDGFShape shape = pageContents.getShapeById(shapeData.shapeId);
+		Long parentId = getParentId(shapeData.shapeId);
 		
-		while (true) {
-			shape = shape.getParentShape();
-			if (shape == null)
-				break;
-			
-			shapeData = getShape(shape.getID());
+		while (parentId != null) {
+			shapeData = getShape(parentId);
 			if (shapeData != null && shapeData.hasGeometry)
 				shapeWithGeom = shapeData;
+			
+			parentId = getParentId(parentId);
 		}
 		
 		return shapeWithGeom;
 	}
 	
+	// the topmost shape with geometry that's still in the graph, from the
+	// node and its ancestors. Only the ancestors without a cached answer are
+	// walked, and they're cached on the way back, so a node is walked again
+	// only after a removal clears its subtree
+	protected ShapeData findTopmostWithGeom(int node) {
+		
+		int[] path = topmostPath;
+		int count = 0;
+		
+		while (node != Forest.NO_PARENT && !topmostKnown[groupForest.enter(node)]) {
+			path[count++] = node;
+			node = groupForest.parent(node);
+		}
+		
+		ShapeData topmost = (node == Forest.NO_PARENT ? null : topmostWithGeom[groupForest.enter(node)]);
+		
+		// walk back down, the first shape with geometry is the topmost
+		for (int i = count - 1; i >= 0; i--) {
+			
+			if (topmost == null) {
+				ShapeData shapeData = getShape(groupForestIds[path[i]]);
+				if (shapeData != null && shapeData.hasGeometry)
+					topmost = shapeData;
+			}
+			
+			int position = groupForest.enter(path[i]);
+			topmostWithGeom[position] = topmost;
+			topmostKnown[position] = true;
+		}
+		
+		return topmost;
+	}
+	
+	// builds the group hierarchy of the current shapes, including any
+	// ancestors that aren't shapes themselves
+	protected void buildGroupForest() {
+		
+		LongIntHashMap nodes = new LongIntHashMap(shapes.size()*2);
+		long[] ids = new long[Math.max(16, shapes.size())];
+		int[] parents = new int[ids.length];
+		int n = 0;
+		
+		for (ShapeData shapeData: shapes) {
+			
+			int child = -1;
+			Long current = shapeData.shapeId;
+			
+			// stop at the first ancestor that's already known
+			while (current != null) {
+				
+				int node = nodes.get(current, -1);
+				if (node == -1) {
+					
+					if (n == ids.length) {
+						ids = Arrays.copyOf(ids, n*2);
+						parents = Arrays.copyOf(parents, n*2);
+					}
+					
+					node = n++;
+					ids[node] = current;
+					parents[node] = Forest.NO_PARENT;
+					nodes.put(current, node);
+					
+					current = getParentId(current);
+				} else {
+					current = null;
+				}
+				
+				if (child != -1)
+					parents[child] = node;
+				
+				child = node;
+			}
+		}
+		
+		groupForest = new Forest(Arrays.copyOf(parents, n));
+		groupForestIds = Arrays.copyOf(ids, n);
+		groupForestNodes = nodes;
+		
+		topmostWithGeom = new ShapeData[n];
+		topmostKnown = new boolean[n];
+		topmostPath = new int[n];
+	}
+	
+	// the id of the shape's parent, or null if it's at the top of the page
+	protected Long getParentId(long shapeId) {
+		XDGFShape parent = pageContents.getShapeById(shapeId).getParentShape();
+		return parent == null ? null : parent.getID();
+	}
+	
+	// ids of the shape's direct children
+	protected List<Long> getChildIds(long shapeId) {
+		
+		List<XDGFShape> children = pageContents.getShapeById(shapeId).getShapes();
+		if (children == null)
+			return Collections.emptyList();
+		
+		List<Long> ids = new ArrayList<>(children.size());
+		for (XDGFShape child: children)
+			ids.add(child.getID());
+		
+		return ids;
+	}
+	
 	protected String getConnId(ShapeData from, ShapeData to) {
 		
 		String fromId = "" + from.shapeId;
@@ -1312,53 +1843,129 @@ public class VisioPageParser {
 		return pageId + ": " + fromId + " -> " + toId;
 	}
 	
-	protected ShapeData getShapeFromEdge(Edge edge, Direction direction) {
-		return getShape((Long)edge.getVertex(direction).getProperty("shapeId"));
+	protected boolean isInsideOrOnBoundary(ShapeData shapeData, Point2D pt) {
+		counters.geometryCalls++;
+		return GeomUtils.isInsideOrOnBoundary(shapeData.getPath(), shapeData.getSegments(), pt.getX(), pt.getY());
 	}
 	
-	protected void cleanShapes() {
+	protected boolean pathIntersects(Segments segments, Point2D pt) {
+		counters.geometryCalls++;
+		return GeomUtils.pathIntersects(segments, pt.getX(), pt.getY());
+	}
+	
+	// in is the shape the edge goes to, otherwise the one it comes from
+	protected ShapeData getShapeFromEdge(int edge, boolean in) {
+		ShapeData shapeData = in ? shapeGraph.to(edge) : shapeGraph.from(edge);
+		return shapeData.removed ? null : shapeData;
+	}
+	
+	protected String getVertexId(ShapeData shapeData) {
+		return pageId + ": " + shapeData.shapeId;
+	}
+	
+	// copies the shapes that are still around and their edges to the
+	// Blueprints graph
+	protected void exportGraph() {
 		
-		Iterator<ShapeData> i = shapesMap.values().iterator();
+		// by node index
+		Vertex[] vertices = new Vertex[shapeGraph.nodeCount()];
 		
-		while (i.hasNext()) {
-			if (i.next().removed)
-				i.remove();
+		for (int i = 0; i < shapeGraph.nodeCount(); i++) {
+			ShapeData shapeData = shapeGraph.node(i);
+			if (shapeData.removed)
+				continue;
+			
+			Vertex vertex = graph.addVertex(getVertexId(shapeData));
+			vertices[i] = vertex;
+			
+			vertex.setProperty("label", shapeData.label);
+			vertex.setProperty("shapeId", shapeData.shapeId);
+			
+			vertex.setProperty("group", shapeData.group);
+			vertex.setProperty("groupId", shapeData.groupId);
+			vertex.setProperty("inSecondaryGroup", shapeData.inSecondaryGroup);
+			vertex.setProperty("is1d", shapeData.isShape1D);
+			vertex.setProperty("name", shapeData.name);
+			vertex.setProperty("pageName", pageName);
+			vertex.setProperty("symbolName", shapeData.symbolName);
+			vertex.setProperty("type", shapeData.type);
+			
+			// local coordinates
+			vertex.setProperty("x", shapeData.getCenterX());
+			vertex.setProperty("y", shapeData.getCenterY());
+			
+			if (shapeData.secondaryGroup != null)
+				vertex.setProperty("secondaryGroup", shapeData.secondaryGroup);
+			
+			if (shapeData.textRef != null) {
+				vertex.setProperty("textRef", shapeData.textRef);
+				vertex.setProperty("textRefWhy", shapeData.textRefWhy);
+			}
+			
+			if (shapeData.shapeRef != null)
+				vertex.setProperty("shapeRef", shapeData.shapeRef);
+			
+			for (Map.Entry<String, Object> entry: shapeData.getProperties().entrySet())
+				vertex.setProperty(entry.getKey(), entry.getValue());
 		}
 		
-		i = shapes.iterator();
-		
-		while (i.hasNext()) {
-			if (i.next().removed)
-				i.remove();
+		for (int e = 0; e < shapeGraph.edgeCount(); e++) {
+			if (shapeGraph.isRemoved(e))
+				continue;
+			
+			ShapeData from = shapeGraph.from(e);
+			ShapeData to = shapeGraph.to(e);
+			
+			Edge edge = graph.addEdge(getConnId(from, to), vertices[from.node], vertices[to.node], shapeGraph.label(e));
+			
+			if (shapeGraph.hasPoint(e)) {
+				edge.setProperty("x", shapeGraph.x(e));
+				edge.setProperty("y", shapeGraph.y(e));
+			}
 		}
 	}
 	
+	// removed shapes are already gone from shapesMap and skipped by
+	// iterators over shapes, this just compacts shapes if it's worth it
+	protected void cleanShapes() {
+		shapes.compactIfNeeded();
+	}
+	
 	protected void removeShape(ShapeData shapeData) {
 		shapeData.removed = true;
-		graph.removeVertex(shapeData.vertex);
-		rtree = rtree.delete(new Entry<ShapeData, Rectangle>(shapeData, shapeData.rtreeBounds));
+		
+		shapes.remove(shapeData);
+		if (shapesMap.get(shapeData.shapeId) == shapeData)
+			shapesMap.remove(shapeData.shapeId);
+		
+		counters.edgesRemoved += shapeGraph.degree(shapeData);
+		shapeGraph.removeNode(shapeData);
+		
+		Rectangle r = shapeData.rtreeBounds;
+		index.remove(shapeData, r.x1(), r.y1(), r.x2(), r.y2());
+		
+		// shapes below it may have a different topmost parent now
+		if (groupForest != null && shapeData.hasGeometry) {
+			int node = groupForestNodes.get(shapeData.shapeId, -1);
+			if (node != -1)
+				Arrays.fill(topmostKnown, groupForest.enter(node), groupForest.exit(node), false);
+		}
 	}
 	
 	protected ShapeData clone1dShape(Path2D.Double newPath, ShapeData oldShape) {
 		
 		long shapeId = shapeIdAllocator--;
+		counters.splits1d++;
 		
-		Vertex oldVertex = oldShape.vertex;
-		Vertex vertex = graph.addVertex(pageId + ": " + shapeId);
-		
-		// copy properties
-		for (String p: oldVertex.getPropertyKeys())
-			vertex.setProperty(p, oldVertex.getProperty(p));
-		
-		vertex.setProperty("label", "");
-		vertex.setProperty("shapeId", shapeId);
-		vertex.setProperty("shapeRef", oldShape.shapeId);
+		// copies the properties
+		ShapeData newShape = new ShapeData(shapeId, oldShape, newPath);
+		newShape.label = "";
+		newShape.shapeRef = oldShape.shapeId;
 		
-		ShapeData newShape = new ShapeData(shapeId, vertex, oldShape, newPath);
-		rtree = rtree.add(newShape, newShape.rtreeBounds);
+		shapeGraph.addNode(newShape);
 		
-		vertex.setProperty("x", newShape.getCenterX());
-		vertex.setProperty("y", newShape.getCenterY());
+		Rectangle r = newShape.rtreeBounds;
+		index.add(newShape, r.x1(), r.y1(), r.x2(), r.y2());
 		
 		helper.onClone1d(oldShape, newShape);
 		
@@ -20,14 +20,35 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.apache.poi.POIXMLException;
 
 import org.apache.poi.xdgf.usermodel.XDGFPage;
 import org.apache.poi.xdgf.usermodel.XmlVisioDocument;
-import org.apache.poi.xdgf.usermodel.shape.ShapeDataAcceptor;
-import org.apache.poi.xdgf.usermodel.shape.ShapeDebuggerRenderer;
-import org.apache.poi.xdgf.util.VsdxToPng;
 
+import com.bbn.poi.xdgf.cache.GraphCache;
+import com.bbn.poi.xdgf.opc.MappedZipPartSource;
+import com.bbn.poi.xdgf.opc.PartSource;
+import com.bbn.poi.xdgf.opc.VsdxParts;
+import com.bbn.poi.xdgf.opc.ZipPartSource;
+import com.bbn.poi.xdgf.parsers.stream.StreamDocument;
+import com.bbn.poi.xdgf.parsers.stream.StreamPage;
 import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+import com.tinkerpop.blueprints.util.GraphHelper;
 
 /*
  * To get POI log messages, set the following Java VM properties:
@@ -60,61 +81,354 @@ public class VisioParser {
 	
 	
 	XmlVisioDocument xmlDoc;
+	
+	// page id -> graph for that page, in document order
+	protected final Map<Long, Graph> pageGraphs = new LinkedHashMap<>();
+	
+	// page id -> content key of the page, only set when parsing from a
+	// file with a cacheable helper, and with a cache or for reparsing
+	protected final Map<Long, String> pageKeys = new LinkedHashMap<>();
+	
+	// computes pageKeys even without a cache, so this parser can be the
+	// previous parser of a later one
+	protected boolean keepPageKeys = false;
+	
+	// pages that were parsed, rather than reused or taken from a cache
+	protected final Set<Long> processedPages = new HashSet<>();
+	
+	// debug PNGs are only rendered if this is set
+	protected PageRenderer renderer = null;
+	
+	// all pages merged together, created on demand
+	protected Graph combinedGraph = null;
 
+	// for subclasses that need to set themselves up before calling load
+	protected VisioParser() {
+	}
+	
 	public VisioParser(File vsdxFile) throws FileNotFoundException, IOException
 	{
-		this(new FileInputStream(vsdxFile));
+		this(vsdxFile, null);
 	}
 	
 	public VisioParser(FileInputStream vsdxFile) throws IOException {
+		this(vsdxFile, null);
+	}
+	
+	// if executor is not null, each page is parsed as a separate task on it
+	public VisioParser(File vsdxFile, ExecutorService executor) throws FileNotFoundException, IOException
+	{
+		this(vsdxFile, executor, (GraphCache)null);
+	}
+	
+	public VisioParser(FileInputStream vsdxFile, ExecutorService executor) throws IOException {
 		xmlDoc = new XmlVisioDocument(vsdxFile);
 		
-		processPages();
+		processPages(executor);
 	}
 	
-	protected void processPages() {
-		for (XDGFPage page: xmlDoc.getPages()) {
+	// pages whose content and helper configuration match an entry in the
+	// cache are taken from it; the document is only loaded by POI if some
+	// page is missing. Graphs from the cache must not be modified.
+	public VisioParser(File vsdxFile, ExecutorService executor, GraphCache cache) throws IOException {
+		load(vsdxFile, executor, cache, null);
+	}
+	
+	// also renders each page with renderer while it is parsed. Call
+	// renderer.awaitCompletion() to wait for the PNGs
+	public VisioParser(File vsdxFile, ExecutorService executor, PageRenderer renderer) throws IOException {
+		this.renderer = renderer;
+		load(vsdxFile, executor, null, null);
+	}
+	
+	// parses a new revision of a document that previous was parsed from.
+	// Pages whose content hasn't changed reuse the graphs of previous, so
+	// those graphs are shared between both parsers and must not be modified.
+	// previous may be null for the first revision; it only has page keys to
+	// compare against if it was created with this constructor or a cache
+	public VisioParser(File vsdxFile, ExecutorService executor, VisioParser previous) throws IOException {
+		keepPageKeys = true;
+		load(vsdxFile, executor, null, previous);
+	}
+	
+	protected void load(File vsdxFile, ExecutorService executor, GraphCache cache, VisioParser previous) throws IOException {
+		
+		// without a cache or a later reparse, nothing uses the page keys,
+		// so don't hash the pages or open the package twice
+		if (cache == null && !keepPageKeys && !useStreamingParser()) {
+			try (FileInputStream in = new FileInputStream(vsdxFile)) {
+				xmlDoc = new XmlVisioDocument(in);
+			}
 			
-			System.out.println(page.getID() + " " + page.getName());
+			processPages(executor);
+			return;
+		}
+		
+		List<Long> order = new ArrayList<>();
+		String config = (cache != null || keepPageKeys) ? createHelper().getCacheKey() : null;
+		
+		// the two readers don't produce identical geometry
+		if (config != null && useStreamingParser())
+			config += ";streaming";
+		
+		try (PartSource parts = openParts(vsdxFile)) {
+			VsdxParts vsdx = new VsdxParts(parts);
+			for (VsdxParts.PagePart page: vsdx.getPages()) {
+				order.add(page.id);
+				if (config != null)
+					pageKeys.put(page.id, vsdx.pageKey(page, config));
+			}
 			
-			try {
-				ShapeDebuggerRenderer renderer = new ShapeDebuggerRenderer();
-				renderer.setDebugAcceptor(new ShapeDataAcceptor());
-				
-				VsdxToPng.renderToPngDir(page, new File("pngdir"), 2000.0/11.0, renderer);
-			} catch (IOException e1) {
-				e1.printStackTrace();
+			// previous graphs are looked up by key rather than by page id, so
+			// reordered pages still match. The key includes the page's id and
+			// name since both end up in the graph, so renumbered or renamed
+			// pages are parsed again
+			Map<String, Graph> previousGraphs = new HashMap<>();
+			if (previous != null) {
+				for (Map.Entry<Long, String> entry: previous.pageKeys.entrySet()) {
+					Graph graph = previous.pageGraphs.get(entry.getKey());
+					if (graph != null)
+						previousGraphs.put(entry.getValue(), graph);
+				}
 			}
 			
-			Graph graph = processPage(page);
+			Set<Long> missing = new HashSet<>();
+			for (Long pageId: order) {
+				String key = pageKeys.get(pageId);
+				Graph graph = null;
+				
+				if (key != null) {
+					graph = previousGraphs.get(key);
+					if (graph == null && cache != null)
+						graph = cache.get(key);
+				}
+				
+				if (graph == null)
+					missing.add(pageId);
+				else
+					pageGraphs.put(pageId, graph);
+			}
 			
-			Util.saveToGraphml(graph, "pngdir/output.graphml");
+			if (!missing.isEmpty()) {
+				if (useStreamingParser()) {
+					processStreamedPages(executor, new StreamDocument(vsdx), missing);
+				} else {
+					try (FileInputStream in = new FileInputStream(vsdxFile)) {
+						xmlDoc = new XmlVisioDocument(in);
+					}
+					
+					processPages(executor, missing);
+				}
+				
+				if (cache != null) {
+					for (Long pageId: missing) {
+						String key = pageKeys.get(pageId);
+						if (key != null)
+							cache.put(key, pageGraphs.get(pageId));
+					}
+				}
+			}
+		}
+		
+		// restore document order
+		Map<Long, Graph> graphs = new LinkedHashMap<>(pageGraphs);
+		pageGraphs.clear();
+		for (Long pageId: order) {
+			pageGraphs.put(pageId, graphs.get(pageId));
+		}
+	}
+	
+	// creates a work-stealing pool suitable for processPages
+	public static ExecutorService createPagePool(int parallelism) {
+		return new ForkJoinPool(parallelism);
+	}
+	
+	public static ExecutorService createPagePool() {
+		return createPagePool(Runtime.getRuntime().availableProcessors());
+	}
+	
+	// returns the graph for each page, keyed by page id, in document order
+	public Map<Long, Graph> getPageGraphs() {
+		return Collections.unmodifiableMap(pageGraphs);
+	}
+	
+	// ids of the pages that were actually parsed by this instance
+	public Set<Long> getProcessedPages() {
+		return Collections.unmodifiableSet(processedPages);
+	}
+	
+	// returns a single graph containing all of the pages. Vertex and edge
+	// ids are prefixed with the page id, so they don't collide
+	public synchronized Graph getGraph() {
+		if (combinedGraph == null) {
+			combinedGraph = new TinkerGraph();
+			for (Graph pageGraph: pageGraphs.values()) {
+				GraphHelper.copyGraph(pageGraph, combinedGraph);
+			}
+		}
+		
+		return combinedGraph;
+	}
+	
+	protected void processPages() {
+		processPages(null);
+	}
+	
+	protected void processPages(ExecutorService executor) {
+		processPages(executor, null);
+	}
+	
+	// only processes the pages in pageIds, or all pages if it is null
+	protected void processPages(ExecutorService executor, Set<Long> pageIds) {
+		
+		List<XDGFPage> pages = new ArrayList<>();
+		for (XDGFPage page: xmlDoc.getPages()) {
+			if (pageIds == null || pageIds.contains(page.getID())) {
+				pages.add(page);
+				processedPages.add(page.getID());
+			}
+		}
+		
+		Map<Long, Callable<Graph>> tasks = new LinkedHashMap<>();
+		for (final XDGFPage page: pages) {
+			tasks.put(page.getID(), new Callable<Graph>() {
+				@Override
+				public Graph call() throws Exception {
+					return renderAndProcessPage(page);
+				}
+			});
+		}
+		
+		runPageTasks(executor, tasks);
+	}
+	
+	// reads the pages in pageIds without POI
+	protected void processStreamedPages(ExecutorService executor, final StreamDocument document, Set<Long> pageIds) {
+		
+		Map<Long, Callable<Graph>> tasks = new LinkedHashMap<>();
+		for (final VsdxParts.PagePart page: document.getPages()) {
+			if (pageIds == null || pageIds.contains(page.id)) {
+				processedPages.add(page.id);
+				tasks.put(page.id, new Callable<Graph>() {
+					@Override
+					public Graph call() throws Exception {
+						return processPage(document.readPage(page));
+					}
+				});
+			}
+		}
+		
+		runPageTasks(executor, tasks);
+	}
+	
+	// runs the tasks and puts their results in pageGraphs
+	protected void runPageTasks(ExecutorService executor, Map<Long, Callable<Graph>> tasks) {
+		
+		if (executor == null) {
+			for (Map.Entry<Long, Callable<Graph>> entry: tasks.entrySet()) {
+				try {
+					pageGraphs.put(entry.getKey(), entry.getValue().call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new POIXMLException("Error processing page " + entry.getKey(), e);
+				}
+			}
 			
-			break;
+			return;
+		}
+		
+		// each page is independent, so submit all of them before waiting
+		// on any -- results are collected in document order
+		Map<Long, Future<Graph>> futures = new LinkedHashMap<>();
+		
+		for (Map.Entry<Long, Callable<Graph>> entry: tasks.entrySet()) {
+			futures.put(entry.getKey(), executor.submit(entry.getValue()));
+		}
+		
+		try {
+			for (Map.Entry<Long, Future<Graph>> entry: futures.entrySet()) {
+				try {
+					pageGraphs.put(entry.getKey(), entry.getValue().get());
+				} catch (ExecutionException e) {
+					throw new POIXMLException("Error processing page " + entry.getKey(), e.getCause());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new POIXMLException("Interrupted while processing pages", e);
+		} finally {
+			// don't leave work behind if something failed
+			for (Future<Graph> future: futures.values()) {
+				future.cancel(true);
+			}
 		}
 	}
 	
+	// the render runs on the renderer's executor, and isn't waited for
+	protected Graph renderAndProcessPage(XDGFPage page) {
+		
+		if (renderer != null)
+			renderer.submit(page);
+		
+		return processPage(page);
+	}
+	
+	// override to customize how shapes are interpreted. Called once per
+	// page, and once more for the cache key
+	protected SemanticHelper createHelper() {
+		return new SemanticHelper();
+	}
+	
 	protected Graph processPage(XDGFPage page) {
-		VisioPageParser parser = new VisioPageParser(page);
+		VisioPageParser parser = new VisioPageParser(page, createHelper());
+		parser.process();
+		return parser.getGraph();
+	}
+	
+	protected Graph processPage(StreamPage page) {
+		VisioPageParser parser = new StreamingPageParser(page, createHelper());
 		parser.process();
 		return parser.getGraph();
 	}
 	
+	// the streaming parser maps the file instead of reading it through
+	// ZipFile, so large embedded media never touch the heap
+	protected PartSource openParts(File vsdxFile) throws IOException {
+		if (useStreamingParser())
+			return new MappedZipPartSource(vsdxFile);
+		return new ZipPartSource(vsdxFile);
+	}
+	
+	// override to return true to read pages with StAX instead of building
+	// POI's object model, which uses far less memory. Pages aren't rendered
+	// when streaming. Only used by the File constructors
+	protected boolean useStreamingParser() {
+		return false;
+	}
+	
 	public static void main(String[] args) throws Exception {
 		
-		if (args.length != 3) {
-			System.err.println("Usage: VisioParser infile outfile pngdir");
+		if (args.length != 2 && args.length != 3) {
+			System.err.println("Usage: VisioParser infile outfile [pngdir]");
 			System.exit(1);
 		}
 		
 		String inFilename = args[0];
 		String outFilename = args[1];
-		String pngDir = args[2];
 		
-		VisioParser parser = new VisioParser(new File(inFilename));
-		//Util.saveToGraphml(parser.graph, outFilename);
+		ExecutorService executor = createPagePool();
+		PageRenderer renderer = args.length == 3 ? new PageRenderer(new File(args[2])) : null;
 		
-		//VsdxToPng.renderToPng(parser.xmlDoc, pngDir, 2000/11.0);
+		try {
+			VisioParser parser = new VisioParser(new File(inFilename), executor, renderer);
+			Util.saveGraph(parser.getGraph(), outFilename);
+		} finally {
+			executor.shutdown();
+			
+			if (renderer != null)
+				renderer.close();
+		}
 		
 		System.out.println("Done.");
 	}
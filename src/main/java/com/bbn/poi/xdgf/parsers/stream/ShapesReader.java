@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Reads the shapes of a PageContents or MasterContents part with StAX.
+ * Only the cells in StreamShape.CELLS, the geometry and the text of each
+ * shape are kept; all other sections are skipped without being parsed
+ * into objects.
+ */
+final class ShapesReader {
+
+	static final Set<String> CELLS = new HashSet<>(Arrays.asList(StreamShape.CELLS));
+	
+	private static final XMLInputFactory factory = createFactory();
+	
+	private ShapesReader() {}
+	
+	// connects may be null if they aren't wanted
+	static void read(InputStream in, List<StreamShape> shapes, List<StreamConnect> connects) throws IOException {
+		
+		try {
+			XMLStreamReader reader;
+			synchronized (factory) {
+				reader = factory.createXMLStreamReader(in);
+			}
+			
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT)
+						continue;
+					
+					switch (reader.getLocalName()) {
+						case "Shape":
+							shapes.add(readShape(reader, null));
+							break;
+							
+						case "Connect":
+							if (connects != null) {
+								Long from = getLong(reader, "FromSheet");
+								Long to = getLong(reader, "ToSheet");
+								Long part = getLong(reader, "FromPart");
+								
+								if (from != null && to != null)
+									connects.add(new StreamConnect(from, to, part == null ? 0 : part.intValue()));
+							}
+							skip(reader);
+							break;
+						
+						// containers, descend into them
+						case "PageContents":
+						case "MasterContents":
+						case "Shapes":
+						case "Connects":
+							break;
+						
+						default:
+							skip(reader);
+							break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		}
+	}
+	
+	static void indexShapes(List<StreamShape> shapes, Map<Long, StreamShape> shapesById) {
+		for (StreamShape shape: shapes) {
+			shapesById.put(shape.id, shape);
+			if (shape.children != null)
+				indexShapes(shape.children, shapesById);
+		}
+	}
+	
+	// the reader is on the Shape start element, and is left on its end
+	static StreamShape readShape(XMLStreamReader reader, StreamShape parent) throws XMLStreamException {
+		
+		StreamShape shape = new StreamShape(getLong(reader, "ID"), parent);
+		shape.type = reader.getAttributeValue(null, "Type");
+		shape.name = reader.getAttributeValue(null, "Name");
+		shape.masterId = getLong(reader, "Master");
+		shape.masterShapeId = getLong(reader, "MasterShape");
+		shape.lineStyle = getLong(reader, "LineStyle");
+		
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT)
+				return shape;
+			
+			if (event != XMLStreamConstants.START_ELEMENT)
+				continue;
+			
+			switch (reader.getLocalName()) {
+				case "Cell":
+					String cellName = reader.getAttributeValue(null, "N");
+					if (CELLS.contains(cellName)) {
+						String v = reader.getAttributeValue(null, "V");
+						if (v != null)
+							shape.cells.put(cellName, v);
+					}
+					skip(reader);
+					break;
+				
+				case "Section":
+					if ("Geometry".equals(reader.getAttributeValue(null, "N"))) {
+						if (shape.geometry == null)
+							shape.geometry = new TreeMap<>();
+						
+						Long ix = getLong(reader, "IX");
+						shape.geometry.put(ix == null ? shape.geometry.size() : ix, readGeometry(reader));
+					} else {
+						skip(reader);
+					}
+					break;
+					
+				case "Text":
+					shape.text = readText(reader);
+					break;
+					
+				case "Shapes":
+					while (true) {
+						event = reader.next();
+						if (event == XMLStreamConstants.END_ELEMENT)
+							break;
+						
+						if (event == XMLStreamConstants.START_ELEMENT) {
+							if (reader.getLocalName().equals("Shape"))
+								shape.addChild(readShape(reader, shape));
+							else
+								skip(reader);
+						}
+					}
+					break;
+					
+				default:
+					skip(reader);
+					break;
+			}
+		}
+	}
+	
+	static StreamGeometry readGeometry(XMLStreamReader reader) throws XMLStreamException {
+		
+		StreamGeometry section = new StreamGeometry();
+		section.deleted = "1".equals(reader.getAttributeValue(null, "Del"));
+		
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT)
+				return section;
+			
+			if (event != XMLStreamConstants.START_ELEMENT)
+				continue;
+			
+			switch (reader.getLocalName()) {
+				case "Cell":
+					if ("NoShow".equals(reader.getAttributeValue(null, "N"))) {
+						Double v = StreamShape.parseDouble(reader.getAttributeValue(null, "V"));
+						if (v != null)
+							section.noShow = v != 0;
+					}
+					skip(reader);
+					break;
+					
+				case "Row":
+					StreamGeometry.Row row = new StreamGeometry.Row();
+					row.type = reader.getAttributeValue(null, "T");
+					row.deleted = "1".equals(reader.getAttributeValue(null, "Del"));
+					
+					Long ix = getLong(reader, "IX");
+					section.rows.put(ix == null ? section.rows.size() + 1 : ix, row);
+					
+					while (true) {
+						event = reader.next();
+						if (event == XMLStreamConstants.END_ELEMENT)
+							break;
+						
+						if (event == XMLStreamConstants.START_ELEMENT) {
+							Double v = StreamShape.parseDouble(reader.getAttributeValue(null, "V"));
+							if (v != null && reader.getLocalName().equals("Cell"))
+								row.cells.put(reader.getAttributeValue(null, "N"), v);
+							skip(reader);
+						}
+					}
+					break;
+					
+				default:
+					skip(reader);
+					break;
+			}
+		}
+	}
+	
+	// all of the character data inside the Text element, including fields
+	static String readText(XMLStreamReader reader) throws XMLStreamException {
+		
+		StringBuilder sb = new StringBuilder();
+		int depth = 1;
+		
+		while (depth > 0) {
+			switch (reader.next()) {
+				case XMLStreamConstants.START_ELEMENT:
+					depth++;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					depth--;
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					sb.append(reader.getText());
+					break;
+			}
+		}
+		
+		return sb.toString();
+	}
+	
+	// skips to the end of the current element
+	static void skip(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				depth--;
+		}
+	}
+	
+	static Long getLong(XMLStreamReader reader, String attribute) {
+		String v = reader.getAttributeValue(null, attribute);
+		if (v == null)
+			return null;
+		
+		try {
+			return Long.parseLong(v);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	private static XMLInputFactory createFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+}
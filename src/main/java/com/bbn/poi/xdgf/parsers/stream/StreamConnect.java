@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers.stream;
+
+/**
+ * A Connect record of a page: the FromPart of the FromSheet shape is
+ * glued to the ToSheet shape
+ */
+public class StreamConnect {
+
+	public final long fromSheet;
+	public final long toSheet;
+	public final int fromPart;
+	
+	public StreamConnect(long fromSheet, long toSheet, int fromPart) {
+		this.fromSheet = fromSheet;
+		this.toSheet = toSheet;
+		this.fromPart = fromPart;
+	}
+}
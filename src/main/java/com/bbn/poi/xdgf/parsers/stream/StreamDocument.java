@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.poi.POIXMLException;
+
+import com.bbn.poi.xdgf.opc.VsdxParts;
+
+/**
+ * Reads a vsdx document page by page without building the POI object
+ * model. Only the line styles and master names are read up front, and
+ * each master is read the first time a page uses it.
+ * 
+ * Pages can be read from multiple threads at once.
+ */
+public class StreamDocument {
+
+	protected static class Style {
+		Long lineStyle = null;
+		final Map<String, String> cells = new HashMap<>();
+	}
+	
+	protected final VsdxParts parts;
+	
+	protected final Map<Long, Style> styles = new HashMap<>();
+	protected Long defaultLineStyle = null;
+	
+	protected final Map<Long, String> masterNames = new HashMap<>();
+	protected final Map<Long, String> masterParts = new HashMap<>();
+	protected final Map<Long, StreamMaster> masters = new HashMap<>();
+	
+	public StreamDocument(VsdxParts parts) throws IOException {
+		this.parts = parts;
+		
+		readStyles();
+		readMasterList();
+	}
+	
+	public List<VsdxParts.PagePart> getPages() {
+		return parts.getPages();
+	}
+	
+	public StreamPage readPage(VsdxParts.PagePart page) throws IOException {
+		
+		List<StreamShape> shapes = new ArrayList<>();
+		List<StreamConnect> connects = new ArrayList<>();
+		
+		try (InputStream in = parts.getPartSource().getPart(page.partName)) {
+			ShapesReader.read(in, shapes, connects);
+		}
+		
+		for (StreamShape shape: shapes)
+			resolve(shape, null);
+		
+		return new StreamPage(page.id, page.name, shapes, connects);
+	}
+	
+	// null if there is no such master
+	public synchronized StreamMaster getMaster(long masterId) throws IOException {
+		
+		StreamMaster master = masters.get(masterId);
+		if (master != null)
+			return master;
+		
+		String partName = masterParts.get(masterId);
+		if (partName == null)
+			return null;
+		
+		List<StreamShape> shapes = new ArrayList<>();
+		try (InputStream in = parts.getPartSource().getPart(partName)) {
+			ShapesReader.read(in, shapes, null);
+		}
+		
+		master = new StreamMaster(masterId, masterNames.get(masterId), shapes);
+		for (StreamShape shape: master.shapesById.values())
+			shape.document = this;
+		
+		masters.put(masterId, master);
+		return master;
+	}
+	
+	// follows the style's line style parents until one sets the cell
+	public String getLineStyleCell(long styleId, String cellName) {
+		
+		Long id = styleId;
+		
+		// guard against loops, real documents only have a few levels
+		for (int i = 0; i < 32 && id != null; i++) {
+			Style style = styles.get(id);
+			if (style == null)
+				return null;
+			
+			String v = style.cells.get(cellName);
+			if (v != null)
+				return v;
+			
+			if (id.equals(style.lineStyle))
+				return null;
+			
+			id = style.lineStyle;
+		}
+		
+		return null;
+	}
+	
+	public String getDefaultLineStyleCell(String cellName) {
+		return defaultLineStyle == null ? null : getLineStyleCell(defaultLineStyle, cellName);
+	}
+	
+	//
+	// Internals
+	//
+	
+	// links shapes to their masters: a shape with a Master attribute
+	// inherits from that master, and its subshapes inherit from shapes in
+	// the same master
+	protected void resolve(StreamShape shape, StreamMaster master) throws IOException {
+		
+		shape.document = this;
+		
+		if (shape.masterId != null) {
+			master = getMaster(shape.masterId);
+			if (master == null)
+				throw new POIXMLException("Master " + shape.masterId + " not found for shape " + shape.id);
+			
+			shape.master = master;
+			shape.masterShape = shape.masterShapeId != null ? 
+					master.getShapeById(shape.masterShapeId) : master.getTopmostShape();
+			
+		} else if (shape.masterShapeId != null && master != null) {
+			shape.masterShape = master.getShapeById(shape.masterShapeId);
+		}
+		
+		if (shape.children != null) {
+			for (StreamShape child: shape.children)
+				resolve(child, master);
+		}
+	}
+	
+	protected void readStyles() throws IOException {
+		
+		try (InputStream in = parts.getPartSource().getPart(parts.getDocumentPart())) {
+			XMLStreamReader reader = createReader(in);
+			try {
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT)
+						continue;
+					
+					switch (reader.getLocalName()) {
+						case "DocumentSettings":
+							defaultLineStyle = ShapesReader.getLong(reader, "DefaultLineStyle");
+							break;
+							
+						case "StyleSheet":
+							Long id = ShapesReader.getLong(reader, "ID");
+							Style style = new Style();
+							style.lineStyle = ShapesReader.getLong(reader, "LineStyle");
+							
+							while (true) {
+								int event = reader.next();
+								if (event == XMLStreamConstants.END_ELEMENT)
+									break;
+								
+								if (event == XMLStreamConstants.START_ELEMENT) {
+									if (reader.getLocalName().equals("Cell")) {
+										String cellName = reader.getAttributeValue(null, "N");
+										String v = reader.getAttributeValue(null, "V");
+										if (v != null && (cellName.equals("LineColor") || cellName.equals("LinePattern")))
+											style.cells.put(cellName, v);
+									}
+									ShapesReader.skip(reader);
+								}
+							}
+							
+							if (id != null)
+								styles.put(id, style);
+							break;
+							
+						// containers
+						case "VisioDocument":
+						case "StyleSheets":
+							break;
+							
+						default:
+							ShapesReader.skip(reader);
+							break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Error reading " + parts.getDocumentPart(), e);
+		}
+	}
+	
+	protected void readMasterList() throws IOException {
+		
+		String mastersPart = parts.getMastersPart();
+		if (mastersPart == null)
+			return;
+		
+		Map<String, String> targets = new HashMap<>();
+		for (VsdxParts.Relationship rel: parts.readRelationships(mastersPart))
+			targets.put(rel.id, rel.target);
+		
+		try (InputStream in = parts.getPartSource().getPart(mastersPart)) {
+			XMLStreamReader reader = createReader(in);
+			try {
+				Long id = null;
+				
+				while (reader.hasNext()) {
+					if (reader.next() != XMLStreamConstants.START_ELEMENT)
+						continue;
+					
+					switch (reader.getLocalName()) {
+						case "Master":
+							id = ShapesReader.getLong(reader, "ID");
+							if (id != null)
+								masterNames.put(id, reader.getAttributeValue(null, "Name"));
+							break;
+						
+						case "Rel":
+							String target = targets.get(reader.getAttributeValue(VsdxParts.R_NS, "id"));
+							if (id != null && target != null)
+								masterParts.put(id, target);
+							break;
+							
+						case "Masters":
+							break;
+						
+						default:
+							ShapesReader.skip(reader);
+							break;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		} catch (XMLStreamException e) {
+			throw new IOException("Error reading " + mastersPart, e);
+		}
+	}
+	
+	protected static XMLStreamReader createReader(InputStream in) throws XMLStreamException {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory.createXMLStreamReader(in);
+	}
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers.stream;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A geometry section of a streamed shape. Rows that the shape doesn't
+ * override are inherited from the master shape's section with the same IX.
+ * 
+ * Arcs, splines and NURBS are approximated: the parser only needs bounds,
+ * endpoints and roughly where the line goes.
+ */
+public class StreamGeometry {
+
+	public static class Row {
+		protected String type = null;
+		protected boolean deleted = false;
+		protected final Map<String, Double> cells = new HashMap<>(8);
+		
+		public String getType() {
+			return type;
+		}
+		
+		protected double get(String cellName) {
+			Double v = cells.get(cellName);
+			return v == null ? 0 : v;
+		}
+		
+		// this row with missing values taken from master
+		protected Row combine(Row master) {
+			if (master == null)
+				return this;
+			
+			Row row = new Row();
+			row.type = type != null ? type : master.type;
+			row.deleted = deleted;
+			row.cells.putAll(master.cells);
+			row.cells.putAll(cells);
+			return row;
+		}
+	}
+	
+	protected Boolean noShow = null;
+	protected boolean deleted = false;
+	protected final TreeMap<Long, Row> rows = new TreeMap<>();
+	
+	public boolean isNoShow() {
+		return deleted || (noShow != null && noShow);
+	}
+	
+	public Map<Long, Row> getRows() {
+		return rows;
+	}
+	
+	// this section with missing values taken from master
+	protected StreamGeometry combine(StreamGeometry master) {
+		if (master == null)
+			return this;
+		
+		StreamGeometry section = new StreamGeometry();
+		section.noShow = noShow != null ? noShow : master.noShow;
+		section.deleted = deleted;
+		section.rows.putAll(master.rows);
+		
+		for (Map.Entry<Long, Row> entry: rows.entrySet()) {
+			section.rows.put(entry.getKey(), entry.getValue().combine(master.rows.get(entry.getKey())));
+		}
+		
+		return section;
+	}
+	
+	// in the shape's local coordinates
+	public Path2D.Double getPath(StreamShape shape) {
+		
+		Path2D.Double path = new Path2D.Double();
+		
+		double w = shape.getWidth();
+		double h = shape.getHeight();
+		
+		for (Row row: rows.values()) {
+			
+			if (row.deleted || row.type == null)
+				continue;
+			
+			double x = row.get("X");
+			double y = row.get("Y");
+			
+			switch (row.type) {
+				case "MoveTo":
+					path.moveTo(x, y);
+					break;
+					
+				case "RelMoveTo":
+					path.moveTo(x*w, y*h);
+					break;
+					
+				case "LineTo":
+					lineTo(path, x, y);
+					break;
+					
+				case "RelLineTo":
+					lineTo(path, x*w, y*h);
+					break;
+					
+				case "ArcTo":
+					arcTo(path, x, y, row.get("A"));
+					break;
+				
+				case "EllipticalArcTo":
+					// A/B is a point on the arc
+					quadThrough(path, row.get("A"), row.get("B"), x, y);
+					break;
+				
+				case "RelEllipticalArcTo":
+					quadThrough(path, row.get("A")*w, row.get("B")*h, x*w, y*h);
+					break;
+					
+				case "RelCubBezTo":
+					if (path.getCurrentPoint() == null)
+						path.moveTo(x*w, y*h);
+					else
+						path.curveTo(row.get("A")*w, row.get("B")*h, row.get("C")*w, row.get("D")*h, x*w, y*h);
+					break;
+				
+				case "RelQuadBezTo":
+					if (path.getCurrentPoint() == null)
+						path.moveTo(x*w, y*h);
+					else
+						path.quadTo(row.get("A")*w, row.get("B")*h, x*w, y*h);
+					break;
+					
+				case "Ellipse":
+					// X/Y is the center, A/B and C/D are on the two axes
+					double rx = Math.hypot(row.get("A") - x, row.get("B") - y);
+					double ry = Math.hypot(row.get("C") - x, row.get("D") - y);
+					double angle = Math.atan2(row.get("B") - y, row.get("A") - x);
+					
+					AffineTransform tr = AffineTransform.getRotateInstance(angle, x, y);
+					path.append(tr.createTransformedShape(new Ellipse2D.Double(x - rx, y - ry, rx*2, ry*2)), false);
+					break;
+					
+				case "InfiniteLine":
+					// the line through X/Y and A/B
+					path.moveTo(x, y);
+					path.lineTo(row.get("A"), row.get("B"));
+					break;
+					
+				default:
+					// NURBSTo, PolylineTo, SplineStart, SplineKnot: 
+					// these all end at X/Y
+					lineTo(path, x, y);
+					break;
+			}
+		}
+		
+		return path;
+	}
+	
+	protected static void lineTo(Path2D.Double path, double x, double y) {
+		if (path.getCurrentPoint() == null)
+			path.moveTo(x, y);
+		else
+			path.lineTo(x, y);
+	}
+	
+	// a circular arc to x/y, where a is the distance from the middle of the
+	// chord to the middle of the arc, positive when it bows to the left
+	protected static void arcTo(Path2D.Double path, double x, double y, double a) {
+		
+		Point2D last = path.getCurrentPoint();
+		if (last == null || a == 0) {
+			lineTo(path, x, y);
+			return;
+		}
+		
+		double dx = x - last.getX();
+		double dy = y - last.getY();
+		double len = Math.hypot(dx, dy);
+		if (len == 0) {
+			return;
+		}
+		
+		double bowX = (last.getX() + x)/2 - dy/len*a;
+		double bowY = (last.getY() + y)/2 + dx/len*a;
+		
+		quadThrough(path, bowX, bowY, x, y);
+	}
+	
+	// a quadratic curve to x/y that passes through px/py at its middle
+	protected static void quadThrough(Path2D.Double path, double px, double py, double x, double y) {
+		
+		Point2D last = path.getCurrentPoint();
+		if (last == null) {
+			path.moveTo(x, y);
+			return;
+		}
+		
+		double cx = 2*px - (last.getX() + x)/2;
+		double cy = 2*py - (last.getY() + y)/2;
+		path.quadTo(cx, cy, x, y);
+	}
+}
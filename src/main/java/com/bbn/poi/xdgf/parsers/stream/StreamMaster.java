@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers.stream;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shapes of a master, which page shapes inherit from
+ */
+public class StreamMaster {
+
+	protected final long id;
+	protected final String name;
+	protected final List<StreamShape> shapes;
+	protected final Map<Long, StreamShape> shapesById = new HashMap<>();
+	
+	public StreamMaster(long id, String name, List<StreamShape> shapes) {
+		this.id = id;
+		this.name = name;
+		this.shapes = shapes;
+		
+		ShapesReader.indexShapes(shapes, shapesById);
+	}
+	
+	public long getID() {
+		return id;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public List<StreamShape> getShapes() {
+		return Collections.unmodifiableList(shapes);
+	}
+	
+	public StreamShape getShapeById(long shapeId) {
+		return shapesById.get(shapeId);
+	}
+	
+	// the shape that instances inherit from when they don't name one, if
+	// the master only has one
+	public StreamShape getTopmostShape() {
+		return shapes.size() == 1 ? shapes.get(0) : null;
+	}
+}
@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers.stream;
+
+import java.awt.Color;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The parts of a Visio shape that the page parser uses, read without POI.
+ * Getters follow XDGFShape: values that the shape doesn't set itself are
+ * inherited from its master shape, and then from its line style.
+ */
+public class StreamShape {
+
+	// the only cells that are kept, everything else is skipped while reading
+	static final String[] CELLS = {
+		"PinX", "PinY", "Width", "Height", "LocPinX", "LocPinY", "Angle",
+		"FlipX", "FlipY", "BeginX", "TxtLocPinX", "TxtLocPinY",
+		"LineColor", "LinePattern"
+	};
+	
+	protected final long id;
+	protected final StreamShape parent;
+	protected List<StreamShape> children = null;
+	
+	// attributes
+	protected String type = null;
+	protected String name = null;
+	protected Long masterId = null;
+	protected Long masterShapeId = null;
+	protected Long lineStyle = null;
+	
+	// cell name -> V
+	protected final Map<String, String> cells = new HashMap<>();
+	
+	// geometry sections by IX
+	protected TreeMap<Long, StreamGeometry> geometry = null;
+	
+	protected String text = null;
+	
+	// set once the document has resolved the masters
+	protected StreamDocument document = null;
+	protected StreamMaster master = null;
+	protected StreamShape masterShape = null;
+	
+	public StreamShape(long id, StreamShape parent) {
+		this.id = id;
+		this.parent = parent;
+	}
+	
+	public long getID() {
+		return id;
+	}
+	
+	public StreamShape getParentShape() {
+		return parent;
+	}
+	
+	public boolean isTopmost() {
+		return parent == null;
+	}
+	
+	public List<StreamShape> getShapes() {
+		return children == null ? Collections.<StreamShape>emptyList() : children;
+	}
+	
+	public String getName() {
+		return name == null ? "" : name;
+	}
+	
+	public String getShapeType() {
+		if (type != null)
+			return type;
+		if (masterShape != null)
+			return masterShape.getShapeType();
+		return "Shape";
+	}
+	
+	public boolean hasMaster() {
+		return master != null;
+	}
+	
+	public StreamMaster getMaster() {
+		return master;
+	}
+	
+	public boolean hasMasterShape() {
+		return masterShape != null;
+	}
+	
+	public StreamShape getMasterShape() {
+		return masterShape;
+	}
+	
+	public String getSymbolName() {
+		if (master == null || master.getName() == null)
+			return "";
+		return master.getName();
+	}
+	
+	public boolean hasText() {
+		return text != null || (masterShape != null && masterShape.hasText());
+	}
+	
+	public String getTextAsString() {
+		if (text != null)
+			return text;
+		if (masterShape != null)
+			return masterShape.getTextAsString();
+		return "";
+	}
+	
+	public boolean isShape1D() {
+		return getDouble("BeginX") != null;
+	}
+	
+	// visible if any of its geometry is
+	public boolean isVisible() {
+		for (StreamGeometry section: getGeometrySections().values()) {
+			if (!section.isNoShow())
+				return true;
+		}
+		return false;
+	}
+	
+	//
+	// Cells
+	//
+	
+	public String getCell(String cellName) {
+		String v = cells.get(cellName);
+		if (v == null && masterShape != null)
+			return masterShape.getCell(cellName);
+		return v;
+	}
+	
+	public Double getDouble(String cellName) {
+		return parseDouble(getCell(cellName));
+	}
+	
+	protected double getDouble(String cellName, double defaultValue) {
+		Double v = getDouble(cellName);
+		return v == null ? defaultValue : v;
+	}
+	
+	public double getWidth() {
+		return getDouble("Width", 0);
+	}
+	
+	public double getHeight() {
+		return getDouble("Height", 0);
+	}
+	
+	// line cells can also come from the shape's style. Same order as
+	// XDGFShape.getLineColor: the shape's cell, its line style, then its
+	// master shape, and the document's default line style last
+	protected String getLineCell(String cellName) {
+		
+		for (StreamShape shape = this; shape != null; shape = shape.masterShape) {
+			
+			String v = shape.cells.get(cellName);
+			if (v != null)
+				return v;
+			
+			if (shape.lineStyle != null && document != null) {
+				v = document.getLineStyleCell(shape.lineStyle, cellName);
+				if (v != null)
+					return v;
+			}
+		}
+		
+		return document == null ? null : document.getDefaultLineStyleCell(cellName);
+	}
+	
+	public Color getLineColor() {
+		return parseColor(getLineCell("LineColor"));
+	}
+	
+	public Integer getLinePattern() {
+		return parseInteger(getLineCell("LinePattern"));
+	}
+	
+	//
+	// Geometry
+	//
+	
+	// own sections combined with the master shape's
+	public Map<Long, StreamGeometry> getGeometrySections() {
+		
+		Map<Long, StreamGeometry> masterSections = masterShape == null ? 
+				Collections.<Long, StreamGeometry>emptyMap() : masterShape.getGeometrySections();
+		
+		if (geometry == null)
+			return masterSections;
+		
+		if (masterSections.isEmpty())
+			return geometry;
+		
+		TreeMap<Long, StreamGeometry> combined = new TreeMap<>(masterSections);
+		for (Map.Entry<Long, StreamGeometry> entry: geometry.entrySet()) {
+			combined.put(entry.getKey(), entry.getValue().combine(masterSections.get(entry.getKey())));
+		}
+		
+		return combined;
+	}
+	
+	// path of the first visible geometry section, in local coordinates
+	public Path2D.Double getPath() {
+		for (StreamGeometry section: getGeometrySections().values()) {
+			if (section.isNoShow())
+				continue;
+			
+			return section.getPath(this);
+		}
+		return null;
+	}
+	
+	public Path2D.Double getBoundsAsPath() {
+		double w = getWidth();
+		double h = getHeight();
+		
+		Path2D.Double bounds = new Path2D.Double();
+		bounds.moveTo(0, 0);
+		bounds.lineTo(w, 0);
+		bounds.lineTo(w, h);
+		bounds.lineTo(0, h);
+		bounds.lineTo(0, 0);
+		return bounds;
+	}
+	
+	// same as XDGFShape.getParentToLocalTransform
+	public AffineTransform getParentToLocalTransform() {
+		
+		double locX = getDouble("LocPinX", getWidth()*0.5);
+		double locY = getDouble("LocPinY", getHeight()*0.5);
+		double angle = getDouble("Angle", 0);
+		
+		AffineTransform tr = new AffineTransform();
+		tr.translate(-locX, -locY);
+		tr.translate(getDouble("PinX", 0), getDouble("PinY", 0));
+		
+		if (Math.abs(angle) > 0.001)
+			tr.rotate(angle, locX, locY);
+		
+		if (getDouble("FlipX", 0) != 0) {
+			tr.scale(-1, 1);
+			tr.translate(-getWidth(), 0);
+		}
+		
+		if (getDouble("FlipY", 0) != 0) {
+			tr.scale(1, -1);
+			tr.translate(0, -getHeight());
+		}
+		
+		return tr;
+	}
+	
+	// in local coordinates
+	public Point2D getTextCenter() {
+		return new Point2D.Double(getDouble("TxtLocPinX", getWidth()*0.5),
+								  getDouble("TxtLocPinY", getHeight()*0.5));
+	}
+	
+	@Override
+	public String toString() {
+		return "[StreamShape " + id + "]";
+	}
+	
+	//
+	// Internals
+	//
+	
+	protected void addChild(StreamShape child) {
+		if (children == null)
+			children = new ArrayList<>();
+		children.add(child);
+	}
+	
+	// cells with formula errors have non-numeric values
+	static Double parseDouble(String v) {
+		if (v == null || v.isEmpty())
+			return null;
+		
+		try {
+			return Double.parseDouble(v);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+	
+	public static Integer parseInteger(String v) {
+		Double d = parseDouble(v);
+		return d == null ? null : d.intValue();
+	}
+	
+	// the default Visio color table
+	static final Color[] COLORS = {
+		new Color(0x000000), new Color(0xFFFFFF), new Color(0xFF0000), new Color(0x00FF00),
+		new Color(0x0000FF), new Color(0xFFFF00), new Color(0xFF00FF), new Color(0x00FFFF),
+		new Color(0x800000), new Color(0x008000), new Color(0x000080), new Color(0x808000),
+		new Color(0x800080), new Color(0x008080), new Color(0xC0C0C0), new Color(0xE6E6E6),
+		new Color(0xCDCDCD), new Color(0xB3B3B3), new Color(0x9A9A9A), new Color(0x808080),
+		new Color(0x666666), new Color(0x4D4D4D), new Color(0x333333), new Color(0x1A1A1A)
+	};
+	
+	// a color cell holds #rrggbb or an index into the color table. Both
+	// parsers use this, so anything else (a formula error, or an index into
+	// the document's own colors) is null for both
+	public static Color parseColor(String v) {
+		if (v == null || v.isEmpty())
+			return null;
+		
+		if (v.startsWith("#")) {
+			try {
+				return Color.decode(v);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		
+		Double index = parseDouble(v);
+		if (index != null && index >= 0 && index < COLORS.length)
+			return COLORS[index.intValue()];
+		
+		return null;
+	}
+}
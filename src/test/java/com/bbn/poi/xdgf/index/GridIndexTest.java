@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GridIndexTest extends SpatialIndexTest {
+
+	@Override
+	protected SpatialIndex<Item> createIndex() {
+		return new GridIndex<>();
+	}
+	
+	// cells much smaller than the items, so most items are in many cells
+	@Test
+	public void smallCellsMatchBruteForce() {
+		
+		Random random = new Random(2);
+		List<Item> live = new ArrayList<>();
+		GridIndex<Item> index = new GridIndex<>(0.25);
+		
+		for (int i = 0; i < 300; i++) {
+			Item item = randomItem(random, i, true);
+			index.add(item, item.minX, item.minY, item.maxX, item.maxY);
+			live.add(item);
+		}
+		
+		for (int q = 0; q < 200; q++) {
+			double x = random.nextDouble()*120 - 10;
+			double y = random.nextDouble()*120 - 10;
+			double d = random.nextDouble()*5;
+			
+			Collector found = new Collector();
+			index.searchNear(x, y, x + 1, y + 1, d, found);
+			
+			HashSet<Item> expected = new HashSet<>();
+			for (Item item: live) {
+				if (item.distance(x, y, x + 1, y + 1) < d)
+					expected.add(item);
+			}
+			
+			assertEquals(expected, new HashSet<>(found.items));
+			assertEquals("duplicates", expected.size(), found.items.size());
+		}
+	}
+	
+	// nearest reuses its seen set, so a visitor that searches again must
+	// not disturb the search it was called from
+	@Test
+	public void nestedNearestSearches() {
+		
+		Random random = new Random(3);
+		final GridIndex<Item> index = new GridIndex<>(1);
+		final List<Item> live = new ArrayList<>();
+		
+		for (int i = 0; i < 200; i++) {
+			Item item = randomItem(random, i, true);
+			index.add(item, item.minX, item.minY, item.maxX, item.maxY);
+			live.add(item);
+		}
+		
+		final List<Item> outer = new ArrayList<>();
+		final List<Item> inner = new ArrayList<>();
+		
+		index.nearest(50, 50, 51, 51, 20, new SpatialIndex.Visitor<Item>() {
+			@Override
+			public boolean visit(Item item) {
+				if (outer.isEmpty()) {
+					Collector found = new Collector();
+					index.nearest(item.minX, item.minY, item.maxX, item.maxY, 10, found);
+					inner.addAll(found.items);
+				}
+				
+				outer.add(item);
+				return true;
+			}
+		});
+		
+		assertEquals(nearBruteForce(live, 50, 50, 51, 51, 20), new HashSet<>(outer));
+		assertEquals(outer.size(), new HashSet<>(outer).size());
+		
+		Item first = outer.get(0);
+		assertEquals(nearBruteForce(live, first.minX, first.minY, first.maxX, first.maxY, 10), new HashSet<>(inner));
+	}
+	
+	@Test
+	public void isSuitable() {
+		
+		Random random = new Random(4);
+		double[] similar = new double[1000*4];
+		double[] mixed = new double[1000*4];
+		
+		for (int i = 0; i < 1000; i++) {
+			double x = random.nextDouble()*100;
+			double y = random.nextDouble()*100;
+			double size = 1 + random.nextDouble();
+			
+			similar[i*4] = mixed[i*4] = x;
+			similar[i*4 + 1] = mixed[i*4 + 1] = y;
+			similar[i*4 + 2] = x + size;
+			similar[i*4 + 3] = y + size;
+			
+			// a fifth of them are containers
+			double mixedSize = i % 5 == 0 ? size*50 : size;
+			mixed[i*4 + 2] = x + mixedSize;
+			mixed[i*4 + 3] = y + mixedSize;
+		}
+		
+		assertTrue(GridIndex.isSuitable(similar, 1000));
+		assertFalse(GridIndex.isSuitable(mixed, 1000));
+		assertFalse(GridIndex.isSuitable(similar, 10));
+	}
+	
+	protected HashSet<Item> nearBruteForce(List<Item> items, double minX, double minY, double maxX, double maxY, double maxDistance) {
+		HashSet<Item> near = new HashSet<>();
+		for (Item item: items) {
+			if (item.distance(minX, minY, maxX, maxY) < maxDistance)
+				near.add(item);
+		}
+		return near;
+	}
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class LongIntHashMapTest {
+
+	// a small key space keeps the table busy with collisions and long
+	// probe runs, so removals have entries to shift back
+	@Test
+	public void matchesHashMap() {
+		
+		Random random = new Random(1);
+		
+		for (int trial = 0; trial < 50; trial++) {
+			
+			LongIntHashMap map = new LongIntHashMap(random.nextInt(32));
+			Map<Long, Integer> expected = new HashMap<>();
+			int keySpace = 1 + random.nextInt(200);
+			
+			for (int op = 0; op < 2000; op++) {
+				
+				long key = randomKey(random, keySpace);
+				
+				switch (random.nextInt(10)) {
+					case 0:
+						if (random.nextInt(20) == 0) {
+							map.clear();
+							expected.clear();
+						}
+						break;
+					
+					case 1:
+					case 2:
+					case 3:
+						assertEquals(expected.remove(key) != null, map.remove(key));
+						break;
+					
+					default:
+						int value = random.nextInt();
+						map.put(key, value);
+						expected.put(key, value);
+						break;
+				}
+				
+				assertEquals(expected.size(), map.size());
+			}
+			
+			// every key that's left is still reachable after the shifts
+			for (Map.Entry<Long, Integer> entry: expected.entrySet()) {
+				assertTrue(map.containsKey(entry.getKey()));
+				assertEquals((int)entry.getValue(), map.get(entry.getKey(), -1));
+			}
+			
+			for (int i = 0; i < keySpace; i++) {
+				long key = randomKey(random, keySpace);
+				assertEquals(expected.containsKey(key), map.containsKey(key));
+			}
+		}
+	}
+	
+	// removing every key, in a different order than they went in
+	@Test
+	public void removeAll() {
+		
+		Random random = new Random(2);
+		LongIntHashMap map = new LongIntHashMap();
+		
+		long[] keys = new long[1000];
+		for (int i = 0; i < keys.length; i++) {
+			keys[i] = random.nextLong();
+			map.put(keys[i], i);
+		}
+		
+		for (int i = keys.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long t = keys[i];
+			keys[i] = keys[j];
+			keys[j] = t;
+		}
+		
+		for (int i = 0; i < keys.length; i++) {
+			assertTrue(map.remove(keys[i]));
+			
+			for (int j = i + 1; j < keys.length; j += 37)
+				assertTrue(map.containsKey(keys[j]));
+		}
+		
+		assertEquals(0, map.size());
+		assertFalse(map.remove(keys[0]));
+		assertEquals(-1, map.get(keys[0], -1));
+	}
+	
+	// negative keys and the extremes hash like any other
+	protected long randomKey(Random random, int keySpace) {
+		long key = random.nextInt(keySpace);
+		switch (random.nextInt(8)) {
+			case 0: return -key;
+			case 1: return Long.MAX_VALUE - key;
+			case 2: return Long.MIN_VALUE + key;
+			default: return key << 32;
+		}
+	}
+}
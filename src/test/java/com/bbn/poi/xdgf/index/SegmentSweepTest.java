@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.geom.Path2D;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.bbn.poi.xdgf.geom.Segments;
+
+public class SegmentSweepTest {
+
+	// connectors on a coarse grid, so that many segments share a line,
+	// touch at their ends or are points, with some diagonals
+	@Test
+	public void matchesBruteForce() {
+		
+		Random random = new Random(1);
+		
+		for (int trial = 0; trial < 300; trial++) {
+			
+			int n = 1 + random.nextInt(30);
+			List<Segments> lines = new ArrayList<>();
+			SegmentSweep sweep = new SegmentSweep();
+			
+			for (int i = 0; i < n; i++) {
+				Segments segments = new Segments(randomPath(random), null);
+				lines.add(segments);
+				assertEquals(i, sweep.add(segments));
+			}
+			
+			final Set<String> found = new HashSet<>();
+			final int[] duplicates = {0};
+			
+			sweep.run(new SegmentSweep.Listener() {
+				@Override
+				public void overlap(int ownerA, int segmentA, int ownerB, int segmentB) {
+					assertTrue(ownerA < ownerB);
+					if (!found.add(ownerA + "," + segmentA + "," + ownerB + "," + segmentB))
+						duplicates[0]++;
+				}
+			});
+			
+			Set<String> expected = new HashSet<>();
+			for (int a = 0; a < n; a++) {
+				for (int b = a + 1; b < n; b++) {
+					Segments sa = lines.get(a);
+					Segments sb = lines.get(b);
+					
+					for (int i = 0; i < sa.size(); i++) {
+						for (int j = 0; j < sb.size(); j++) {
+							if (sa.overlaps(i, sb.minX(j), sb.minY(j), sb.maxX(j), sb.maxY(j)))
+								expected.add(a + "," + i + "," + b + "," + j);
+						}
+					}
+				}
+			}
+			
+			assertEquals(expected, found);
+			assertEquals(0, duplicates[0]);
+		}
+	}
+	
+	protected Path2D randomPath(Random random) {
+		
+		double x = random.nextInt(40);
+		double y = random.nextInt(40);
+		
+		Path2D.Double path = new Path2D.Double();
+		path.moveTo(x, y);
+		
+		for (int i = 1 + random.nextInt(5); i > 0; i--) {
+			int kind = random.nextInt(10);
+			if (kind < 4) {
+				x = random.nextInt(40);
+			} else if (kind < 8) {
+				y = random.nextInt(40);
+			} else if (kind < 9) {
+				x = random.nextInt(40);
+				y = random.nextInt(40);
+			}
+			
+			// the rest repeat the last point
+			path.lineTo(x, y);
+		}
+		
+		return path;
+	}
+}
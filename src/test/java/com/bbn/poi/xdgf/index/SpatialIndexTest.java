@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Checks an index against a brute force scan of the same items, through
+ * a random mix of loads, additions, removals and searches.
+ */
+public abstract class SpatialIndexTest {
+
+	protected static class Item {
+		
+		final int id;
+		final double minX, minY, maxX, maxY;
+		
+		Item(int id, double minX, double minY, double maxX, double maxY) {
+			this.id = id;
+			this.minX = minX;
+			this.minY = minY;
+			this.maxX = maxX;
+			this.maxY = maxY;
+		}
+		
+		boolean intersects(double x1, double y1, double x2, double y2) {
+			return minX <= x2 && x1 <= maxX && minY <= y2 && y1 <= maxY;
+		}
+		
+		double distance(double x1, double y1, double x2, double y2) {
+			double dx = Math.max(0, Math.max(minX - x2, x1 - maxX));
+			double dy = Math.max(0, Math.max(minY - y2, y1 - maxY));
+			return Math.sqrt(dx*dx + dy*dy);
+		}
+		
+		@Override
+		public String toString() {
+			return "[Item " + id + "]";
+		}
+	}
+	
+	protected static class Collector implements SpatialIndex.Visitor<Item> {
+		
+		final List<Item> items = new ArrayList<>();
+		
+		@Override
+		public boolean visit(Item item) {
+			items.add(item);
+			return true;
+		}
+	}
+	
+	protected abstract SpatialIndex<Item> createIndex();
+	
+	@Test
+	public void matchesBruteForce() {
+		
+		Random random = new Random(1);
+		
+		for (int trial = 0; trial < 100; trial++) {
+			
+			// some pages have a few large containers among small shapes
+			boolean mixed = random.nextBoolean();
+			int n = random.nextInt(400);
+			
+			List<Item> live = new ArrayList<>();
+			double[] bounds = new double[n*4];
+			
+			for (int i = 0; i < n; i++) {
+				Item item = randomItem(random, i, mixed);
+				live.add(item);
+				bounds[i*4] = item.minX;
+				bounds[i*4 + 1] = item.minY;
+				bounds[i*4 + 2] = item.maxX;
+				bounds[i*4 + 3] = item.maxY;
+			}
+			
+			SpatialIndex<Item> index = createIndex();
+			index.load(live, bounds);
+			
+			int nextId = n;
+			
+			for (int op = 0; op < 200; op++) {
+				
+				switch (random.nextInt(4)) {
+					case 0: {
+						Item item = randomItem(random, nextId++, mixed);
+						index.add(item, item.minX, item.minY, item.maxX, item.maxY);
+						live.add(item);
+						break;
+					}
+					
+					case 1: {
+						if (live.isEmpty())
+							break;
+						
+						Item item = live.remove(random.nextInt(live.size()));
+						assertTrue(index.remove(item, item.minX, item.minY, item.maxX, item.maxY));
+						assertFalse(index.remove(item, item.minX, item.minY, item.maxX, item.maxY));
+						break;
+					}
+					
+					default: {
+						double x = random.nextDouble()*160 - 30;
+						double y = random.nextDouble()*160 - 30;
+						double w = random.nextDouble()*20;
+						double h = random.nextDouble()*20;
+						
+						Collector found = new Collector();
+						Set<Item> expected = new HashSet<>();
+						
+						if (random.nextBoolean()) {
+							index.search(x, y, x + w, y + h, found);
+							for (Item item: live) {
+								if (item.intersects(x, y, x + w, y + h))
+									expected.add(item);
+							}
+						} else {
+							double d = random.nextDouble()*10;
+							index.searchNear(x, y, x + w, y + h, d, found);
+							for (Item item: live) {
+								if (item.distance(x, y, x + w, y + h) < d)
+									expected.add(item);
+							}
+						}
+						
+						assertEquals(expected, new HashSet<>(found.items));
+						assertEquals("duplicates", expected.size(), found.items.size());
+					}
+				}
+				
+				assertEquals(live.size(), index.size());
+			}
+		}
+	}
+	
+	// same items as searchNear, closest first
+	@Test
+	public void nearestMatchesBruteForce() {
+		
+		Random random = new Random(5);
+		
+		for (int trial = 0; trial < 50; trial++) {
+			
+			int n = random.nextInt(300);
+			List<Item> live = new ArrayList<>();
+			SpatialIndex<Item> index = createIndex();
+			
+			for (int i = 0; i < n; i++) {
+				Item item = randomItem(random, i, random.nextBoolean());
+				index.add(item, item.minX, item.minY, item.maxX, item.maxY);
+				live.add(item);
+			}
+			
+			for (int q = 0; q < 20; q++) {
+				double x = random.nextDouble()*160 - 30;
+				double y = random.nextDouble()*160 - 30;
+				double w = random.nextDouble()*5;
+				double d = random.nextInt(5) == 0 ? Double.POSITIVE_INFINITY : random.nextDouble()*30;
+				
+				Collector found = new Collector();
+				index.nearest(x, y, x + w, y + w, d, found);
+				
+				Set<Item> expected = new HashSet<>();
+				for (Item item: live) {
+					if (item.distance(x, y, x + w, y + w) < d)
+						expected.add(item);
+				}
+				
+				assertEquals(expected, new HashSet<>(found.items));
+				assertEquals("duplicates", expected.size(), found.items.size());
+				
+				double previous = 0;
+				for (Item item: found.items) {
+					double distance = item.distance(x, y, x + w, y + w);
+					assertTrue("order of " + item, distance >= previous);
+					previous = distance;
+				}
+			}
+		}
+	}
+	
+	// stopping early still gives the closest items
+	@Test
+	public void nearestStopsEarly() {
+		
+		SpatialIndex<Item> index = createIndex();
+		for (int i = 0; i < 100; i++)
+			index.add(new Item(i, i*2, 0, i*2 + 1, 1), i*2, 0, i*2 + 1, 1);
+		
+		final List<Item> found = new ArrayList<>();
+		index.nearest(-10, 0, -10, 1, Double.POSITIVE_INFINITY, new SpatialIndex.Visitor<Item>() {
+			@Override
+			public boolean visit(Item item) {
+				found.add(item);
+				return found.size() < 3;
+			}
+		});
+		
+		assertEquals(3, found.size());
+		for (int i = 0; i < 3; i++)
+			assertEquals(i, found.get(i).id);
+	}
+	
+	@Test
+	public void stopsWhenVisitorReturnsFalse() {
+		
+		SpatialIndex<Item> index = createIndex();
+		for (int i = 0; i < 100; i++)
+			index.add(new Item(i, i, 0, i + 1, 1), i, 0, i + 1, 1);
+		
+		final int[] visits = {0};
+		index.search(0, 0, 100, 1, new SpatialIndex.Visitor<Item>() {
+			@Override
+			public boolean visit(Item item) {
+				visits[0]++;
+				return visits[0] < 3;
+			}
+		});
+		
+		assertEquals(3, visits[0]);
+	}
+	
+	protected Item randomItem(Random random, int id, boolean mixed) {
+		double x = random.nextDouble()*100;
+		double y = random.nextDouble()*100;
+		double w = mixed && random.nextInt(10) == 0 ? random.nextDouble()*60 : random.nextDouble()*2;
+		
+		// lines have no height
+		double h = random.nextInt(20) == 0 ? 0 : random.nextDouble()*2;
+		
+		return new Item(id, x, y, x + w, y + h);
+	}
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.index;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SpatialJoinTest {
+
+	// records each pair, counting any reported twice
+	protected static class Pairs implements SpatialJoin.Listener {
+		
+		final Set<Long> pairs = new HashSet<>();
+		int duplicates = 0;
+		
+		@Override
+		public void overlap(int a, int b) {
+			if (!pairs.add(((long)a << 32) | b))
+				duplicates++;
+		}
+	}
+	
+	@Test
+	public void joinMatchesBruteForce() {
+		
+		Random random = new Random(1);
+		
+		for (int trial = 0; trial < 100; trial++) {
+			
+			int na = random.nextInt(300);
+			int nb = random.nextInt(300);
+			double[] a = randomBounds(random, na);
+			double[] b = randomBounds(random, nb);
+			
+			Pairs found = new Pairs();
+			SpatialJoin.join(a, na, b, nb, found);
+			
+			Set<Long> expected = new HashSet<>();
+			for (int i = 0; i < na; i++) {
+				for (int j = 0; j < nb; j++) {
+					if (intersects(a, i, b, j))
+						expected.add(((long)i << 32) | j);
+				}
+			}
+			
+			assertEquals(expected, found.pairs);
+			assertEquals(0, found.duplicates);
+		}
+	}
+	
+	// each pair once, lower index first, and never an item with itself
+	@Test
+	public void selfJoinMatchesBruteForce() {
+		
+		Random random = new Random(2);
+		
+		for (int trial = 0; trial < 100; trial++) {
+			
+			int n = random.nextInt(400);
+			double[] bounds = randomBounds(random, n);
+			
+			Pairs found = new Pairs();
+			SpatialJoin.selfJoin(bounds, n, found);
+			
+			Set<Long> expected = new HashSet<>();
+			for (int i = 0; i < n; i++) {
+				for (int j = i + 1; j < n; j++) {
+					if (intersects(bounds, i, bounds, j))
+						expected.add(((long)i << 32) | j);
+				}
+			}
+			
+			assertEquals(expected, found.pairs);
+			assertEquals(0, found.duplicates);
+		}
+	}
+	
+	// integer coordinates so that many rectangles touch, a tenth of them
+	// are large containers and some have no area
+	protected double[] randomBounds(Random random, int n) {
+		
+		double[] bounds = new double[n*4];
+		
+		for (int i = 0; i < n; i++) {
+			double x = random.nextInt(100);
+			double y = random.nextInt(100);
+			double w = random.nextInt(10) == 0 ? random.nextInt(50) : random.nextInt(4);
+			double h = random.nextInt(4);
+			
+			bounds[i*4] = x;
+			bounds[i*4 + 1] = y;
+			bounds[i*4 + 2] = x + w;
+			bounds[i*4 + 3] = y + h;
+		}
+		
+		return bounds;
+	}
+	
+	protected boolean intersects(double[] a, int i, double[] b, int j) {
+		return a[i*4] <= b[j*4 + 2] && b[j*4] <= a[i*4 + 2] &&
+		       a[i*4 + 1] <= b[j*4 + 3] && b[j*4 + 1] <= a[i*4 + 3];
+	}
+}
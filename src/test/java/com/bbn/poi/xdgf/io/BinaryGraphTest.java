@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.io;
+
+import static com.bbn.poi.xdgf.io.BinaryGraphFormat.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+import com.tinkerpop.blueprints.impls.tg.TinkerGraph;
+
+public class BinaryGraphTest {
+
+	@Test
+	public void roundTrip() throws IOException {
+		
+		Graph graph = createGraph();
+		Graph copy = new TinkerGraph();
+		BinaryGraphReader.inputGraph(copy, ByteBuffer.wrap(write(graph)));
+		
+		int vertices = 0;
+		for (Vertex vertex: graph.getVertices()) {
+			Vertex other = copy.getVertex(vertex.getId());
+			assertNotNull("missing vertex " + vertex.getId(), other);
+			assertSameProperties(vertex, other);
+			vertices++;
+		}
+		
+		int edges = 0;
+		for (Edge edge: graph.getEdges()) {
+			Edge other = copy.getEdge(edge.getId());
+			assertNotNull("missing edge " + edge.getId(), other);
+			assertEquals(edge.getLabel(), other.getLabel());
+			assertEquals(edge.getVertex(Direction.OUT).getId(), other.getVertex(Direction.OUT).getId());
+			assertEquals(edge.getVertex(Direction.IN).getId(), other.getVertex(Direction.IN).getId());
+			assertSameProperties(edge, other);
+			edges++;
+		}
+		
+		assertEquals(vertices, count(copy.getVertices()));
+		assertEquals(edges, count(copy.getEdges()));
+	}
+	
+	// every prefix of a file either ends on a record boundary or is
+	// reported as truncated
+	@Test
+	public void truncatedFilesThrowIOException() throws IOException {
+		
+		byte[] bytes = write(createGraph());
+		
+		for (int length = 0; length < bytes.length; length++) {
+			try {
+				BinaryGraphReader.inputGraph(new TinkerGraph(), ByteBuffer.wrap(bytes, 0, length));
+			} catch (IOException e) {
+				// expected for most lengths
+			}
+		}
+	}
+	
+	// a record whose fields run past its own length
+	@Test
+	public void shortRecordThrowsIOException() throws IOException {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		
+		out.writeByte(RECORD_STRING);
+		out.writeInt(5);
+		out.writeInt(1);
+		out.writeByte('a');
+		
+		// the vertex has no property count, and the empty record of an
+		// unknown type after it would read as a count of 0
+		out.writeByte(RECORD_VERTEX);
+		out.writeInt(4);
+		out.writeInt(0);
+		
+		out.writeByte(0);
+		out.writeInt(0);
+		
+		assertMalformed(bytes.toByteArray());
+	}
+	
+	@Test
+	public void stringLongerThanRecordThrowsIOException() throws IOException {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		
+		out.writeByte(RECORD_STRING);
+		out.writeInt(8);
+		out.writeInt(100);
+		out.writeInt(0);
+		
+		assertMalformed(bytes.toByteArray());
+	}
+	
+	@Test
+	public void negativeStringLengthThrowsIOException() throws IOException {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		
+		out.writeByte(RECORD_STRING);
+		out.writeInt(4);
+		out.writeInt(-1);
+		
+		assertMalformed(bytes.toByteArray());
+	}
+	
+	@Test
+	public void partialRecordHeaderThrowsIOException() throws IOException {
+		
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeByte(RECORD_STRING);
+		out.writeShort(0);
+		
+		assertMalformed(bytes.toByteArray());
+	}
+	
+	protected Graph createGraph() {
+		
+		Graph graph = new TinkerGraph();
+		
+		char[] longText = new char[1000];
+		Arrays.fill(longText, 'x');
+		
+		for (int i = 0; i < 20; i++) {
+			Vertex vertex = graph.addVertex("v" + i);
+			vertex.setProperty("label", "shape " + i);
+			vertex.setProperty("type", i % 2 == 0 ? "Shape" : "Group");
+			vertex.setProperty("is1d", i % 3 == 0);
+			vertex.setProperty("count", i);
+			vertex.setProperty("shapeId", 1000000000000L + i);
+			vertex.setProperty("scale", i * 0.5f);
+			vertex.setProperty("x", i * 1.25);
+		}
+		
+		Vertex first = graph.getVertex("v0");
+		first.setProperty("name", "\u00fcber \u4e2d\u6587");
+		first.setProperty("text", new String(longText));
+		
+		for (int i = 0; i < 19; i++) {
+			Edge edge = graph.addEdge("e" + i, graph.getVertex("v" + i), graph.getVertex("v" + (i + 1)), "connects");
+			edge.setProperty("x", i + 0.25);
+			edge.setProperty("y", -i - 0.25);
+		}
+		
+		graph.addEdge("loop", first, first, "self");
+		return graph;
+	}
+	
+	protected byte[] write(Graph graph) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		new BinaryGraphWriter(graph).outputGraph(bytes);
+		return bytes.toByteArray();
+	}
+	
+	protected void assertMalformed(byte[] bytes) {
+		try {
+			BinaryGraphReader.inputGraph(new TinkerGraph(), ByteBuffer.wrap(bytes));
+			fail("malformed file was read");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+	
+	protected void assertSameProperties(Element expected, Element actual) {
+		
+		assertEquals(expected.getPropertyKeys(), actual.getPropertyKeys());
+		
+		for (String key: expected.getPropertyKeys())
+			assertEquals(key, expected.getProperty(key), actual.getProperty(key));
+	}
+	
+	protected int count(Iterable<?> elements) {
+		int n = 0;
+		for (@SuppressWarnings("unused") Object element: elements)
+			n++;
+		return n;
+	}
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ExternalSortTest {
+
+	// compared against Collections.sort, with chunk sizes from everything
+	// in memory down to one record per spill
+	@Test
+	public void matchesInMemorySort() throws IOException {
+		
+		Random random = new Random(1);
+		File dir = Files.createTempDirectory("sort").toFile();
+		
+		try {
+			for (int trial = 0; trial < 50; trial++) {
+				
+				int n = random.nextInt(300);
+				int chunkSize = 1 + random.nextInt(random.nextBoolean() ? 10 : 400);
+				
+				// keys repeat, so each value includes its key and position
+				List<String[]> records = new ArrayList<>();
+				for (int i = 0; i < n; i++) {
+					String key = "k" + random.nextInt(n + 1);
+					records.add(new String[] {key, key + ":" + i + ";"});
+				}
+				
+				StringWriter out = new StringWriter();
+				try (ExternalSort sort = new ExternalSort(chunkSize, dir)) {
+					for (String[] record: records)
+						sort.add(record[0], record[1]);
+					
+					sort.writeTo(out);
+				}
+				
+				assertEquals(0, dir.list().length);
+				
+				// records with equal keys may come out in any order
+				List<String> actual = new ArrayList<>();
+				String previousKey = "";
+				
+				for (String value: out.toString().split(";")) {
+					if (value.isEmpty())
+						continue;
+					
+					String key = value.substring(0, value.indexOf(':'));
+					assertTrue("order of " + value, previousKey.compareTo(key) <= 0);
+					previousKey = key;
+					actual.add(value);
+				}
+				
+				List<String> expected = new ArrayList<>();
+				for (String[] record: records)
+					expected.add(record[1].substring(0, record[1].length() - 1));
+				
+				Collections.sort(expected);
+				Collections.sort(actual);
+				assertEquals(expected, actual);
+			}
+		} finally {
+			dir.delete();
+		}
+	}
+	
+	// DataOutputStream.writeUTF would fail on these
+	@Test
+	public void longValues() throws IOException {
+		
+		char[] chars = new char[100000];
+		Arrays.fill(chars, 'x');
+		String value = new String(chars);
+		
+		StringWriter out = new StringWriter();
+		try (ExternalSort sort = new ExternalSort(1, null)) {
+			sort.add("b", "2");
+			sort.add("a", value);
+			sort.writeTo(out);
+		}
+		
+		assertEquals(value + "2", out.toString());
+	}
+}
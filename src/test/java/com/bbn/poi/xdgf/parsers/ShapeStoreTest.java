@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.geom.AffineTransform;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.bbn.poi.xdgf.parsers.stream.StreamShape;
+
+public class ShapeStoreTest {
+
+	// few distinct keys, so a stable sort has ties to keep in order
+	protected static final Comparator<ShapeData> BY_KEY = new Comparator<ShapeData>() {
+		@Override
+		public int compare(ShapeData a, ShapeData b) {
+			return Long.compare(a.shapeId % 7, b.shapeId % 7);
+		}
+	};
+	
+	@Test
+	public void matchesList() {
+		
+		Random random = new Random(1);
+		
+		for (int trial = 0; trial < 50; trial++) {
+			
+			ShapeStore store = new ShapeStore();
+			List<ShapeData> expected = new ArrayList<>();
+			List<ShapeData> removed = new ArrayList<>();
+			long nextId = 0;
+			
+			for (int op = 0; op < 1000; op++) {
+				
+				switch (random.nextInt(10)) {
+					case 0:
+						store.compactIfNeeded();
+						break;
+					
+					case 1:
+						if (random.nextInt(10) == 0) {
+							store.sort(BY_KEY);
+							Collections.sort(expected, BY_KEY);
+						}
+						break;
+					
+					case 2:
+					case 3:
+					case 4:
+						if (!expected.isEmpty()) {
+							ShapeData shapeData = expected.remove(random.nextInt(expected.size()));
+							assertTrue(store.remove(shapeData));
+							removed.add(shapeData);
+						}
+						break;
+					
+					case 5:
+						// removing twice, or re-adding a removed shape
+						if (!removed.isEmpty()) {
+							ShapeData shapeData = removed.remove(random.nextInt(removed.size()));
+							assertFalse(store.remove(shapeData));
+							if (random.nextBoolean()) {
+								store.add(shapeData);
+								expected.add(shapeData);
+							}
+						}
+						break;
+					
+					default:
+						ShapeData shapeData = createShape(nextId++);
+						store.add(shapeData);
+						expected.add(shapeData);
+						break;
+				}
+				
+				assertEquals(expected.size(), store.size());
+				assertEquals(expected.isEmpty(), store.isEmpty());
+			}
+			
+			assertEquals(expected, toList(store));
+			
+			store.compact();
+			assertEquals(expected, toList(store));
+		}
+	}
+	
+	// every other shape is removed as the iteration reaches it, and the
+	// shape after the current one is removed before the iterator gets there
+	@Test
+	public void removeWhileIterating() {
+		
+		ShapeStore store = new ShapeStore();
+		List<ShapeData> expected = new ArrayList<>();
+		
+		for (int i = 0; i < 300; i++) {
+			ShapeData shapeData = createShape(i);
+			store.add(shapeData);
+			expected.add(shapeData);
+		}
+		
+		List<ShapeData> visited = new ArrayList<>();
+		for (ShapeData shapeData: store) {
+			visited.add(shapeData);
+			
+			int i = (int)shapeData.shapeId;
+			if (i % 2 == 0)
+				assertTrue(store.remove(shapeData));
+			
+			if (i % 3 == 0 && i + 1 < expected.size())
+				assertTrue(store.remove(expected.get(i + 1)));
+		}
+		
+		for (int i = 0; i < visited.size() - 1; i++)
+			assertTrue(visited.get(i).shapeId < visited.get(i + 1).shapeId);
+		
+		for (ShapeData shapeData: expected) {
+			boolean skipped = shapeData.shapeId % 3 == 1;
+			assertEquals(!skipped, visited.contains(shapeData));
+			assertEquals(shapeData.shapeId % 2 == 1 && !skipped, shapeData.storeIndex != -1);
+		}
+		
+		List<ShapeData> left = toList(store);
+		store.compact();
+		assertEquals(left, toList(store));
+		assertEquals(left.size(), store.size());
+	}
+	
+	@Test
+	public void addTwice() {
+		
+		ShapeStore store = new ShapeStore();
+		ShapeData shapeData = createShape(1);
+		store.add(shapeData);
+		
+		try {
+			store.add(shapeData);
+			fail();
+		} catch (IllegalStateException e) {
+			// expected
+		}
+		
+		assertEquals(1, store.size());
+	}
+	
+	protected ShapeData createShape(long id) {
+		return new ShapeData(new StreamShape(id, null), new AffineTransform());
+	}
+	
+	protected List<ShapeData> toList(ShapeStore store) {
+		List<ShapeData> list = new ArrayList<>();
+		for (ShapeData shapeData: store)
+			list.add(shapeData);
+		return list;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 Raytheon BBN Technologies Corp
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bbn.poi.xdgf.parsers;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.bbn.poi.xdgf.cache.GraphCache;
+import com.tinkerpop.blueprints.Direction;
+import com.tinkerpop.blueprints.Edge;
+import com.tinkerpop.blueprints.Element;
+import com.tinkerpop.blueprints.Graph;
+import com.tinkerpop.blueprints.Vertex;
+
+// parity.vsdx has connectors whose line colors are given as #rrggbb, as
+// color indexes and through line styles, so that inferred connections
+// depend on both parsers reading them the same way
+public class StreamingParityTest {
+
+	@Test
+	public void streamedPagesMatchPoi() throws Exception {
+		
+		File file = new File(getClass().getResource("parity.vsdx").toURI());
+		
+		VisioParser poi = new VisioParser(file, null, (GraphCache)null);
+		VisioParser streamed = new VisioParser(file, null, (GraphCache)null) {
+			@Override
+			protected boolean useStreamingParser() {
+				return true;
+			}
+		};
+		
+		Map<Long, Graph> expected = poi.getPageGraphs();
+		Map<Long, Graph> actual = streamed.getPageGraphs();
+		
+		assertEquals(expected.keySet(), actual.keySet());
+		
+		for (Map.Entry<Long, Graph> entry: expected.entrySet())
+			assertSameGraph(entry.getValue(), actual.get(entry.getKey()));
+	}
+	
+	protected void assertSameGraph(Graph expected, Graph actual) {
+		
+		int vertices = 0;
+		for (Vertex vertex: expected.getVertices()) {
+			Vertex other = actual.getVertex(vertex.getId());
+			assertNotNull("missing vertex " + vertex.getId(), other);
+			assertSameProperties(vertex, other);
+			vertices++;
+		}
+		
+		int edges = 0;
+		for (Edge edge: expected.getEdges()) {
+			Edge other = actual.getEdge(edge.getId());
+			assertNotNull("missing edge " + edge.getId(), other);
+			assertEquals(edge.getLabel(), other.getLabel());
+			assertEquals(edge.getVertex(Direction.OUT).getId(), other.getVertex(Direction.OUT).getId());
+			assertEquals(edge.getVertex(Direction.IN).getId(), other.getVertex(Direction.IN).getId());
+			assertSameProperties(edge, other);
+			edges++;
+		}
+		
+		assertEquals(vertices, count(actual.getVertices()));
+		assertEquals(edges, count(actual.getEdges()));
+	}
+	
+	protected void assertSameProperties(Element expected, Element actual) {
+		
+		assertEquals(expected.getId().toString(), expected.getPropertyKeys(), actual.getPropertyKeys());
+		
+		for (String key: expected.getPropertyKeys()) {
+			Object value = expected.getProperty(key);
+			String message = expected.getId() + "." + key;
+			
+			if (value instanceof Double)
+				assertEquals(message, (Double)value, (Double)actual.getProperty(key), 1e-6);
+			else
+				assertEquals(message, value, actual.getProperty(key));
+		}
+	}
+	
+	protected int count(Iterable<?> elements) {
+		int n = 0;
+		for (@SuppressWarnings("unused") Object element: elements)
+			n++;
+		return n;
+	}
+}